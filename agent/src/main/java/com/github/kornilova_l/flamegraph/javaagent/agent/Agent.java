@@ -4,6 +4,16 @@ import com.github.kornilova_l.flamegraph.configuration.MethodConfig;
 import com.github.kornilova_l.flamegraph.javaagent.logger.Logger;
 import com.github.kornilova_l.flamegraph.javaagent.logger.LoggerQueue;
 import com.github.kornilova_l.flamegraph.javaagent.logger.WaitingLoggingToFinish;
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.PrimitiveEventBuffers;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.EventQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.OverflowPolicy;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.RingBufferEventQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.SharedEventQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.ChannelEventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.ColumnarEventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.EventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.SegmentEventWriter;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
@@ -14,29 +24,38 @@ import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("unused")
 public class Agent {
+    private static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    private static final int DEFAULT_SEGMENT_SIZE_MB = 64;
 
     /**
-     * @param config output file name and configuration file name separated by '&'
+     * @param config output file name and configuration file name separated by '&'.
+     *               They may be followed by options (see {@link AgentOptions})
      */
     public static void premain(String config, Instrumentation inst) {
         start(config, inst);
     }
 
     private static void start(String config, Instrumentation inst) {
-        LoggerQueue.initLoggerQueue();
         String[] parameters = config.split("&");
+        AgentOptions options = AgentOptions.parse(parameters);
+        InstrumentationSettings settings = InstrumentationSettings.fromOptions(options);
+        LoggerQueue.initLoggerQueue(createEventQueue(options), createPrimitiveEventBuffers(options, settings));
         List<String> methods = getMethodsList(new File(parameters[1]));
         if (methods == null) {
             return;
         }
-        createLogger(new File(parameters[0]));
+        if (settings.useNanoTime) {
+            useNanoTime();
+        }
+        createLogger(new File(parameters[0]), settings.useNanoTime, options);
         AgentConfigurationManager configurationManager = new AgentConfigurationManager(methods);
         configurationManager.printConfiguration();
-        inst.addTransformer(new ProfilingClassFileTransformer(configurationManager), true);
+        inst.addTransformer(new ProfilingClassFileTransformer(configurationManager, settings), true);
 
         try {
             for (Class clazz : inst.getAllLoadedClasses()) {
@@ -64,8 +83,72 @@ public class Agent {
         start(config, inst);
     }
 
-    private static void createLogger(File logFile) {
-        Logger logger = new Logger(logFile);
+    /**
+     * queue=ring turns on per-thread ring buffers.
+     * Size of each buffer is set by queue-capacity,
+     * overflow=block makes threads wait when buffer is full (by default events are dropped)
+     */
+    private static EventQueue createEventQueue(AgentOptions options) {
+        if (!options.is("queue", "ring")) {
+            return new SharedEventQueue();
+        }
+        int capacity = options.getInt("queue-capacity", DEFAULT_QUEUE_CAPACITY);
+        OverflowPolicy overflowPolicy = getOverflowPolicy(options);
+        System.out.println("Per-thread ring buffers are used. Capacity: " + capacity +
+                ", overflow policy: " + overflowPolicy);
+        return new RingBufferEventQueue(capacity, overflowPolicy);
+    }
+
+    /**
+     * capture=primitives makes methods that do not save parameters or return value
+     * write events to per-thread primitive buffers.
+     * Buffers use the same queue-capacity and overflow options as ring buffers
+     */
+    @Nullable
+    private static PrimitiveEventBuffers createPrimitiveEventBuffers(AgentOptions options,
+                                                                     InstrumentationSettings settings) {
+        if (!settings.capturePrimitives) {
+            return null;
+        }
+        System.out.println("Methods that do not save values are recorded without creating objects");
+        return new PrimitiveEventBuffers(options.getInt("queue-capacity", DEFAULT_QUEUE_CAPACITY),
+                getOverflowPolicy(options));
+    }
+
+    private static OverflowPolicy getOverflowPolicy(AgentOptions options) {
+        return options.is("overflow", "block") ?
+                OverflowPolicy.BLOCK :
+                OverflowPolicy.DROP;
+    }
+
+    /**
+     * timer=nanos makes instrumented methods measure time with System.nanoTime().
+     * Values of System.nanoTime() are shifted once, so start times in file are nanoseconds since epoch
+     * (nanoTime has the same origin in all threads of JVM)
+     */
+    private static void useNanoTime() {
+        System.out.println("Time is measured in nanoseconds");
+        MethodEventData.setStartTimeShift(
+                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime()
+        );
+    }
+
+    /**
+     * batch-size sets count of waiting events that wakes up logger,
+     * flush-interval sets max time in milliseconds between writes.
+     * output=segments makes logger write to directory of memory-mapped segments
+     * (size of segment in megabytes is set by segment-size), so events are not lost if JVM is killed
+     */
+    private static void createLogger(File logFile, boolean useNanoTime, AgentOptions options) {
+        Logger logger;
+        try {
+            logger = new Logger(logFile, createEventWriter(logFile, options), useNanoTime,
+                    options.getInt("batch-size", Logger.DEFAULT_BATCH_SIZE),
+                    options.getInt("flush-interval", Logger.DEFAULT_FLUSH_INTERVAL_MS));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
         Thread loggerThread = new Thread(logger, "logging thread");
         loggerThread.setDaemon(true);
@@ -74,6 +157,21 @@ public class Agent {
         Runtime.getRuntime().addShutdownHook(new WaitingLoggingToFinish("shutdown-hook", logger));
     }
 
+    private static EventWriter createEventWriter(File logFile, AgentOptions options) throws IOException {
+        if (options.is("output", "segments")) {
+            int segmentSizeMb = options.getInt("segment-size", DEFAULT_SEGMENT_SIZE_MB);
+            System.out.println("Events are written to segments of " + segmentSizeMb + "MB");
+            if (options.is("format", "columnar")) {
+                System.err.println("Columnar format is not supported for segments. Delimited events are written");
+            }
+            return new SegmentEventWriter(logFile, segmentSizeMb * 1024 * 1024);
+        }
+        if (options.is("format", "columnar")) {
+            return new ColumnarEventWriter(logFile);
+        }
+        return new ChannelEventWriter(logFile);
+    }
+
     @Nullable
     private static List<String> getMethodsList(File file) {
         try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
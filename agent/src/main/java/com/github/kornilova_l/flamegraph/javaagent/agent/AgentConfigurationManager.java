@@ -8,16 +8,35 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.kornilova_l.flamegraph.configuration.Configuration.getTypes;
 import static com.github.kornilova_l.flamegraph.configuration.MethodConfig.parseToken;
 import static com.github.kornilova_l.flamegraph.configuration.MethodConfig.splitDesc;
 
 class AgentConfigurationManager {
+    /* calls that took more than 1ms are recorded by default */
+    private static final long DEFAULT_MIN_DURATION = TimeUnit.MILLISECONDS.toNanos(1);
     private final Configuration configuration;
+    private final boolean isSamplingUsed;
 
     AgentConfigurationManager(List<String> methodConfigLines) {
         configuration = new Configuration(methodConfigLines);
+        boolean isSamplingUsed = false;
+        for (MethodConfig methodConfig : configuration.getIncludingMethodConfigs()) {
+            if (methodConfig.isSampled()) {
+                isSamplingUsed = true;
+            }
+        }
+        this.isSamplingUsed = isSamplingUsed;
+    }
+
+    /**
+     * @return true if at least one including config is sampled.
+     * In this case all methods that can see Sampler check if they are called inside call that is not recorded
+     */
+    boolean isSamplingUsed() {
+        return isSamplingUsed;
     }
 
     public void printConfiguration() {
@@ -88,6 +107,53 @@ class AgentConfigurationManager {
         }
     }
 
+    /**
+     * Sets the smallest minimal duration of configs that are applicable to method.
+     * If one of configs does not have minimal duration then default threshold (1ms) is taken into account
+     */
+    static void setMinDuration(@NotNull MethodConfig trueMethodConfig,
+                               @NotNull List<MethodConfig> methodConfigs) {
+        long minDuration = -1;
+        boolean hasConfigWithoutMinDuration = false;
+        for (MethodConfig methodConfig : methodConfigs) {
+            if (methodConfig.getMinDuration() < 0) {
+                hasConfigWithoutMinDuration = true;
+            } else if (minDuration < 0 || methodConfig.getMinDuration() < minDuration) {
+                minDuration = methodConfig.getMinDuration();
+            }
+        }
+        if (hasConfigWithoutMinDuration && minDuration > DEFAULT_MIN_DURATION) {
+            minDuration = -1;
+        }
+        trueMethodConfig.setMinDuration(minDuration);
+    }
+
+    /**
+     * Method is sampled only if all configs that are applicable to it are sampled.
+     * If there are several such configs then the one that records more calls is chosen
+     * (adaptive rate with the biggest target is preferred over fixed rate)
+     */
+    static void setSampling(@NotNull MethodConfig trueMethodConfig,
+                            @NotNull List<MethodConfig> methodConfigs) {
+        int sampleEvery = Integer.MAX_VALUE;
+        int eventsPerSecond = 0;
+        for (MethodConfig methodConfig : methodConfigs) {
+            if (!methodConfig.isSampled()) {
+                return;
+            }
+            if (methodConfig.getEventsPerSecond() != 0) {
+                eventsPerSecond = Math.max(eventsPerSecond, methodConfig.getEventsPerSecond());
+            } else {
+                sampleEvery = Math.min(sampleEvery, methodConfig.getSampleEvery());
+            }
+        }
+        if (eventsPerSecond != 0) {
+            trueMethodConfig.setEventsPerSecond(eventsPerSecond);
+        } else {
+            trueMethodConfig.setSampleEvery(sampleEvery);
+        }
+    }
+
     private static void mergeSavingParameters(List<MethodConfig.Parameter> toParameters,
                                               @NotNull List<MethodConfig.Parameter> fromParameters) {
         for (int i = 0; i < fromParameters.size(); i++) {
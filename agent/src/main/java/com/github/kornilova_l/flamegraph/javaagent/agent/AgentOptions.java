@@ -0,0 +1,82 @@
+package com.github.kornilova_l.flamegraph.javaagent.agent;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Optional settings of javaagent.
+ * Options are passed after output file name and configuration file name:
+ * -javaagent:javaagent.jar=out.ser&amp;config.txt&amp;queue=ring&amp;queue-capacity=4096
+ * If option is not passed as agent argument it is looked up in system property
+ * with name "flamegraph.agent." + option name (for example -Dflamegraph.agent.queue=ring)
+ */
+public class AgentOptions {
+    private static final String SYSTEM_PROPERTY_PREFIX = "flamegraph.agent.";
+    private final Map<String, String> options = new HashMap<>();
+
+    private AgentOptions() {
+    }
+
+    /**
+     * @param parameters all parts of agent argument. First two parts (output file and configuration file)
+     *                   are skipped
+     */
+    @NotNull
+    public static AgentOptions parse(@NotNull String[] parameters) {
+        AgentOptions agentOptions = new AgentOptions();
+        for (int i = 2; i < parameters.length; i++) {
+            String parameter = parameters[i];
+            int equalsPos = parameter.indexOf('=');
+            if (equalsPos == -1) {
+                agentOptions.options.put(parameter.trim(), "true");
+            } else {
+                agentOptions.options.put(parameter.substring(0, equalsPos).trim(),
+                        parameter.substring(equalsPos + 1).trim());
+            }
+        }
+        return agentOptions;
+    }
+
+    @Nullable
+    public String getString(@NotNull String name) {
+        String value = options.get(name);
+        if (value != null) {
+            return value;
+        }
+        return System.getProperty(SYSTEM_PROPERTY_PREFIX + name);
+    }
+
+    @NotNull
+    public String getString(@NotNull String name, @NotNull String defaultValue) {
+        String value = getString(name);
+        return value == null ? defaultValue : value;
+    }
+
+    public int getInt(@NotNull String name, int defaultValue) {
+        String value = getString(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Wrong value of option " + name + ": " + value + ". Default value is used: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return true if option is set to given value (case is ignored)
+     */
+    public boolean is(@NotNull String name, @NotNull String value) {
+        return value.equalsIgnoreCase(getString(name));
+    }
+
+    @Override
+    public String toString() {
+        return options.toString();
+    }
+}
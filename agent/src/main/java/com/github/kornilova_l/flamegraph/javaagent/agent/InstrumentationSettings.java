@@ -0,0 +1,64 @@
+package com.github.kornilova_l.flamegraph.javaagent.agent;
+
+import com.github.kornilova_l.flamegraph.configuration.MethodConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings that change the code which is inserted into instrumented methods
+ */
+class InstrumentationSettings {
+    static final InstrumentationSettings DEFAULT = new InstrumentationSettings(false, false, false);
+    private static final long ONE_MS_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * If true then methods that do not save parameters and return value
+     * pass only method id and primitives to {@link com.github.kornilova_l.flamegraph.javaagent.logger.LoggerQueue}
+     * (see {@link PrimitiveProfilingMethodVisitor})
+     */
+    final boolean capturePrimitives;
+    /**
+     * If true then methods are registered in
+     * {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}
+     * and instrumented code passes method id instead of names of class and method
+     * (for classes which have system classloader in chain).
+     * Names are written to file once
+     */
+    final boolean useMethodIds;
+    /**
+     * If true then time is measured with System.nanoTime() instead of System.currentTimeMillis()
+     */
+    final boolean useNanoTime;
+
+    InstrumentationSettings(boolean capturePrimitives, boolean useMethodIds, boolean useNanoTime) {
+        this.capturePrimitives = capturePrimitives;
+        this.useMethodIds = useMethodIds;
+        this.useNanoTime = useNanoTime;
+    }
+
+    static InstrumentationSettings fromOptions(AgentOptions options) {
+        return new InstrumentationSettings(
+                options.is("capture", "primitives"),
+                options.is("method-ids", "true"),
+                options.is("timer", "nanos")
+        );
+    }
+
+    /**
+     * Call is recorded if its duration is more than returned value.
+     * By default calls that took more than 1ms are recorded.
+     * If minimal duration is set in configuration then calls that took at least minimal duration are recorded
+     * (in millisecond mode minimal duration is rounded up to whole milliseconds)
+     *
+     * @return threshold in units of timer
+     */
+    long getDurationThreshold(MethodConfig methodConfig) {
+        long minDuration = methodConfig.getMinDuration();
+        if (minDuration < 0) {
+            return useNanoTime ? ONE_MS_IN_NANOS : 1;
+        }
+        if (useNanoTime) {
+            return minDuration - 1;
+        }
+        return (minDuration + ONE_MS_IN_NANOS - 1) / ONE_MS_IN_NANOS - 1;
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.kornilova_l.flamegraph.javaagent.agent;
+
+import com.github.kornilova_l.flamegraph.configuration.MethodConfig;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * Instruments method that does not save parameters or return value.
+ * Start time is kept in local variable, so no objects are created on enter.
+ * On exit method id, start time, duration and flag that shows
+ * if method was finished by exception are passed to
+ * {@link com.github.kornilova_l.flamegraph.javaagent.logger.LoggerQueue#addToQueue(int, long, long, boolean)}.
+ * It can be used only for classes which have system classloader in chain.
+ */
+class PrimitiveProfilingMethodVisitor extends AdviceAdapter {
+    private final static String LOGGER_QUEUE_CLASS = "com/github/kornilova_l/flamegraph/javaagent/logger/LoggerQueue";
+    private final static String SAMPLER_CLASS = "com/github/kornilova_l/flamegraph/javaagent/logger/sampling/Sampler";
+    private final int methodId;
+    private final InstrumentationSettings settings;
+    /* call is recorded if it took more than this value */
+    private final long durationThreshold;
+    /* if true then Sampler decides on enter if call is recorded (see Sampler#sample(int)) */
+    private final boolean isSampled;
+    private final Label start = new Label();
+    private final Label endOfTryCatch = new Label();
+    private int startTimeLocal;
+    private int durationLocal;
+    private int samplingWeightLocal;
+
+    PrimitiveProfilingMethodVisitor(int access, String methodName, String desc, MethodVisitor mv,
+                                    int methodId, MethodConfig methodConfig, InstrumentationSettings settings,
+                                    boolean isSampled) {
+        super(ASM5, mv, access, methodName, desc);
+        this.methodId = methodId;
+        this.settings = settings;
+        durationThreshold = settings.getDurationThreshold(methodConfig);
+        this.isSampled = isSampled;
+    }
+
+    @Override
+    protected void onMethodEnter() {
+        startTimeLocal = newLocal(Type.LONG_TYPE);
+        durationLocal = newLocal(Type.LONG_TYPE);
+        if (isSampled) {
+            samplingWeightLocal = newLocal(Type.INT_TYPE);
+            mv.visitLdcInsn(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, SAMPLER_CLASS, "sample", "(I)I", false);
+            mv.visitVarInsn(ISTORE, samplingWeightLocal);
+        }
+        getTime();
+        mv.visitVarInsn(LSTORE, startTimeLocal);
+        mv.visitLabel(start); // try-catch beginning
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+        if (opcode == ATHROW) {
+            return; // throwable will be caught and registered in catch block
+        }
+        addToQueueIfDurationIsMoreThreshold(false);
+        /* here is RETURN instruction. It is visited automatically */
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        Label handler = new Label();
+        mv.visitTryCatchBlock(start, endOfTryCatch, handler, "java/lang/Throwable");
+        mv.visitLabel(endOfTryCatch);
+        mv.visitLabel(handler);
+        addToQueueIfDurationIsMoreThreshold(true); // throwable stays on stack
+        mv.visitInsn(ATHROW);
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    /**
+     * Does not modify stack
+     */
+    private void addToQueueIfDurationIsMoreThreshold(boolean isThrown) {
+        Label endOfIfBlock = new Label();
+        if (isSampled) {
+            Label isRecorded = new Label();
+            mv.visitVarInsn(ILOAD, samplingWeightLocal);
+            mv.visitJumpInsn(IFNE, isRecorded);
+            mv.visitMethodInsn(INVOKESTATIC, SAMPLER_CLASS, "exitNotRecorded", "()V", false);
+            mv.visitJumpInsn(GOTO, endOfIfBlock);
+            mv.visitLabel(isRecorded);
+        }
+        getTime();
+        mv.visitVarInsn(LLOAD, startTimeLocal);
+        mv.visitInsn(LSUB);
+        mv.visitVarInsn(LSTORE, durationLocal);
+
+        mv.visitVarInsn(LLOAD, durationLocal);
+        mv.visitLdcInsn(durationThreshold);
+        mv.visitInsn(LCMP);
+        mv.visitJumpInsn(IFLE, endOfIfBlock); // if method took less than threshold
+
+        mv.visitLdcInsn(methodId);
+        mv.visitVarInsn(LLOAD, startTimeLocal);
+        mv.visitVarInsn(LLOAD, durationLocal);
+        mv.visitInsn(isThrown ? ICONST_1 : ICONST_0);
+        if (isSampled) {
+            mv.visitVarInsn(ILOAD, samplingWeightLocal);
+            mv.visitMethodInsn(INVOKESTATIC, LOGGER_QUEUE_CLASS, "addToQueue", "(IJJZI)V", false);
+        } else {
+            mv.visitMethodInsn(INVOKESTATIC, LOGGER_QUEUE_CLASS, "addToQueue", "(IJJZ)V", false);
+        }
+        mv.visitLabel(endOfIfBlock);
+    }
+
+    private void getTime() {
+        if (settings.useNanoTime) {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        } else {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "currentTimeMillis", "()J", false);
+        }
+    }
+}
@@ -13,9 +13,12 @@ import java.util.List;
 class ProfilingClassFileTransformer implements ClassFileTransformer {
 
     private AgentConfigurationManager configurationManager;
+    private final InstrumentationSettings settings;
 
-    ProfilingClassFileTransformer(AgentConfigurationManager configurationManager) {
+    ProfilingClassFileTransformer(AgentConfigurationManager configurationManager,
+                                  InstrumentationSettings settings) {
         this.configurationManager = configurationManager;
+        this.settings = settings;
     }
 
     private static boolean hasSystemCLInChain(ClassLoader loader) {
@@ -58,7 +61,8 @@ class ProfilingClassFileTransformer implements ClassFileTransformer {
                                     hasSystemClassLoaderInChain,
                                     methodConfigs,
                                     configurationManager,
-                                    loader == null
+                                    loader == null,
+                                    settings
                             ), ClassReader.SKIP_FRAMES);
                     return cw.toByteArray();
                 }
@@ -1,6 +1,8 @@
 package com.github.kornilova_l.flamegraph.javaagent.agent;
 
 import com.github.kornilova_l.flamegraph.configuration.MethodConfig;
+import com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable;
+import com.github.kornilova_l.flamegraph.javaagent.logger.sampling.Sampler;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -14,6 +16,7 @@ class ProfilingClassVisitor extends ClassVisitor {
     private final List<MethodConfig> includingConfigs;
     private final AgentConfigurationManager configurationManager;
     private final boolean isSystemClass;
+    private final InstrumentationSettings settings;
 
     ProfilingClassVisitor(ClassVisitor cv,
                           String className,
@@ -21,12 +24,51 @@ class ProfilingClassVisitor extends ClassVisitor {
                           List<MethodConfig> includingConfigs,
                           AgentConfigurationManager configurationManager,
                           boolean isSystemClass) {
+        this(cv, className, hasSystemCL, includingConfigs, configurationManager, isSystemClass,
+                InstrumentationSettings.DEFAULT);
+    }
+
+    ProfilingClassVisitor(ClassVisitor cv,
+                          String className,
+                          boolean hasSystemCL,
+                          List<MethodConfig> includingConfigs,
+                          AgentConfigurationManager configurationManager,
+                          boolean isSystemClass,
+                          InstrumentationSettings settings) {
         super(Opcodes.ASM5, cv);
         this.className = className;
         this.hasSystemCL = hasSystemCL;
         this.includingConfigs = includingConfigs;
         this.configurationManager = configurationManager;
         this.isSystemClass = isSystemClass;
+        this.settings = settings;
+    }
+
+    /**
+     * Names are registered once, instrumented code passes only id.
+     * If method is sampled then its sampler is registered with the same id
+     */
+    private int registerMethod(int access, String methodName, String desc, MethodConfig methodConfig) {
+        int methodId = MethodTable.register(className, methodName, desc, (access & Opcodes.ACC_STATIC) != 0);
+        if (methodConfig.isSampled()) {
+            Sampler.register(methodId, methodConfig.getSampleEvery(), methodConfig.getEventsPerSecond());
+        }
+        return methodId;
+    }
+
+    /**
+     * @return true if method saves value of at least one parameter or return value
+     */
+    private static boolean savesValues(MethodConfig methodConfig) {
+        if (methodConfig.isSaveReturnValue()) {
+            return true;
+        }
+        for (MethodConfig.Parameter parameter : methodConfig.getParameters()) {
+            if (parameter.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -47,10 +89,28 @@ class ProfilingClassVisitor extends ClassVisitor {
                 );
                 if (includingConfigsForMethod.size() != 0) {
                     AgentConfigurationManager.setSaveParameters(trueMethodConfig, includingConfigsForMethod);
+                    AgentConfigurationManager.setMinDuration(trueMethodConfig, includingConfigsForMethod);
+                    /* Sampler is loaded by system classloader, so other classes record every call */
+                    if (hasSystemCL && !isSystemClass) {
+                        AgentConfigurationManager.setSampling(trueMethodConfig, includingConfigsForMethod);
+                    }
+                    /* if sampling is used then method must not be recorded inside call that is not recorded */
+                    boolean checksSampling = hasSystemCL && !isSystemClass &&
+                            (trueMethodConfig.isSampled() || configurationManager.isSamplingUsed());
                     if (isSystemClass) {
-                        return new SystemClassMethodVisitor(access, methodName, desc, mv, className, hasSystemCL, trueMethodConfig);
+                        return new SystemClassMethodVisitor(access, methodName, desc, mv, className, hasSystemCL,
+                                trueMethodConfig, settings);
+                    } else if (settings.capturePrimitives && hasSystemCL && !savesValues(trueMethodConfig)) {
+                        return new PrimitiveProfilingMethodVisitor(access, methodName, desc, mv,
+                                registerMethod(access, methodName, desc, trueMethodConfig), trueMethodConfig, settings,
+                                checksSampling);
+                    } else if ((settings.useMethodIds || checksSampling) && hasSystemCL) {
+                        return new ProfilingMethodVisitor(access, methodName, desc, mv, className, true,
+                                trueMethodConfig, registerMethod(access, methodName, desc, trueMethodConfig),
+                                settings, checksSampling);
                     } else {
-                        return new ProfilingMethodVisitor(access, methodName, desc, mv, className, hasSystemCL, trueMethodConfig);
+                        return new ProfilingMethodVisitor(access, methodName, desc, mv, className, hasSystemCL,
+                                trueMethodConfig, 0, settings);
                     }
                 }
             }
@@ -17,6 +17,7 @@ class ProfilingMethodVisitor extends AdviceAdapter {
     private final static String PROXY_PACKAGE_NAME = "com/github/kornilova_l/flamegraph/proxy/";
     private final static String START_DATA_CLASS = PROXY_PACKAGE_NAME + "StartData";
     private final static String START_DATA_TYPE = "L" + START_DATA_CLASS + ";";
+    private final static String SAMPLER_CLASS = LOGGER_PACKAGE_NAME + "sampling/Sampler";
     final String methodName;
     final String className;
     private final boolean hasSystemCL;
@@ -26,11 +27,45 @@ class ProfilingMethodVisitor extends AdviceAdapter {
     private final Label endOfTryCatch = new Label();
     final boolean saveReturnValue;
     final String savedParameters;
+    /* id of method in MethodTable. If it is 0 then names of class and method are passed to LoggerQueue */
+    private final int methodId;
+    private final InstrumentationSettings settings;
+    /* call is recorded if it took more than this value */
+    private final long durationThreshold;
+    /* if true then Sampler decides on enter if call is recorded (see Sampler#sample(int)).
+     * StartData is not created for calls that are not recorded */
+    private final boolean isSampled;
+    private int samplingWeightLocal;
 
 
     ProfilingMethodVisitor(int access, String methodName, String desc,
                            MethodVisitor mv, String className, boolean hasSystemCL, MethodConfig methodConfig) {
+        this(access, methodName, desc, mv, className, hasSystemCL, methodConfig, 0, InstrumentationSettings.DEFAULT);
+    }
+
+    /**
+     * @param methodId id of method in
+     *                 {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}.
+     *                 It can be used only if class has system classloader in chain
+     */
+    ProfilingMethodVisitor(int access, String methodName, String desc,
+                           MethodVisitor mv, String className, boolean hasSystemCL, MethodConfig methodConfig,
+                           int methodId, InstrumentationSettings settings) {
+        this(access, methodName, desc, mv, className, hasSystemCL, methodConfig, methodId, settings,
+                methodId != 0 && methodConfig.isSampled());
+    }
+
+    /**
+     * @param isSampled if true then method calls Sampler on enter. Method must have id
+     */
+    ProfilingMethodVisitor(int access, String methodName, String desc,
+                           MethodVisitor mv, String className, boolean hasSystemCL, MethodConfig methodConfig,
+                           int methodId, InstrumentationSettings settings, boolean isSampled) {
         super(ASM5, mv, access, methodName, desc);
+        this.methodId = methodId;
+        this.settings = settings;
+        durationThreshold = settings.getDurationThreshold(methodConfig);
+        this.isSampled = methodId != 0 && isSampled;
         this.className = className;
         this.methodName = methodName;
         this.hasSystemCL = hasSystemCL;
@@ -86,9 +121,55 @@ class ProfilingMethodVisitor extends AdviceAdapter {
 
     @Override
     protected void onMethodEnter() {
+        if (isSampled) {
+            sampleAndCreateStartData();
+        } else {
+            createStartData();
+            saveStartData();
+        }
+        mv.visitLabel(start); // try-catch beginning
+    }
+
+    /**
+     * Saves sampling weight to local variable.
+     * StartData is created only if weight is not 0, otherwise null is saved
+     */
+    private void sampleAndCreateStartData() {
+        samplingWeightLocal = newLocal(org.objectweb.asm.Type.INT_TYPE);
+        mv.visitLdcInsn(methodId);
+        mv.visitMethodInsn(INVOKESTATIC, SAMPLER_CLASS, "sample", "(I)I", false);
+        mv.visitVarInsn(ISTORE, samplingWeightLocal);
+        Label notSampled = new Label();
+        Label end = new Label();
+        mv.visitVarInsn(ILOAD, samplingWeightLocal);
+        mv.visitJumpInsn(IFEQ, notSampled);
         createStartData();
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(notSampled);
+        loadNull();
+        mv.visitLabel(end);
         saveStartData();
-        mv.visitLabel(start); // try-catch beginning
+    }
+
+    /**
+     * Jumps to label if call is not recorded (StartData was not created)
+     *
+     * @param isExit if true then Sampler is notified that call that was not recorded exits
+     */
+    private void skipIfNotSampled(Label label, boolean isExit) {
+        if (!isSampled) {
+            return;
+        }
+        getStartData();
+        if (!isExit) {
+            mv.visitJumpInsn(IFNULL, label);
+            return;
+        }
+        Label isRecorded = new Label();
+        mv.visitJumpInsn(IFNONNULL, isRecorded);
+        mv.visitMethodInsn(INVOKESTATIC, SAMPLER_CLASS, "exitNotRecorded", "()V", false);
+        mv.visitJumpInsn(GOTO, label);
+        mv.visitLabel(isRecorded);
     }
 
     private void saveStartData() {
@@ -127,8 +208,9 @@ class ProfilingMethodVisitor extends AdviceAdapter {
 
         maybeSaveThrowable();
 
-        getIfWasThrownByMethod();
         Label athrowLabel = new Label(); // label before ATHROW instruction
+        skipIfNotSampled(athrowLabel, true);
+        getIfWasThrownByMethod();
         mv.visitJumpInsn(IFNE, athrowLabel); // if value on stack is not zero == if was thrown by method go to ATHROW
         prepareAndAddThrowableToQueue(athrowLabel); // this is executed if value was NOT thrown by current method
 
@@ -151,8 +233,8 @@ class ProfilingMethodVisitor extends AdviceAdapter {
 
     private void prepareAndAddThrowableToQueue(Label athrowLabel) {
         saveExitTime();
-        getIfTimeIsMoreOneMs();
-        mv.visitJumpInsn(IFLE, athrowLabel); // if method took < 1ms
+        getIfDurationIsMoreThreshold();
+        mv.visitJumpInsn(IFLE, athrowLabel); // if method took less than threshold
         throwableAddToQueue();
     }
 
@@ -175,10 +257,18 @@ class ProfilingMethodVisitor extends AdviceAdapter {
         String description = null;
         switch (type) {
             case RetVal:
-                description = "(Ljava/lang/Object;JJ[Ljava/lang/Object;Ljava/lang/Thread;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;)V";
+                description = isSampled ?
+                        "(Ljava/lang/Object;JJ[Ljava/lang/Object;Ljava/lang/Thread;ILjava/lang/String;I)V" :
+                        methodId != 0 ?
+                        "(Ljava/lang/Object;JJ[Ljava/lang/Object;Ljava/lang/Thread;ILjava/lang/String;)V" :
+                        "(Ljava/lang/Object;JJ[Ljava/lang/Object;Ljava/lang/Thread;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;)V";
                 break;
             case Throwable:
-                description = "(Ljava/lang/Throwable;ZJJ[Ljava/lang/Object;Ljava/lang/Thread;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;)V";
+                description = isSampled ?
+                        "(Ljava/lang/Throwable;ZJJ[Ljava/lang/Object;Ljava/lang/Thread;ILjava/lang/String;I)V" :
+                        methodId != 0 ?
+                        "(Ljava/lang/Throwable;ZJJ[Ljava/lang/Object;Ljava/lang/Thread;ILjava/lang/String;)V" :
+                        "(Ljava/lang/Throwable;ZJJ[Ljava/lang/Object;Ljava/lang/Thread;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;)V";
                 break;
         }
         if (hasSystemCL) {
@@ -325,7 +415,22 @@ class ProfilingMethodVisitor extends AdviceAdapter {
     }
 
     void getTime() {
-        mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "currentTimeMillis", "()J", false);
+        if (settings.useNanoTime) {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        } else {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "currentTimeMillis", "()J", false);
+        }
+    }
+
+    /**
+     * Adds long value to stack. If duration is not more than this value then call is not recorded
+     */
+    void getDurationThreshold() {
+        if (durationThreshold == 0 || durationThreshold == 1) {
+            mv.visitInsn(LCONST_0 + (int) durationThreshold);
+        } else {
+            mv.visitLdcInsn(durationThreshold);
+        }
     }
 
     void getThread() {
@@ -339,14 +444,17 @@ class ProfilingMethodVisitor extends AdviceAdapter {
 
     @Override
     protected void onMethodExit(int opcode) {
+        Label endOfIfBlockThatAddsEvent = new Label();
+        /* thrown value is caught by catch block of method, exit is registered there */
+        skipIfNotSampled(endOfIfBlockThatAddsEvent, opcode != ATHROW);
         saveExitTime();
         if (opcode == ATHROW) {
             setThrownByMethod(); // ignore this throwable in catch block
         }
-        getIfTimeIsMoreOneMs();
+        getIfDurationIsMoreThreshold();
 
-        Label endOfIfBlockThatAddsEvent = addIfLess(); // end of if block
-        addToQueue(opcode); // this is executed if duration > 1ms
+        mv.visitJumpInsn(IFLE, endOfIfBlockThatAddsEvent); // end of if block
+        addToQueue(opcode); // this is executed if duration is more than threshold
         mv.visitLabel(endOfIfBlockThatAddsEvent); // end of if-block and try-catch block
         /* here is RETURN instruction. It is visited automatically */
     }
@@ -357,12 +465,6 @@ class ProfilingMethodVisitor extends AdviceAdapter {
         super.visitMaxs(maxStack, maxLocals);
     }
 
-    private Label addIfLess() {
-        Label endOfIfBlockThatAddsEvent = new Label();
-        mv.visitJumpInsn(IFLE, endOfIfBlockThatAddsEvent);
-        return endOfIfBlockThatAddsEvent;
-    }
-
     private void addToQueue(int opcode) {
         if (opcode == ATHROW) {
             throwableAddToQueue();
@@ -396,6 +498,7 @@ class ProfilingMethodVisitor extends AdviceAdapter {
         }
         getCommonExitData();
         mv.visitLdcInsn(savedParameters);
+        maybeLoadSamplingWeight();
         addToQueue(Type.RetVal);
     }
 
@@ -412,9 +515,16 @@ class ProfilingMethodVisitor extends AdviceAdapter {
         }
         getCommonExitData();
         mv.visitLdcInsn(savedParameters);
+        maybeLoadSamplingWeight();
         addToQueue(Type.Throwable);
     }
 
+    private void maybeLoadSamplingWeight() {
+        if (isSampled) {
+            mv.visitVarInsn(ILOAD, samplingWeightLocal);
+        }
+    }
+
     private void getCommonExitData() {
         getStartData();
         mv.visitMethodInsn(INVOKEVIRTUAL, START_DATA_CLASS,
@@ -426,6 +536,10 @@ class ProfilingMethodVisitor extends AdviceAdapter {
         mv.visitMethodInsn(INVOKEVIRTUAL, START_DATA_CLASS,
                 "getParameters", "()[Ljava/lang/Object;", false);
         getThread();
+        if (methodId != 0) {
+            mv.visitLdcInsn(methodId);
+            return;
+        }
         mv.visitLdcInsn(className);
         mv.visitLdcInsn(methodName);
         mv.visitLdcInsn(methodDesc);
@@ -451,17 +565,17 @@ class ProfilingMethodVisitor extends AdviceAdapter {
     }
 
     /**
-     * Adds boolean value to stack.
-     * The value is true if method took > 1ms
+     * Adds int value to stack.
+     * The value is positive if method took more than duration threshold (1ms by default)
      */
-    void getIfTimeIsMoreOneMs() {
+    void getIfDurationIsMoreThreshold() {
         getStartData();
         mv.visitMethodInsn(INVOKEVIRTUAL,
                 START_DATA_CLASS,
                 "getDuration",
                 "()J",
                 false);
-        mv.visitInsn(LCONST_1);
+        getDurationThreshold();
         mv.visitInsn(LCMP);
     }
 
@@ -29,7 +29,18 @@ class SystemClassMethodVisitor extends ProfilingMethodVisitor {
                              String className,
                              boolean hasSystemCL,
                              MethodConfig methodConfig) {
-        super(access, methodName, desc, mv, className, hasSystemCL, methodConfig);
+        this(access, methodName, desc, mv, className, hasSystemCL, methodConfig, InstrumentationSettings.DEFAULT);
+    }
+
+    SystemClassMethodVisitor(int access,
+                             String methodName,
+                             String desc,
+                             MethodVisitor mv,
+                             String className,
+                             boolean hasSystemCL,
+                             MethodConfig methodConfig,
+                             InstrumentationSettings settings) {
+        super(access, methodName, desc, mv, className, hasSystemCL, methodConfig, 0, settings);
     }
 
     @Override
@@ -41,9 +52,9 @@ class SystemClassMethodVisitor extends ProfilingMethodVisitor {
     }
 
     @Override
-    void getIfTimeIsMoreOneMs() {
+    void getIfDurationIsMoreThreshold() {
         getDuration();
-        mv.visitInsn(LCONST_1);
+        getDurationThreshold();
         mv.visitInsn(LCMP);
     }
 
@@ -1,41 +1,81 @@
 package com.github.kornilova_l.flamegraph.javaagent.logger;
 
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.ChannelEventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.EventWriter;
 import com.github.kornilova_l.flamegraph.proto.EventProtos;
 
 import java.io.*;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Thread which writes all events from loggingQueue to file.
- * Logger is created ones and all it's methods (except {link #printStatus()} are called from single thread
+ * Logger is created ones and all it's methods (except {link #printStatus()} are called from single thread.
+ * Logger wakes up when {@link #batchSize} events are waiting in queue or when
+ * {@link #flushIntervalMs} passed since last write
  */
 public class Logger implements Runnable {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    public static final int DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    /* how often depth of queue is checked while logger waits */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
     final LoggerQueue loggerQueue = LoggerQueue.getInstance();
-    private File file;
+    private final File file;
+    private final EventWriter eventWriter;
+    private final LoggerStats stats = new LoggerStats(loggerQueue);
+    private final int batchSize;
+    private final long flushIntervalMs;
     private long lastLogTime;
     private long countEventsAdded = 0L;
     private volatile boolean isWriting = false;
+    /* is set by shutdown hook so logger does not wait for flush interval if there are events in queue */
+    private volatile boolean isFlushRequested = false;
 
-    public Logger(File file) {
+    public Logger(File file) throws IOException {
+        this(file, false);
+    }
+
+    public Logger(File file, boolean useNanoTime) throws IOException {
+        this(file, new ChannelEventWriter(file), useNanoTime, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @param file            output file (or directory if events are written to segments)
+     * @param eventWriter     writer that writes to file
+     * @param useNanoTime     if true then header which says that times are in nanoseconds
+     *                        is written at the beginning of file
+     * @param batchSize       logger wakes up if this count of events is waiting in queue
+     * @param flushIntervalMs max time between writes
+     */
+    public Logger(File file, EventWriter eventWriter, boolean useNanoTime,
+                  int batchSize, long flushIntervalMs) throws IOException {
         this.file = file;
+        this.eventWriter = eventWriter;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
         System.out.println("Output file: " + file);
         lastLogTime = System.currentTimeMillis();
+        if (useNanoTime) {
+            writeHeader(EventProtos.TimeUnit.NANOSECONDS);
+        }
+        stats.register();
     }
 
-    void printStatus() {
-        System.out.println("Methods count: " + countEventsAdded);
+    private void writeHeader(EventProtos.TimeUnit timeUnit) throws IOException {
+        eventWriter.write(EventProtos.Event.newBuilder()
+                .setHeader(EventProtos.Event.Header.newBuilder().setTimeUnit(timeUnit))
+                .build());
+        eventWriter.flush();
     }
 
-    private void writeToFile(List<EventProtos.Event> events, OutputStream outputStream) {
-        try {
-            for (EventProtos.Event event : events) {
-                event.writeDelimitedTo(outputStream);
-            }
-        } catch (IOException ignored) {
-            System.out.println("Trying to write to closed stream");
+    void printStatus() {
+        System.out.println("Methods count: " + countEventsAdded);
+        long droppedCount = loggerQueue.getDroppedCount();
+        if (droppedCount != 0) {
+            System.out.println("Methods dropped because queue was full: " + droppedCount);
         }
+        System.out.println(stats);
     }
 
     void printDataForHuman() {
@@ -55,38 +95,55 @@ public class Logger implements Runnable {
         /* Logger is a daemon thread so it will stop when program is finished */
         //noinspection InfiniteLoopStatement
         while (true) {
-            try {
-                long sleepTime = getSleepTime();
-                Thread.sleep(sleepTime);
-                lastLogTime = System.currentTimeMillis();
-                logEvents();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            waitForEvents();
+            lastLogTime = System.currentTimeMillis();
+            logEvents();
         }
     }
 
-    private long getSleepTime() {
-        long delta = 1000 - (System.currentTimeMillis() - lastLogTime);
-        if (delta <= 0) {
-            return 0;
+    /**
+     * Returns when batch of events is waiting in queue or when flush interval passed.
+     * After flush is requested returns as soon as queue is not empty
+     * (logger still parks while queue is empty, so it does not spin while other shutdown hooks run)
+     */
+    private void waitForEvents() {
+        while (loggerQueue.getDepth() < batchSize) {
+            if (isFlushRequested && !loggerQueue.isEmpty()) {
+                return;
+            }
+            long timeLeft = flushIntervalMs - (System.currentTimeMillis() - lastLogTime);
+            if (timeLeft <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(Math.min(CHECK_INTERVAL_NANOS, TimeUnit.MILLISECONDS.toNanos(timeLeft)));
         }
-        return delta;
     }
 
-
     private void logEvents() {
-        try (OutputStream outputStream = new FileOutputStream(file, true)) {
-            ConcurrentLinkedQueue<MethodEventData> queue = loggerQueue.queue;
-            isWriting = true;
-            while (!queue.isEmpty()) {
-                countEventsAdded++;
-                writeToFile(queue.remove().getEvents(), outputStream);
+        isWriting = true;
+        long start = System.nanoTime();
+        long eventsCount = 0;
+        try {
+            MethodEventData methodEventData;
+            while ((methodEventData = loggerQueue.poll()) != null) {
+                eventsCount++;
+                for (EventProtos.Event event : methodEventData.getEvents()) {
+                    eventWriter.write(event);
+                }
             }
-            isWriting = false;
+            eventWriter.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        countEventsAdded += eventsCount;
+        if (eventsCount != 0) {
+            stats.batchWritten(eventsCount, eventWriter.getBytesWritten(), System.nanoTime() - start);
+        }
+        isWriting = false;
+    }
+
+    void requestFlush() {
+        isFlushRequested = true;
     }
 
     public boolean isWriting() {
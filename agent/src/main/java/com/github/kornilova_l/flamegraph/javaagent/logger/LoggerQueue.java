@@ -3,19 +3,41 @@ package com.github.kornilova_l.flamegraph.javaagent.logger;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.RetValEventData;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.ThrowableEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.PrimitiveEventBuffers;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.EventQueue;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LoggerQueue {
     private static LoggerQueue loggerQueue;
-    final ConcurrentLinkedQueue<MethodEventData> queue = new ConcurrentLinkedQueue<>();
+    private final EventQueue queue;
+    @Nullable
+    private final PrimitiveEventBuffers primitiveEventBuffers;
+    /* count of added events. LongAdder is used so instrumented threads do not contend on one counter */
+    private final LongAdder addedCount = new LongAdder();
+    /* written only by logger thread */
+    private volatile long polledCount = 0;
+
+    private LoggerQueue(EventQueue queue, @Nullable PrimitiveEventBuffers primitiveEventBuffers) {
+        this.queue = queue;
+        this.primitiveEventBuffers = primitiveEventBuffers;
+    }
+
+    public static void initLoggerQueue(EventQueue queue) {
+        initLoggerQueue(queue, null);
+    }
 
     /**
      * Method is called by javaagent.
      * It is needed for loading LoggerQueue by system classLoader
+     *
+     * @param queue                 queue that will be used to pass events to logger thread
+     * @param primitiveEventBuffers storage for events of methods that are instrumented
+     *                              without creating objects. Null if such methods are not instrumented
      */
-    public static void initLoggerQueue() {
-        loggerQueue = new LoggerQueue();
+    public static void initLoggerQueue(EventQueue queue, @Nullable PrimitiveEventBuffers primitiveEventBuffers) {
+        loggerQueue = new LoggerQueue(queue, primitiveEventBuffers);
     }
 
     static LoggerQueue getInstance() {
@@ -57,10 +79,147 @@ public class LoggerQueue {
                 methodName, desc, isStatic, parameters, throwable, saveMessage, savedParameters));
     }
 
+    /**
+     * This method is called concurrently by methods that have id in
+     * {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}
+     */
+    public static void addToQueue(Object retVal,
+                                  long startTime,
+                                  long duration,
+                                  Object[] parameters,
+                                  Thread thread,
+                                  int methodId,
+                                  String savedParameters) {
+        loggerQueue.addToQueue(new RetValEventData(thread, methodId, startTime, duration,
+                parameters, retVal, savedParameters));
+    }
+
+    /**
+     * This method is called concurrently by methods that have id in
+     * {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}
+     */
+    public static void addToQueue(Throwable throwable,
+                                  boolean saveMessage,
+                                  long startTime,
+                                  long duration,
+                                  Object[] parameters,
+                                  Thread thread,
+                                  int methodId,
+                                  String savedParameters) {
+        loggerQueue.addToQueue(new ThrowableEventData(thread, methodId, startTime, duration,
+                parameters, throwable, saveMessage, savedParameters));
+    }
+
+    /**
+     * This method is called concurrently by sampled methods
+     *
+     * @param samplingWeight count of calls that this call stands for
+     */
+    public static void addToQueue(Object retVal,
+                                  long startTime,
+                                  long duration,
+                                  Object[] parameters,
+                                  Thread thread,
+                                  int methodId,
+                                  String savedParameters,
+                                  int samplingWeight) {
+        MethodEventData eventData = new RetValEventData(thread, methodId, startTime, duration,
+                parameters, retVal, savedParameters);
+        eventData.setSamplingWeight(samplingWeight);
+        loggerQueue.addToQueue(eventData);
+    }
+
+    /**
+     * This method is called concurrently by sampled methods
+     *
+     * @param samplingWeight count of calls that this call stands for
+     */
+    public static void addToQueue(Throwable throwable,
+                                  boolean saveMessage,
+                                  long startTime,
+                                  long duration,
+                                  Object[] parameters,
+                                  Thread thread,
+                                  int methodId,
+                                  String savedParameters,
+                                  int samplingWeight) {
+        MethodEventData eventData = new ThrowableEventData(thread, methodId, startTime, duration,
+                parameters, throwable, saveMessage, savedParameters);
+        eventData.setSamplingWeight(samplingWeight);
+        loggerQueue.addToQueue(eventData);
+    }
+
+    /**
+     * This method is called concurrently by methods that do not save parameters or return value.
+     * Method names are registered in
+     * {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}
+     * when class is instrumented
+     */
+    public static void addToQueue(int methodId,
+                                  long startTime,
+                                  long duration,
+                                  boolean isThrown) {
+        /* methods are instrumented this way only if buffers were created */
+        loggerQueue.addedCount.increment();
+        //noinspection ConstantConditions
+        loggerQueue.primitiveEventBuffers.add(methodId, startTime, duration, isThrown, 1);
+    }
+
+    /**
+     * This method is called concurrently by sampled methods that do not save parameters or return value
+     *
+     * @param samplingWeight count of calls that this call stands for
+     */
+    public static void addToQueue(int methodId,
+                                  long startTime,
+                                  long duration,
+                                  boolean isThrown,
+                                  int samplingWeight) {
+        loggerQueue.addedCount.increment();
+        //noinspection ConstantConditions
+        loggerQueue.primitiveEventBuffers.add(methodId, startTime, duration, isThrown, samplingWeight);
+    }
+
     /**
      * This method is called concurrently
      */
     public void addToQueue(MethodEventData methodEventData) {
+        addedCount.increment();
         queue.add(methodEventData);
     }
+
+    /**
+     * This method is called by logger thread
+     */
+    @Nullable
+    MethodEventData poll() {
+        MethodEventData methodEventData = queue.poll();
+        if (methodEventData == null && primitiveEventBuffers != null) {
+            methodEventData = primitiveEventBuffers.poll();
+        }
+        if (methodEventData != null) {
+            //noinspection NonAtomicOperationOnVolatileField (only logger thread writes this field)
+            polledCount++;
+        }
+        return methodEventData;
+    }
+
+    /**
+     * @return approximate count of events that are waiting in queue
+     */
+    long getDepth() {
+        return Math.max(0, addedCount.sum() - polledCount - getDroppedCount());
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty() && (primitiveEventBuffers == null || primitiveEventBuffers.isEmpty());
+    }
+
+    long getDroppedCount() {
+        long droppedCount = queue.getDroppedCount();
+        if (primitiveEventBuffers != null) {
+            droppedCount += primitiveEventBuffers.getDroppedCount();
+        }
+        return droppedCount;
+    }
 }
@@ -0,0 +1,87 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values are updated only by logger thread, so volatile fields are enough
+ */
+public class LoggerStats implements LoggerStatsMXBean {
+    static final String OBJECT_NAME = "com.github.kornilova_l.flamegraph:type=Logger";
+    private final LoggerQueue loggerQueue;
+    private volatile long eventsWritten = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long batchesWritten = 0;
+    private volatile long lastBatchLatencyNanos = 0;
+    private volatile long maxBatchLatencyNanos = 0;
+
+    LoggerStats(LoggerQueue loggerQueue) {
+        this.loggerQueue = loggerQueue;
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.err.println("Cannot register statistics of logger: " + e);
+        }
+    }
+
+    /**
+     * Called by logger thread after batch is written
+     */
+    void batchWritten(long eventsCount, long bytesWritten, long latencyNanos) {
+        eventsWritten += eventsCount;
+        this.bytesWritten = bytesWritten;
+        batchesWritten++;
+        lastBatchLatencyNanos = latencyNanos;
+        if (latencyNanos > maxBatchLatencyNanos) {
+            maxBatchLatencyNanos = latencyNanos;
+        }
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return loggerQueue.getDepth();
+    }
+
+    @Override
+    public long getEventsWritten() {
+        return eventsWritten;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return loggerQueue.getDroppedCount();
+    }
+
+    @Override
+    public long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    @Override
+    public long getLastBatchLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastBatchLatencyNanos);
+    }
+
+    @Override
+    public long getMaxBatchLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxBatchLatencyNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Events written: " + eventsWritten +
+                ", bytes written: " + bytesWritten +
+                ", batches: " + batchesWritten +
+                ", max batch latency: " + getMaxBatchLatencyMicros() + "us";
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger;
+
+/**
+ * Statistics of logger. It is registered in platform MBean server
+ * with name {@link LoggerStats#OBJECT_NAME}, so it can be observed with JConsole
+ * to see if logger falls behind instrumented threads
+ */
+public interface LoggerStatsMXBean {
+    /**
+     * @return count of events that were added to queue but not yet written
+     */
+    long getQueueDepth();
+
+    long getEventsWritten();
+
+    long getBytesWritten();
+
+    long getDroppedCount();
+
+    long getBatchesWritten();
+
+    /**
+     * @return time of writing last batch in microseconds
+     */
+    long getLastBatchLatencyMicros();
+
+    /**
+     * @return max time of writing batch in microseconds
+     */
+    long getMaxBatchLatencyMicros();
+}
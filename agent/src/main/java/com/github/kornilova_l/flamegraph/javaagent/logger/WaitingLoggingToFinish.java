@@ -15,7 +15,8 @@ public class WaitingLoggingToFinish extends Thread {
 
     @Override
     public void run() {
-        while (!logger.loggerQueue.queue.isEmpty() || logger.isWriting()) {
+        logger.requestFlush();
+        while (!logger.loggerQueue.isEmpty() || logger.isWriting()) {
             try {
                 Thread.sleep(100);
             } catch (InterruptedException e) {
@@ -3,11 +3,13 @@ package com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.name_maps.ClassNamesMap;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.name_maps.NamesMap;
 import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.name_maps.ThreadNamesMap;
+import com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable;
 import com.github.kornilova_l.flamegraph.proto.EventProtos.Event;
 import com.github.kornilova_l.flamegraph.proto.EventProtos.Parameter;
 import com.github.kornilova_l.flamegraph.proto.EventProtos.Var;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -23,8 +25,17 @@ abstract public class MethodEventData {
     private List<Integer> savedParametersList;
     private final boolean isStatic;
     private final Object[] parameters;
+    /* 0 if method does not have id. In this case names of method and class are stored in event */
+    private final int methodId;
+    /* count of calls that this event stands for. It is more than 1 if method is sampled */
+    private int samplingWeight = 1;
     private final static ClassNamesMap classNamesMap = new ClassNamesMap();
     private final static ThreadNamesMap threadNamesMap = new ThreadNamesMap();
+    /* ids of methods which NewMethod event was already created for */
+    private final static BitSet registeredMethods = new BitSet();
+    /* is added to start time of every event.
+     * It is used to convert values of System.nanoTime() to nanoseconds since epoch */
+    private static long startTimeShift = 0;
 
     MethodEventData(String threadName,
                     String className,
@@ -44,6 +55,28 @@ abstract public class MethodEventData {
         this.isStatic = isStatic;
         this.parameters = parameters;
         this.savedParameters = savedParameters;
+        methodId = 0;
+    }
+
+    /**
+     * @param methodId id of method in {@link MethodTable}
+     */
+    MethodEventData(String threadName,
+                    int methodId,
+                    long startTime,
+                    long duration,
+                    Object[] parameters,
+                    String savedParameters) {
+        this.threadName = threadName;
+        this.methodId = methodId;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.parameters = parameters;
+        this.savedParameters = savedParameters;
+        className = null;
+        methodName = null;
+        desc = null;
+        isStatic = false;
     }
 
     private static void addObject(Var.Builder varBuilder, Object o) {
@@ -120,22 +153,56 @@ abstract public class MethodEventData {
         return varBuilder.build();
     }
 
+    /**
+     * Must be called before any event is written
+     */
+    public static void setStartTimeShift(long startTimeShift) {
+        MethodEventData.startTimeShift = startTimeShift;
+    }
+
+    public void setSamplingWeight(int samplingWeight) {
+        this.samplingWeight = samplingWeight;
+    }
+
     private void setCommonInfo(Event.MethodEvent.Builder methodEventBuilder, List<Event> events) {
-        long classNameId = getClassNameId(events);
         long threadNameId = getThreadNameId(events);
 
-        methodEventBuilder.setStartTime(startTime)
+        methodEventBuilder.setStartTime(startTime + startTimeShift)
                 .setDuration(duration)
-                .setDesc(desc)
-                .setThreadId(threadNameId)
-                .setClassNameId(classNameId)
-                .setMethodName(methodName)
-                .setIsStatic(isStatic);
+                .setThreadId(threadNameId);
+        if (methodId != 0) {
+            registerMethodIfNeeded(events);
+            methodEventBuilder.setMethodId(methodId);
+        } else {
+            methodEventBuilder.setDesc(desc)
+                    .setClassNameId(getClassNameId(events, className))
+                    .setMethodName(methodName)
+                    .setIsStatic(isStatic);
+        }
+        if (samplingWeight != 1) {
+            methodEventBuilder.setSamplingWeight(samplingWeight);
+        }
 
         setParameters(methodEventBuilder);
 
     }
 
+    private void registerMethodIfNeeded(List<Event> events) {
+        if (registeredMethods.get(methodId)) {
+            return;
+        }
+        MethodTable.MethodInfo method = MethodTable.get(methodId);
+        events.add(Event.newBuilder()
+                .setNewMethod(Event.NewMethod.newBuilder()
+                        .setId(methodId)
+                        .setClassNameId(getClassNameId(events, method.className))
+                        .setMethodName(method.methodName)
+                        .setDesc(method.desc)
+                        .setIsStatic(method.isStatic)
+                ).build());
+        registeredMethods.set(methodId);
+    }
+
     private long getThreadNameId(List<Event> events) {
         return getIdAndRegister(events, threadNamesMap, threadName);
     }
@@ -151,7 +218,7 @@ abstract public class MethodEventData {
         return id;
     }
 
-    private long getClassNameId(List<Event> events) {
+    private static long getClassNameId(List<Event> events, String className) {
         return getIdAndRegister(events, classNamesMap, className);
     }
 
@@ -19,6 +19,17 @@ public class RetValEventData extends MethodEventData {
         this.retVal = retVal;
     }
 
+    public RetValEventData(Thread thread,
+                           int methodId,
+                           long startTime,
+                           long duration,
+                           Object[] parameters,
+                           Object retVal,
+                           String savedParameters) {
+        super(thread.getName(), methodId, startTime, duration, parameters, savedParameters);
+        this.retVal = retVal;
+    }
+
     @Override
     void setResult(EventProtos.Event.MethodEvent.Builder methodEventBuilder) {
         if (retVal != null) {
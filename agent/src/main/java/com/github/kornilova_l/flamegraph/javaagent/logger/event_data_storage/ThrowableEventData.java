@@ -22,6 +22,19 @@ public class ThrowableEventData extends MethodEventData {
         this.saveMessage = saveMessage;
     }
 
+    public ThrowableEventData(Thread thread,
+                              int methodId,
+                              long startTime,
+                              long duration,
+                              Object[] parameters,
+                              Throwable throwable,
+                              boolean saveMessage,
+                              String savedParameters) {
+        super(thread.getName(), methodId, startTime, duration, parameters, savedParameters);
+        this.throwable = throwable;
+        this.saveMessage = saveMessage;
+    }
+
     @Override
     void setResult(EventProtos.Event.MethodEvent.Builder methodEventBuilder) {
         if (throwable == null) { // this should not happen but who knows
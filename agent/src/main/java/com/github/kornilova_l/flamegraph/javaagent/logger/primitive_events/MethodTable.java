@@ -0,0 +1,59 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds names of instrumented methods.
+ * Method is registered once when its class is instrumented
+ * and instrumented code passes only id of the method.
+ * Ids start from 1 because 0 means that event does not have method id
+ */
+public class MethodTable {
+    private static final List<MethodInfo> methods = new ArrayList<>();
+    private static final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Called by class file transformer. If method was already registered
+     * (for example class was retransformed) then previous id is returned
+     *
+     * @return id of method
+     */
+    public static synchronized int register(@NotNull String className,
+                                            @NotNull String methodName,
+                                            @NotNull String desc,
+                                            boolean isStatic) {
+        String key = className + "." + methodName + desc;
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        methods.add(new MethodInfo(className, methodName, desc, isStatic));
+        id = methods.size();
+        ids.put(key, id);
+        return id;
+    }
+
+    @NotNull
+    public static synchronized MethodInfo get(int id) {
+        return methods.get(id - 1);
+    }
+
+    public static class MethodInfo {
+        public final String className;
+        public final String methodName;
+        public final String desc;
+        public final boolean isStatic;
+
+        MethodInfo(String className, String methodName, String desc, boolean isStatic) {
+            this.className = className;
+            this.methodName = methodName;
+            this.desc = desc;
+            this.isStatic = isStatic;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.ThreadBuffers;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer single-consumer ring buffer of events stored in long[].
+ * Each event takes {@link #EVENT_SIZE} slots:
+ * method id with "thrown" flag in lowest bit and sampling weight in high 32 bits, start time and duration.
+ * Adding event does not allocate objects.
+ */
+class PrimitiveEventBuffer implements ThreadBuffers.Buffer {
+    static final int EVENT_SIZE = 3;
+    private final Thread owner;
+    private final long[] slab;
+    private final int mask;
+    /* index of next event that will be read. Written only by consumer */
+    private final AtomicLong head = new AtomicLong();
+    /* index of next event that will be written. Written only by producer */
+    private final AtomicLong tail = new AtomicLong();
+    /* producer's copy of head */
+    private long cachedHead = 0;
+
+    /**
+     * @param capacity max count of events in buffer. It is rounded up to power of two
+     */
+    PrimitiveEventBuffer(Thread owner, int capacity) {
+        this.owner = owner;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slab = new long[size * EVENT_SIZE];
+        mask = size - 1;
+    }
+
+    static long packMethodId(int methodId, boolean isThrown, int samplingWeight) {
+        return ((long) samplingWeight << 32) | ((long) methodId << 1) | (isThrown ? 1 : 0);
+    }
+
+    static int getMethodId(long packedMethodId) {
+        return (int) ((packedMethodId & 0xFFFFFFFFL) >>> 1);
+    }
+
+    static int getSamplingWeight(long packedMethodId) {
+        return (int) (packedMethodId >>> 32);
+    }
+
+    static boolean isThrown(long packedMethodId) {
+        return (packedMethodId & 1) != 0;
+    }
+
+    @NotNull
+    @Override
+    public Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * Called only by owner thread
+     *
+     * @return false if buffer is full
+     */
+    boolean offer(long packedMethodId, long startTime, long duration) {
+        long currentTail = tail.get();
+        if (currentTail - cachedHead > mask) {
+            cachedHead = head.get();
+            if (currentTail - cachedHead > mask) {
+                return false;
+            }
+        }
+        int pos = (int) (currentTail & mask) * EVENT_SIZE;
+        slab[pos] = packedMethodId;
+        slab[pos + 1] = startTime;
+        slab[pos + 2] = duration;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Called only by logger thread
+     *
+     * @param event array of size {@link #EVENT_SIZE} to which event is copied
+     * @return false if buffer is empty
+     */
+    boolean poll(long[] event) {
+        long currentHead = head.get();
+        if (currentHead >= tail.get()) {
+            return false;
+        }
+        int pos = (int) (currentHead & mask) * EVENT_SIZE;
+        System.arraycopy(slab, pos, event, 0, EVENT_SIZE);
+        head.lazySet(currentHead + 1);
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
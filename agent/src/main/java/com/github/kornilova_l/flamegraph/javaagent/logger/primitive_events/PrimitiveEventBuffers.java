@@ -0,0 +1,69 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.RetValEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.ThrowableEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.OverflowPolicy;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.ThreadBuffers;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Storage for events of methods that do not save parameters or return value.
+ * Each thread writes primitives to its own {@link PrimitiveEventBuffer},
+ * objects are created only by logger thread when events are written to file.
+ */
+public class PrimitiveEventBuffers {
+    private final ThreadBuffers<PrimitiveEventBuffer> buffers;
+    /* used only by logger thread */
+    private final long[] event = new long[PrimitiveEventBuffer.EVENT_SIZE];
+
+    public PrimitiveEventBuffers(int capacity, OverflowPolicy overflowPolicy) {
+        buffers = new ThreadBuffers<>(overflowPolicy, owner -> new PrimitiveEventBuffer(owner, capacity));
+    }
+
+    /**
+     * This method is called concurrently
+     */
+    public void add(int methodId, long startTime, long duration, boolean isThrown, int samplingWeight) {
+        PrimitiveEventBuffer buffer = buffers.getThreadBuffer();
+        long packedMethodId = PrimitiveEventBuffer.packMethodId(methodId, isThrown, samplingWeight);
+        while (!buffer.offer(packedMethodId, startTime, duration)) {
+            if (!buffers.waitForSpace()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes event from next non-empty buffer and converts it to {@link MethodEventData}.
+     * Called only by logger thread
+     */
+    @Nullable
+    public MethodEventData poll() {
+        PrimitiveEventBuffer buffer = buffers.nextNonEmpty();
+        if (buffer == null || !buffer.poll(event)) {
+            return null;
+        }
+        return toEventData(buffer.getOwner(), event);
+    }
+
+    private static MethodEventData toEventData(Thread thread, long[] event) {
+        int methodId = PrimitiveEventBuffer.getMethodId(event[0]);
+        MethodEventData eventData;
+        if (PrimitiveEventBuffer.isThrown(event[0])) {
+            eventData = new ThrowableEventData(thread, methodId, event[1], event[2], null, null, false, "");
+        } else {
+            eventData = new RetValEventData(thread, methodId, event[1], event[2], null, null, "");
+        }
+        eventData.setSamplingWeight(PrimitiveEventBuffer.getSamplingWeight(event[0]));
+        return eventData;
+    }
+
+    public boolean isEmpty() {
+        return buffers.isEmpty();
+    }
+
+    public long getDroppedCount() {
+        return buffers.getDroppedCount();
+    }
+}
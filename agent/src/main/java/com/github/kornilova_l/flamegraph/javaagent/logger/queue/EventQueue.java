@@ -0,0 +1,26 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Queue between instrumented threads and logger thread.
+ * {@link #add(MethodEventData)} is called concurrently by instrumented code,
+ * {@link #poll()} and {@link #isEmpty()} are called by logger thread (and by shutdown hook)
+ */
+public interface EventQueue {
+    void add(MethodEventData methodEventData);
+
+    /**
+     * @return next event or null if queue is empty
+     */
+    @Nullable
+    MethodEventData poll();
+
+    boolean isEmpty();
+
+    /**
+     * @return count of events that were not added because queue was full
+     */
+    long getDroppedCount();
+}
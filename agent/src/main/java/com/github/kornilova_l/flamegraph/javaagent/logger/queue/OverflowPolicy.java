@@ -0,0 +1,15 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+/**
+ * What instrumented thread does when its ring buffer is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Event is thrown away and counted
+     */
+    DROP,
+    /**
+     * Thread waits until logger thread frees space in buffer
+     */
+    BLOCK
+}
@@ -0,0 +1,87 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer single-consumer queue.
+ * {@link #offer(Object)} must be called only by one thread (owner of the buffer)
+ * and {@link #poll()} must be called only by one thread (logger thread).
+ * Producer and consumer do not share any lock and do not do CAS operations,
+ * they only publish their positions with ordered writes.
+ */
+public class RingBuffer<T> {
+    private final Object[] buffer;
+    private final int mask;
+    /* position of next element that will be read. Written only by consumer */
+    private final AtomicLong head = new AtomicLong();
+    /* position of next element that will be written. Written only by producer */
+    private final AtomicLong tail = new AtomicLong();
+    /* producer's copy of head. It lets producer not to read head on every offer */
+    private long cachedHead = 0;
+
+    /**
+     * @param capacity is rounded up to power of two
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Called only by producer
+     *
+     * @return false if buffer is full
+     */
+    public boolean offer(T element) {
+        long currentTail = tail.get();
+        if (currentTail - cachedHead >= buffer.length) {
+            cachedHead = head.get();
+            if (currentTail - cachedHead >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) (currentTail & mask)] = element;
+        tail.lazySet(currentTail + 1); // publishes element to consumer
+        return true;
+    }
+
+    /**
+     * Called only by consumer
+     *
+     * @return element or null if buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public T poll() {
+        long currentHead = head.get();
+        if (currentHead >= tail.get()) {
+            return null;
+        }
+        int index = (int) (currentHead & mask);
+        T element = (T) buffer[index];
+        buffer[index] = null;
+        head.lazySet(currentHead + 1); // frees slot for producer
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Each instrumented thread gets its own {@link RingBuffer}.
+ * Threads do not contend with each other when adding events,
+ * logger thread drains buffers round-robin.
+ */
+public class RingBufferEventQueue implements EventQueue {
+    private final ThreadBuffers<ThreadBuffer> buffers;
+
+    public RingBufferEventQueue(int capacity, OverflowPolicy overflowPolicy) {
+        buffers = new ThreadBuffers<>(overflowPolicy, owner -> new ThreadBuffer(owner, capacity));
+    }
+
+    @Override
+    public void add(MethodEventData methodEventData) {
+        ThreadBuffer buffer = buffers.getThreadBuffer();
+        while (!buffer.offer(methodEventData)) {
+            if (!buffers.waitForSpace()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes one event from next non-empty buffer
+     */
+    @Nullable
+    @Override
+    public MethodEventData poll() {
+        ThreadBuffer buffer = buffers.nextNonEmpty();
+        return buffer == null ? null : buffer.poll();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffers.isEmpty();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return buffers.getDroppedCount();
+    }
+
+    private static class ThreadBuffer extends RingBuffer<MethodEventData> implements ThreadBuffers.Buffer {
+        private final Thread owner;
+
+        ThreadBuffer(Thread owner, int capacity) {
+            super(capacity);
+            this.owner = owner;
+        }
+
+        @NotNull
+        @Override
+        public Thread getOwner() {
+            return owner;
+        }
+    }
+}
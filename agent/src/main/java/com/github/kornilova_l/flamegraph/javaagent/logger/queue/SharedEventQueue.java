@@ -0,0 +1,34 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.MethodEventData;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Unbounded queue shared by all threads. It is used by default
+ */
+public class SharedEventQueue implements EventQueue {
+    private final ConcurrentLinkedQueue<MethodEventData> queue = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void add(MethodEventData methodEventData) {
+        queue.add(methodEventData);
+    }
+
+    @Nullable
+    @Override
+    public MethodEventData poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+}
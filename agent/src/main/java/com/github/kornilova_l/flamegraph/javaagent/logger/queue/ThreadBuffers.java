@@ -0,0 +1,125 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Registry of single-producer single-consumer buffers, one buffer per instrumented thread.
+ * Buffer is created when thread adds its first event.
+ * Logger thread drains buffers round-robin, buffers of finished threads are removed when they become empty.
+ * Registry does not know what is stored in buffers, it only decides which buffer is drained next
+ * and what thread does when its buffer is full.
+ *
+ * @param <B> type of buffer
+ */
+public class ThreadBuffers<B extends ThreadBuffers.Buffer> {
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private final OverflowPolicy overflowPolicy;
+    private final Function<Thread, B> bufferFactory;
+    private final CopyOnWriteArrayList<B> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<B> threadBuffer = ThreadLocal.withInitial(this::registerBuffer);
+    private final AtomicLong droppedCount = new AtomicLong();
+    /* index of buffer which will be drained next. Used only by logger thread */
+    private int nextBuffer = 0;
+
+    /**
+     * @param bufferFactory creates buffer for given owner thread
+     */
+    public ThreadBuffers(@NotNull OverflowPolicy overflowPolicy, @NotNull Function<Thread, B> bufferFactory) {
+        this.overflowPolicy = overflowPolicy;
+        this.bufferFactory = bufferFactory;
+    }
+
+    private B registerBuffer() {
+        B buffer = bufferFactory.apply(Thread.currentThread());
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * @return buffer of current thread
+     */
+    @NotNull
+    public B getThreadBuffer() {
+        return threadBuffer.get();
+    }
+
+    /**
+     * Called by owner of buffer when buffer is full.
+     * Usage:
+     * <pre>
+     * while (!buffer.offer(event)) {
+     *     if (!threadBuffers.waitForSpace()) {
+     *         return;
+     *     }
+     * }
+     * </pre>
+     *
+     * @return true if thread waited and must try to add event again,
+     * false if event must be dropped (it is already counted)
+     */
+    public boolean waitForSpace() {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        return true;
+    }
+
+    /**
+     * Called only by logger thread
+     *
+     * @return next non-empty buffer or null if all buffers are empty
+     */
+    @Nullable
+    public B nextNonEmpty() {
+        int buffersCount = buffers.size();
+        for (int i = 0; i < buffersCount; i++) {
+            if (nextBuffer >= buffers.size()) {
+                nextBuffer = 0;
+            }
+            if (buffers.isEmpty()) {
+                return null;
+            }
+            B buffer = buffers.get(nextBuffer);
+            if (!buffer.isEmpty()) {
+                nextBuffer++;
+                return buffer;
+            }
+            /* owner cannot add events after it finished, so buffer stays empty */
+            if (!buffer.getOwner().isAlive() && buffer.isEmpty()) {
+                buffers.remove(nextBuffer);
+            } else {
+                nextBuffer++;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        for (B buffer : buffers) {
+            if (!buffer.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public interface Buffer {
+        @NotNull
+        Thread getOwner();
+
+        boolean isEmpty();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records one of N calls where N is recalculated every second
+ * so approximately eventsPerSecond calls are recorded per second.
+ * Time is checked only when call is recorded
+ */
+class AdaptiveMethodSampler implements MethodSampler {
+    private static final long WINDOW_MS = 1000;
+    private final int eventsPerSecond;
+    private final LongAdder callsCount = new LongAdder();
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+    private volatile int sampleEvery = 1;
+
+    AdaptiveMethodSampler(int eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    @Override
+    public int sample() {
+        callsCount.increment();
+        int currentSampleEvery = sampleEvery;
+        if (currentSampleEvery != 1 && ThreadLocalRandom.current().nextInt(currentSampleEvery) != 0) {
+            return 0;
+        }
+        updateSampleEveryIfNeeded();
+        return currentSampleEvery;
+    }
+
+    private void updateSampleEveryIfNeeded() {
+        long currentWindowStart = windowStart.get();
+        long now = System.currentTimeMillis();
+        long windowLength = now - currentWindowStart;
+        if (windowLength < WINDOW_MS || !windowStart.compareAndSet(currentWindowStart, now)) {
+            return;
+        }
+        double callsPerSecond = callsCount.sumThenReset() * 1000.0 / windowLength;
+        sampleEvery = Math.max(1, (int) Math.ceil(callsPerSecond / eventsPerSecond));
+    }
+
+    int getSampleEvery() {
+        return sampleEvery;
+    }
+}
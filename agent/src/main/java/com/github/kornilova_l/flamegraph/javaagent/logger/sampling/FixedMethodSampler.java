@@ -0,0 +1,20 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records one of N calls.
+ * Calls are chosen randomly, so threads do not share any counter
+ */
+class FixedMethodSampler implements MethodSampler {
+    private final int sampleEvery;
+
+    FixedMethodSampler(int sampleEvery) {
+        this.sampleEvery = sampleEvery;
+    }
+
+    @Override
+    public int sample() {
+        return ThreadLocalRandom.current().nextInt(sampleEvery) == 0 ? sampleEvery : 0;
+    }
+}
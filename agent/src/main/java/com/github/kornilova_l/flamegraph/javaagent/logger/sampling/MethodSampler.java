@@ -0,0 +1,13 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.sampling;
+
+/**
+ * Decides if call of method is recorded
+ */
+interface MethodSampler {
+    /**
+     * This method is called concurrently
+     *
+     * @return 0 if call must not be recorded. Otherwise count of calls that recorded call stands for
+     */
+    int sample();
+}
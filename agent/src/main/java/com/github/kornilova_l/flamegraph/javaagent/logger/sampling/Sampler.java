@@ -0,0 +1,70 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.sampling;
+
+import java.util.Arrays;
+
+/**
+ * Holds samplers of methods that are instrumented with sampling.
+ * Sampler is registered when class is instrumented,
+ * instrumented code calls {@link #sample(int)} on enter before any object is created.
+ * Samplers are stored by id of method in
+ * {@link com.github.kornilova_l.flamegraph.javaagent.logger.primitive_events.MethodTable}
+ * <p>
+ * If sampling is used then all methods of classes that see Sampler call {@link #sample(int)}
+ * (methods without sampler get weight 1).
+ * Calls inside call that is not recorded are not recorded too,
+ * so each recorded call was made inside recorded parent
+ * and probability of recording of stack is a product of probabilities of its calls
+ */
+public class Sampler {
+    private static volatile MethodSampler[] samplers = new MethodSampler[0];
+    /* count of calls in current thread that were not recorded and did not exit yet */
+    private static final ThreadLocal<int[]> notRecordedDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Called by class file transformer
+     *
+     * @param methodId        id of method in MethodTable
+     * @param sampleEvery     one of sampleEvery calls is recorded
+     * @param eventsPerSecond if it is not 0 then sampling rate is adjusted to record this count of calls per second
+     */
+    public static synchronized void register(int methodId, int sampleEvery, int eventsPerSecond) {
+        MethodSampler[] newSamplers = samplers;
+        if (methodId >= newSamplers.length) {
+            newSamplers = Arrays.copyOf(newSamplers, Math.max(methodId + 1, newSamplers.length * 2));
+        } else {
+            newSamplers = newSamplers.clone();
+        }
+        newSamplers[methodId] = eventsPerSecond != 0 ?
+                new AdaptiveMethodSampler(eventsPerSecond) :
+                new FixedMethodSampler(sampleEvery);
+        samplers = newSamplers;
+    }
+
+    /**
+     * This method is called concurrently by instrumented code.
+     * If 0 is returned then {@link #exitNotRecorded()} must be called when call exits
+     *
+     * @return 0 if call must not be recorded. Otherwise weight of recorded call:
+     * count of calls that it stands for
+     */
+    public static int sample(int methodId) {
+        int[] depth = notRecordedDepth.get();
+        if (depth[0] == 0) {
+            MethodSampler[] currentSamplers = samplers;
+            MethodSampler sampler = methodId < currentSamplers.length ? currentSamplers[methodId] : null;
+            int weight = sampler == null ? 1 : sampler.sample();
+            if (weight != 0) {
+                return weight;
+            }
+        }
+        depth[0]++;
+        return 0;
+    }
+
+    /**
+     * Called by instrumented code on exit of call that was not recorded
+     */
+    public static void exitNotRecorded() {
+        notRecordedDepth.get()[0]--;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.libs.com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps one channel open for the whole run.
+ * Events are encoded to reusable direct buffers and all filled buffers
+ * are written to channel with one gathering write
+ */
+public class ChannelEventWriter implements EventWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFERS_COUNT = 4;
+    private final FileChannel channel;
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFERS_COUNT];
+    /* index of buffer to which events are written */
+    private int currentBuffer = 0;
+    private final DelimitedEncoder encoder = new DelimitedEncoder();
+    private long bytesWritten = 0;
+
+    public ChannelEventWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        for (int i = 0; i < BUFFERS_COUNT; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    }
+
+    @Override
+    public void write(MessageLite event) throws IOException {
+        int delimitedSize = encoder.encode(event);
+        if (delimitedSize > BUFFER_SIZE) {
+            writeLargeEvent(delimitedSize);
+            return;
+        }
+        if (delimitedSize > buffers[currentBuffer].remaining()) {
+            nextBuffer();
+        }
+        buffers[currentBuffer].put(encoder.getBytes(), 0, delimitedSize);
+    }
+
+    /**
+     * Event that does not fit in buffer is written separately
+     */
+    private void writeLargeEvent(int delimitedSize) throws IOException {
+        flush();
+        ByteBuffer buffer = ByteBuffer.wrap(encoder.getBytes(), 0, delimitedSize);
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+
+    private void nextBuffer() throws IOException {
+        if (currentBuffer == BUFFERS_COUNT - 1) {
+            flush();
+        } else {
+            currentBuffer++;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        int filledBuffers = currentBuffer + 1;
+        long remaining = 0;
+        for (int i = 0; i < filledBuffers; i++) {
+            buffers[i].flip();
+            remaining += buffers[i].remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers, 0, filledBuffers);
+            remaining -= written;
+            bytesWritten += written;
+        }
+        for (int i = 0; i < filledBuffers; i++) {
+            buffers[i].clear();
+        }
+        currentBuffer = 0;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,305 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event.MethodEvent;
+import com.github.kornilova_l.libs.com.google.protobuf.CodedOutputStream;
+import com.github.kornilova_l.libs.com.google.protobuf.MessageLite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes events in compact columnar format instead of delimited Event messages.
+ * <p>
+ * File starts with {@link #MAGIC} and format version (varint). It is followed by blocks,
+ * each block is its length (varint) and payload. First byte of payload is type of block:
+ * <ul>
+ * <li>{@link #DICTIONARY_BLOCK} contains class names, thread names, methods and time unit
+ * that were registered since previous block</li>
+ * <li>{@link #EVENTS_BLOCK} contains count of events and columns: thread ids, method ids,
+ * start times (each one is zigzag delta from previous), durations, flags, sampling weights
+ * of events that have them and extra data (parameters and saved return value or exception)
+ * of events that have it</li>
+ * </ul>
+ * Method events that do not have method id get method id from dictionary of this writer,
+ * so each event in block refers to method only by id.
+ * Dictionary block is always written before events block that uses it
+ */
+public class ColumnarEventWriter implements EventWriter {
+    /* first byte is zero because delimited Event cannot have zero length */
+    static final byte[] MAGIC = {0, 'F', 'C', 'L'};
+    static final int VERSION = 1;
+    static final int DICTIONARY_BLOCK = 1;
+    static final int EVENTS_BLOCK = 2;
+    static final int CLASS_ENTRY = 1;
+    static final int THREAD_ENTRY = 2;
+    static final int METHOD_ENTRY = 3;
+    static final int TIME_UNIT_ENTRY = 4;
+    /* two lowest bits of flags store end case of event */
+    static final int END_NOT_SET = 0;
+    static final int END_RETURN_VALUE = 1;
+    static final int END_THROWABLE = 2;
+    static final int HAS_EXTRA = 4;
+    static final int HAS_WEIGHT = 8;
+    private static final int MAX_EVENTS_IN_BLOCK = 4096;
+    private final FileChannel channel;
+    private final BlockOutputStream dictionary = new BlockOutputStream();
+    private final CodedOutputStream dictionaryStream = CodedOutputStream.newInstance(dictionary);
+    private final BlockOutputStream events = new BlockOutputStream();
+    private final CodedOutputStream eventsStream = CodedOutputStream.newInstance(events);
+    /* method id from NewMethod event -> method id in file */
+    private final Map<Integer, Integer> registeredMethods = new HashMap<>();
+    /* class name id, method name, description and is static -> method id in file */
+    private final Map<String, Integer> methodsWithoutId = new HashMap<>();
+    private int methodsCount = 0;
+    private boolean dictionaryIsEmpty = true;
+    private final byte[] lengthBytes = new byte[CodedOutputStream.computeUInt32SizeNoTag(Integer.MAX_VALUE) + 1];
+    private long bytesWritten = 0;
+
+    private int eventsCount = 0;
+    private long[] threadIds = new long[64];
+    private int[] methodIds = new int[64];
+    private long[] startTimes = new long[64];
+    private long[] durations = new long[64];
+    private byte[] flags = new byte[64];
+    private int[] weights = new int[64];
+    private MethodEvent[] extras = new MethodEvent[64];
+
+    public ColumnarEventWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+            header.put(MAGIC).put((byte) VERSION).flip();
+            writeFully(header);
+        }
+    }
+
+    @Override
+    public void write(MessageLite message) throws IOException {
+        Event event = (Event) message;
+        switch (event.getTypeCase()) {
+            case METHODEVENT:
+                addMethodEvent(event.getMethodEvent());
+                break;
+            case NEWCLASS:
+                dictionaryStream.writeUInt32NoTag(CLASS_ENTRY);
+                dictionaryStream.writeUInt64NoTag(event.getNewClass().getId());
+                dictionaryStream.writeStringNoTag(event.getNewClass().getName());
+                dictionaryIsEmpty = false;
+                break;
+            case NEWTHREAD:
+                dictionaryStream.writeUInt32NoTag(THREAD_ENTRY);
+                dictionaryStream.writeUInt64NoTag(event.getNewThread().getId());
+                dictionaryStream.writeStringNoTag(event.getNewThread().getName());
+                dictionaryIsEmpty = false;
+                break;
+            case NEWMETHOD:
+                Event.NewMethod newMethod = event.getNewMethod();
+                registeredMethods.put(newMethod.getId(), addMethod(newMethod.getClassNameId(),
+                        newMethod.getMethodName(), newMethod.getDesc(), newMethod.getIsStatic()));
+                break;
+            case HEADER:
+                dictionaryStream.writeUInt32NoTag(TIME_UNIT_ENTRY);
+                dictionaryStream.writeUInt32NoTag(event.getHeader().getTimeUnitValue());
+                dictionaryIsEmpty = false;
+                break;
+            default:
+                throw new IllegalArgumentException("Event without type");
+        }
+    }
+
+    private int addMethod(long classNameId, String methodName, String desc, boolean isStatic) throws IOException {
+        int id = ++methodsCount;
+        dictionaryStream.writeUInt32NoTag(METHOD_ENTRY);
+        dictionaryStream.writeUInt32NoTag(id);
+        dictionaryStream.writeUInt64NoTag(classNameId);
+        dictionaryStream.writeStringNoTag(methodName);
+        dictionaryStream.writeStringNoTag(desc);
+        dictionaryStream.writeBoolNoTag(isStatic);
+        dictionaryIsEmpty = false;
+        return id;
+    }
+
+    private int getMethodId(MethodEvent methodEvent) throws IOException {
+        if (methodEvent.getMethodId() != 0) {
+            Integer id = registeredMethods.get(methodEvent.getMethodId());
+            if (id == null) {
+                throw new IllegalStateException("Method is not registered. id = " + methodEvent.getMethodId());
+            }
+            return id;
+        }
+        String key = methodEvent.getClassNameId() + " " + methodEvent.getMethodName() +
+                methodEvent.getDesc() + " " + methodEvent.getIsStatic();
+        Integer id = methodsWithoutId.get(key);
+        if (id == null) {
+            id = addMethod(methodEvent.getClassNameId(), methodEvent.getMethodName(),
+                    methodEvent.getDesc(), methodEvent.getIsStatic());
+            methodsWithoutId.put(key, id);
+        }
+        return id;
+    }
+
+    private void addMethodEvent(MethodEvent methodEvent) throws IOException {
+        if (eventsCount == threadIds.length) {
+            growColumns();
+        }
+        int i = eventsCount;
+        threadIds[i] = methodEvent.getThreadId();
+        methodIds[i] = getMethodId(methodEvent);
+        startTimes[i] = methodEvent.getStartTime();
+        durations[i] = methodEvent.getDuration();
+        weights[i] = methodEvent.getSamplingWeight();
+        extras[i] = getExtra(methodEvent);
+        int eventFlags;
+        switch (methodEvent.getEndCase()) {
+            case RETURN_VALUE:
+                eventFlags = END_RETURN_VALUE;
+                break;
+            case THROWABLE:
+                eventFlags = END_THROWABLE;
+                break;
+            default:
+                eventFlags = END_NOT_SET;
+        }
+        if (extras[i] != null) {
+            eventFlags |= HAS_EXTRA;
+        }
+        if (weights[i] != 0) {
+            eventFlags |= HAS_WEIGHT;
+        }
+        flags[i] = (byte) eventFlags;
+        eventsCount++;
+        if (eventsCount == MAX_EVENTS_IN_BLOCK) {
+            writeBlocks();
+        }
+    }
+
+    /**
+     * @return message with parameters and not empty return value or exception of event
+     * or null if event does not have them
+     */
+    private static MethodEvent getExtra(MethodEvent methodEvent) {
+        MethodEvent.Builder extra = null;
+        if (methodEvent.getParametersCount() != 0) {
+            extra = MethodEvent.newBuilder().addAllParameters(methodEvent.getParametersList());
+        }
+        if (methodEvent.getEndCase() == MethodEvent.EndCase.RETURN_VALUE &&
+                methodEvent.getReturnValue().getSerializedSize() != 0) {
+            extra = extra == null ? MethodEvent.newBuilder() : extra;
+            extra.setReturnValue(methodEvent.getReturnValue());
+        } else if (methodEvent.getEndCase() == MethodEvent.EndCase.THROWABLE &&
+                methodEvent.getThrowable().getSerializedSize() != 0) {
+            extra = extra == null ? MethodEvent.newBuilder() : extra;
+            extra.setThrowable(methodEvent.getThrowable());
+        }
+        return extra == null ? null : extra.build();
+    }
+
+    private void growColumns() {
+        int newLength = threadIds.length * 2;
+        threadIds = Arrays.copyOf(threadIds, newLength);
+        methodIds = Arrays.copyOf(methodIds, newLength);
+        startTimes = Arrays.copyOf(startTimes, newLength);
+        durations = Arrays.copyOf(durations, newLength);
+        flags = Arrays.copyOf(flags, newLength);
+        weights = Arrays.copyOf(weights, newLength);
+        extras = Arrays.copyOf(extras, newLength);
+    }
+
+    private void writeBlocks() throws IOException {
+        if (!dictionaryIsEmpty) {
+            dictionaryStream.flush();
+            writeBlock(DICTIONARY_BLOCK, dictionary);
+            dictionaryIsEmpty = true;
+        }
+        if (eventsCount != 0) {
+            encodeEvents();
+            eventsStream.flush();
+            writeBlock(EVENTS_BLOCK, events);
+            Arrays.fill(extras, 0, eventsCount, null);
+            eventsCount = 0;
+        }
+    }
+
+    private void encodeEvents() throws IOException {
+        eventsStream.writeUInt32NoTag(eventsCount);
+        for (int i = 0; i < eventsCount; i++) {
+            eventsStream.writeUInt64NoTag(threadIds[i]);
+        }
+        for (int i = 0; i < eventsCount; i++) {
+            eventsStream.writeUInt32NoTag(methodIds[i]);
+        }
+        long previousStartTime = 0;
+        for (int i = 0; i < eventsCount; i++) {
+            eventsStream.writeSInt64NoTag(startTimes[i] - previousStartTime);
+            previousStartTime = startTimes[i];
+        }
+        for (int i = 0; i < eventsCount; i++) {
+            eventsStream.writeUInt64NoTag(durations[i]);
+        }
+        eventsStream.writeRawBytes(flags, 0, eventsCount);
+        for (int i = 0; i < eventsCount; i++) {
+            if ((flags[i] & HAS_WEIGHT) != 0) {
+                eventsStream.writeUInt32NoTag(weights[i]);
+            }
+        }
+        for (int i = 0; i < eventsCount; i++) {
+            if ((flags[i] & HAS_EXTRA) != 0) {
+                eventsStream.writeMessageNoTag(extras[i]);
+            }
+        }
+    }
+
+    private void writeBlock(int type, BlockOutputStream payload) throws IOException {
+        int size = payload.size() + 1;
+        CodedOutputStream lengthStream = CodedOutputStream.newInstance(lengthBytes);
+        lengthStream.writeUInt32NoTag(size);
+        lengthStream.writeRawByte((byte) type);
+        writeFully(ByteBuffer.wrap(lengthBytes, 0, lengthBytes.length - lengthStream.spaceLeft()));
+        writeFully(payload.asByteBuffer());
+        payload.reset();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlocks();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Gives access to collected bytes without copying them
+     */
+    private static class BlockOutputStream extends ByteArrayOutputStream {
+        BlockOutputStream() {
+            super(64 * 1024);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
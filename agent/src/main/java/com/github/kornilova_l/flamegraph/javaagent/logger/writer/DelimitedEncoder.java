@@ -0,0 +1,34 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.libs.com.google.protobuf.CodedOutputStream;
+import com.github.kornilova_l.libs.com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+
+/**
+ * Encodes length-delimited event to reusable array.
+ * Event is not encoded directly to direct buffer because protobuf encoder that writes to direct buffer
+ * uses Unsafe and it does not work on all JVMs
+ */
+class DelimitedEncoder {
+    private byte[] bytes = new byte[1024];
+
+    /**
+     * @return length of encoded event. Encoded event is stored in {@link #getBytes()}
+     */
+    int encode(MessageLite event) throws IOException {
+        int size = event.getSerializedSize();
+        int delimitedSize = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        if (delimitedSize > bytes.length) {
+            bytes = new byte[Math.max(delimitedSize, bytes.length * 2)];
+        }
+        CodedOutputStream outputStream = CodedOutputStream.newInstance(bytes, 0, delimitedSize);
+        outputStream.writeUInt32NoTag(size);
+        event.writeTo(outputStream);
+        return delimitedSize;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+}
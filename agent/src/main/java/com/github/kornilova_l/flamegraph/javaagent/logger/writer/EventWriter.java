@@ -0,0 +1,27 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.libs.com.google.protobuf.MessageLite;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes length-delimited events to output file.
+ * It is used only by logger thread
+ */
+public interface EventWriter extends Closeable {
+    /**
+     * Event may stay in memory until {@link #flush()} is called
+     */
+    void write(MessageLite event) throws IOException;
+
+    /**
+     * Writes all buffered events to file
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return count of bytes that were written to file
+     */
+    long getBytesWritten();
+}
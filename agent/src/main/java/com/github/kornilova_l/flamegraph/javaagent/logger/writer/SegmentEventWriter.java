@@ -0,0 +1,133 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.libs.com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes events to directory of memory-mapped segment files of fixed size.
+ * Segment starts with header: magic number (int), version (int) and length of committed data (long).
+ * Committed length is updated after each batch, so if JVM is killed
+ * only events that were written after last {@link #flush()} are lost
+ * (mapped memory belongs to OS page cache and it is written to file even if process dies).
+ * Segments are read by MappedLog in plugin, header and segment names must stay the same in both places
+ */
+public class SegmentEventWriter implements EventWriter {
+    static final int MAGIC = 0x464C5347; // "FLSG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final int COMMITTED_LENGTH_POSITION = 8;
+    private final File dir;
+    private final int segmentSize;
+    private final DelimitedEncoder encoder = new DelimitedEncoder();
+    private int segmentsCount = 0;
+    private MappedByteBuffer segment;
+    private long bytesWritten = 0;
+
+    /**
+     * @param dir         directory where segments are created
+     * @param segmentSize size of segment file in bytes
+     */
+    public SegmentEventWriter(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory for segments: " + dir);
+        }
+        openSegment(0);
+    }
+
+    static String getSegmentName(int index) {
+        return String.format("segment-%06d.seg", index);
+    }
+
+    /**
+     * @param minDataSize segment must have space for this count of bytes
+     */
+    private void openSegment(int minDataSize) throws IOException {
+        int size = Math.max(segmentSize, HEADER_SIZE + minDataSize);
+        File file = new File(dir, getSegmentName(segmentsCount++));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+            /* mapping stays valid after file is closed */
+            segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(0);
+    }
+
+    /**
+     * Commits and writes finished segment to file and unmaps it,
+     * so mappings of previous segments do not wait for GC
+     */
+    private void finishSegment() {
+        flush();
+        segment.force();
+        unmap(segment);
+        segment = null;
+    }
+
+    /**
+     * Buffer must not be used after it is unmapped.
+     * If buffer cannot be unmapped on this JVM it is unmapped when it is collected by GC
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class); // java 9+
+            } catch (NoSuchMethodException e) { // java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+    }
+
+    @Override
+    public void write(MessageLite event) throws IOException {
+        int delimitedSize = encoder.encode(event);
+        if (delimitedSize > segment.remaining()) {
+            finishSegment();
+            openSegment(delimitedSize);
+        }
+        segment.put(encoder.getBytes(), 0, delimitedSize);
+        bytesWritten += delimitedSize;
+    }
+
+    /**
+     * Commits all written events
+     */
+    @Override
+    public void flush() {
+        segment.putLong(COMMITTED_LENGTH_POSITION, segment.position() - HEADER_SIZE);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segment.force();
+    }
+}
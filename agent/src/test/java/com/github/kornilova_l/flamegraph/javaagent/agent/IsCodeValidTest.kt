@@ -29,16 +29,58 @@ class IsCodeValidTest {
         doTest(FileOutputStream::class.java, true)
     }
 
-    private fun doTest(clazz: Class<*>, isSystemClass: Boolean = false) {
+    @Test
+    fun isPrimitiveCaptureCodeValidTest() {
+        val settings = InstrumentationSettings(true, false, false)
+        doTest(HasCatch::class.java, hasSystemCL = true, settings = settings)
+        doTest(HasIf::class.java, hasSystemCL = true, settings = settings)
+        doTest(ThrowsException::class.java, hasSystemCL = true, settings = settings)
+        doTest(SaveParameters::class.java, hasSystemCL = true, settings = settings)
+    }
+
+    @Test
+    fun isMethodIdsCodeValidTest() {
+        val settings = InstrumentationSettings(false, true, false)
+        doTest(HasCatch::class.java, hasSystemCL = true, settings = settings)
+        doTest(SaveParameters::class.java, hasSystemCL = true, settings = settings)
+        doTest(SaveReturnValue::class.java, hasSystemCL = true, settings = settings)
+        doTest(ThrowsException::class.java, hasSystemCL = true, settings = settings)
+    }
+
+    @Test
+    fun isNanoTimeCodeValidTest() {
+        val settings = InstrumentationSettings(false, false, true)
+        doTest(HasCatch::class.java, settings = settings)
+        doTest(ThrowsException::class.java, settings = settings)
+        doTest(SystemClassWithThrow::class.java, true, settings = settings)
+        doTest(HasIf::class.java, hasSystemCL = true, settings = InstrumentationSettings(true, false, true))
+    }
+
+    @Test
+    fun isSamplingCodeValidTest() {
+        val methodConfig = MethodConfig("*", "*", "(*)")
+        methodConfig.sampleEvery = 10
+        doTest(HasCatch::class.java, hasSystemCL = true, methodConfig = methodConfig)
+        doTest(SaveReturnValue::class.java, hasSystemCL = true, methodConfig = methodConfig)
+        doTest(ThrowsException::class.java, hasSystemCL = true, methodConfig = methodConfig)
+        doTest(ThrowsException::class.java, hasSystemCL = true, methodConfig = methodConfig,
+                settings = InstrumentationSettings(true, false, false))
+    }
+
+    private fun doTest(clazz: Class<*>,
+                       isSystemClass: Boolean = false,
+                       hasSystemCL: Boolean = false,
+                       settings: InstrumentationSettings = InstrumentationSettings.DEFAULT,
+                       methodConfig: MethodConfig = MethodConfig("*", "*", "(*)")) {
         var bytes = getBytes(clazz)
 
         var cr = ClassReader(bytes)
         var cw = ClassWriter(cr, COMPUTE_FRAMES)
-        val methodConfigs = listOf(MethodConfig("*", "*", "(*)"))
+        val methodConfigs = listOf(methodConfig)
         val configManager = AgentConfigurationManager(listOf("*.*(*)"))
         cr.accept(
-                ProfilingClassVisitor(cw, clazz.name.replace('.', '/'), false,
-                        methodConfigs, configManager, isSystemClass), ClassReader.SKIP_FRAMES
+                ProfilingClassVisitor(cw, clazz.name.replace('.', '/'), hasSystemCL,
+                        methodConfigs, configManager, isSystemClass, settings), ClassReader.SKIP_FRAMES
         )
 
         bytes = cw.toByteArray()
@@ -0,0 +1,57 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(8, new RingBuffer<Integer>(5).getCapacity());
+        assertEquals(8, new RingBuffer<Integer>(8).getCapacity());
+        assertEquals(1, new RingBuffer<Integer>(1).getCapacity());
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(i));
+        }
+        assertFalse(ringBuffer.offer(4));
+        assertEquals(Integer.valueOf(0), ringBuffer.poll());
+        assertTrue(ringBuffer.offer(4));
+        for (int i = 1; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    @Test
+    public void producerAndConsumerInDifferentThreads() throws InterruptedException {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(16);
+        int count = 100_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!ringBuffer.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        int expected = 0;
+        while (expected < count) {
+            Integer value = ringBuffer.poll();
+            if (value == null) {
+                Thread.yield();
+            } else {
+                assertEquals(expected, (int) value);
+                expected++;
+            }
+        }
+        producer.join();
+        assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.queue;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThreadBuffersTest {
+
+    @Test
+    public void buffersAreDrainedRoundRobin() throws InterruptedException {
+        ThreadBuffers<IntBuffer> buffers = new ThreadBuffers<>(OverflowPolicy.DROP, owner -> new IntBuffer(owner, 4));
+        buffers.getThreadBuffer().offer(1);
+        buffers.getThreadBuffer().offer(2);
+        Thread thread = new Thread(() -> {
+            buffers.getThreadBuffer().offer(10);
+            buffers.getThreadBuffer().offer(20);
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(Integer.valueOf(1), poll(buffers));
+        assertEquals(Integer.valueOf(10), poll(buffers));
+        assertEquals(Integer.valueOf(2), poll(buffers));
+        assertEquals(Integer.valueOf(20), poll(buffers));
+        assertNull(buffers.nextNonEmpty());
+        assertTrue(buffers.isEmpty());
+    }
+
+    @Test
+    public void bufferOfFinishedThreadIsRemovedWhenEmpty() throws InterruptedException {
+        ThreadBuffers<IntBuffer> buffers = new ThreadBuffers<>(OverflowPolicy.DROP, owner -> new IntBuffer(owner, 4));
+        IntBuffer[] finishedThreadBuffer = new IntBuffer[1];
+        Thread thread = new Thread(() -> {
+            finishedThreadBuffer[0] = buffers.getThreadBuffer();
+            finishedThreadBuffer[0].offer(1);
+        });
+        thread.start();
+        thread.join();
+
+        assertSame(finishedThreadBuffer[0], buffers.nextNonEmpty());
+        finishedThreadBuffer[0].poll();
+        assertNull(buffers.nextNonEmpty());
+        buffers.getThreadBuffer().offer(2);
+        /* only buffer of current thread is left */
+        assertSame(buffers.getThreadBuffer(), buffers.nextNonEmpty());
+        assertSame(buffers.getThreadBuffer(), buffers.nextNonEmpty());
+    }
+
+    @Test
+    public void droppedEventsAreCounted() {
+        ThreadBuffers<IntBuffer> buffers = new ThreadBuffers<>(OverflowPolicy.DROP, owner -> new IntBuffer(owner, 2));
+        for (int i = 0; i < 5; i++) {
+            if (!buffers.getThreadBuffer().offer(i)) {
+                assertFalse(buffers.waitForSpace());
+            }
+        }
+        assertEquals(3, buffers.getDroppedCount());
+    }
+
+    private static Integer poll(ThreadBuffers<IntBuffer> buffers) {
+        IntBuffer buffer = buffers.nextNonEmpty();
+        assertNotNull(buffer);
+        return buffer.poll();
+    }
+
+    private static class IntBuffer extends RingBuffer<Integer> implements ThreadBuffers.Buffer {
+        private final Thread owner;
+
+        IntBuffer(Thread owner, int capacity) {
+            super(capacity);
+            this.owner = owner;
+        }
+
+        @NotNull
+        @Override
+        public Thread getOwner() {
+            return owner;
+        }
+    }
+}
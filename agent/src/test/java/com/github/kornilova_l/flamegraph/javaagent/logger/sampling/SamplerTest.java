@@ -0,0 +1,54 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.sampling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SamplerTest {
+
+    @Test
+    public void fixedSamplerRecordsOneOfN() {
+        FixedMethodSampler sampler = new FixedMethodSampler(10);
+        int recorded = 0;
+        for (int i = 0; i < 100_000; i++) {
+            int weight = sampler.sample();
+            if (weight != 0) {
+                assertEquals(10, weight);
+                recorded++;
+            }
+        }
+        assertTrue(recorded > 9_000 && recorded < 11_000);
+    }
+
+    @Test
+    public void adaptiveSamplerDecreasesRate() throws InterruptedException {
+        AdaptiveMethodSampler sampler = new AdaptiveMethodSampler(10);
+        assertEquals(1, sampler.sample()); // every call is recorded at first
+        for (int i = 0; i < 100_000; i++) {
+            sampler.sample();
+        }
+        Thread.sleep(1100);
+        sampler.sample(); // recorded call updates rate
+        assertTrue(sampler.getSampleEvery() > 1000);
+    }
+
+    @Test
+    public void samplerIsFoundById() {
+        Sampler.register(3, 1, 0);
+        assertEquals(1, Sampler.sample(3));
+    }
+
+    @Test
+    public void callsInsideNotRecordedCallAreNotRecorded() {
+        Sampler.register(4, Integer.MAX_VALUE, 0);
+        int methodWithoutSampler = 1000;
+        assertEquals(1, Sampler.sample(methodWithoutSampler));
+        //noinspection StatementWithEmptyBody
+        while (Sampler.sample(4) != 0) { // find call that is not recorded
+        }
+        assertEquals(0, Sampler.sample(methodWithoutSampler));
+        Sampler.exitNotRecorded();
+        Sampler.exitNotRecorded();
+        assertEquals(1, Sampler.sample(methodWithoutSampler));
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.kornilova_l.flamegraph.javaagent.logger.writer;
+
+import com.github.kornilova_l.libs.com.google.protobuf.StringValue;
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class ChannelEventWriterTest {
+
+    @Test
+    public void eventsAreWrittenDelimited() throws IOException {
+        File file = File.createTempFile("events", ".ser");
+        file.deleteOnExit();
+        StringBuilder largeValue = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            largeValue.append('x');
+        }
+        int count = 50_000;
+        try (ChannelEventWriter writer = new ChannelEventWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(StringValue.newBuilder().setValue("value " + i).build());
+                if (i == 1000) { // event that is bigger than buffer
+                    writer.write(StringValue.newBuilder().setValue(largeValue.toString()).build());
+                }
+                if (i % 10_000 == 0) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+            assertEquals(file.length(), writer.getBytesWritten());
+        }
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            for (int i = 0; i < count; i++) {
+                assertEquals("value " + i, StringValue.parseDelimitedFrom(inputStream).getValue());
+                if (i == 1000) {
+                    assertEquals(largeValue.toString(), StringValue.parseDelimitedFrom(inputStream).getValue());
+                }
+            }
+            assertNull(StringValue.parseDelimitedFrom(inputStream));
+        }
+    }
+}
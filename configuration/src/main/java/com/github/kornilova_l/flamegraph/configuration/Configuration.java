@@ -14,7 +14,8 @@ import java.util.regex.Pattern;
 public class Configuration implements Cloneable {
     private List<MethodConfig> includingMethodConfigs;
     private List<MethodConfig> excludingMethodConfigs;
-    private static final Pattern linePattern = Pattern.compile("!?[\\w.$<>]+\\((\\w|\\[]|\\$|\\.|\\+?, |\\+(?=\\)))*\\)\\+?");
+    /* pattern may be followed by options separated by spaces (for example "min=50us") */
+    private static final Pattern linePattern = Pattern.compile("!?[\\w.$<>]+\\((\\w|\\[]|\\$|\\.|\\+?, |\\+(?=\\)))*\\)\\+?( +[\\w-]+=[\\w./]+)*");
 
     public Configuration() {
         this(new ArrayList<>(), new ArrayList<>());
@@ -151,15 +152,18 @@ public class Configuration implements Cloneable {
                 classAndMethod.lastIndexOf(".") + 1,
                 classAndMethod.length()
         );
-        String parametersPattern = methodConfigLine.substring(methodConfigLine.indexOf("("), methodConfigLine.length());
-        addMethodConfig(
-                new MethodConfig(
-                        classPatternString,
-                        methodPatternString,
-                        parametersPattern
-                ),
-                isExcluding
+        int endOfParameters = methodConfigLine.indexOf(")") + 1;
+        if (endOfParameters < methodConfigLine.length() && methodConfigLine.charAt(endOfParameters) == '+') {
+            endOfParameters++;
+        }
+        String parametersPattern = methodConfigLine.substring(methodConfigLine.indexOf("("), endOfParameters);
+        MethodConfig methodConfig = new MethodConfig(
+                classPatternString,
+                methodPatternString,
+                parametersPattern
         );
+        methodConfig.parseOptions(methodConfigLine.substring(endOfParameters));
+        addMethodConfig(methodConfig, isExcluding);
     }
 
     public void maybeRemoveExactExcludingConfig(MethodConfig methodConfig) {
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +21,12 @@ public class MethodConfig implements Comparable<MethodConfig>, Cloneable {
     private List<Parameter> parameters;
     private boolean isEnabled = true;
     private boolean saveReturnValue = false;
+    /* minimal duration of recorded call in nanoseconds. -1 if default threshold is used */
+    private long minDuration = -1;
+    /* only one of sampleEvery calls is recorded. 1 if every call is recorded */
+    private int sampleEvery = 1;
+    /* if it is not 0 then sampling rate is adjusted to record this count of calls per second */
+    private int eventsPerSecond = 0;
 
     private Pattern classPattern;
     private Pattern methodPattern;
@@ -70,9 +77,126 @@ public class MethodConfig implements Comparable<MethodConfig>, Cloneable {
         }
         isEnabled = methodConfig.isEnabled;
         saveReturnValue = methodConfig.saveReturnValue;
+        minDuration = methodConfig.minDuration;
+        sampleEvery = methodConfig.sampleEvery;
+        eventsPerSecond = methodConfig.eventsPerSecond;
         compilePatterns();
     }
 
+    /**
+     * Parses options which follow pattern in configuration line.
+     * Supported options:
+     * min=&lt;number&gt;&lt;ns|us|ms|s&gt; - minimal duration of recorded call (for example min=50us)
+     *
+     * @param options options separated by spaces
+     */
+    void parseOptions(@NotNull String options) {
+        for (String option : options.trim().split(" +")) {
+            int equalsPos = option.indexOf('=');
+            if (equalsPos == -1) {
+                continue;
+            }
+            String name = option.substring(0, equalsPos);
+            String value = option.substring(equalsPos + 1);
+            switch (name) {
+                case "min":
+                    minDuration = parseDuration(value);
+                    break;
+                case "sample":
+                    sampleEvery = parseSampleEvery(value);
+                    break;
+                case "rate":
+                    eventsPerSecond = parseEventsPerSecond(value);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param duration number followed by unit: ns, us, ms or s. Number without unit is milliseconds
+     * @return duration in nanoseconds
+     */
+    static long parseDuration(@NotNull String duration) {
+        int unitStart = 0;
+        while (unitStart < duration.length() && Character.isDigit(duration.charAt(unitStart))) {
+            unitStart++;
+        }
+        if (unitStart == 0) {
+            throw new IllegalArgumentException("Duration must start with number: " + duration);
+        }
+        long value = Long.parseLong(duration.substring(0, unitStart));
+        switch (duration.substring(unitStart)) {
+            case "ns":
+                return value;
+            case "us":
+                return TimeUnit.MICROSECONDS.toNanos(value);
+            case "":
+            case "ms":
+                return TimeUnit.MILLISECONDS.toNanos(value);
+            case "s":
+                return TimeUnit.SECONDS.toNanos(value);
+            default:
+                throw new IllegalArgumentException("Unknown unit of duration: " + duration);
+        }
+    }
+
+    /**
+     * @param sample "1/N" or "N"
+     * @return N
+     */
+    static int parseSampleEvery(@NotNull String sample) {
+        if (sample.startsWith("1/")) {
+            sample = sample.substring(2);
+        }
+        int sampleEvery = Integer.parseInt(sample);
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("Sampling rate must be 1/N where N > 0: " + sample);
+        }
+        return sampleEvery;
+    }
+
+    /**
+     * @param rate "N/s" or "N"
+     * @return N
+     */
+    static int parseEventsPerSecond(@NotNull String rate) {
+        if (rate.endsWith("/s")) {
+            rate = rate.substring(0, rate.length() - 2);
+        }
+        int eventsPerSecond = Integer.parseInt(rate);
+        if (eventsPerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        return eventsPerSecond;
+    }
+
+    @NotNull
+    private static String durationToString(long nanos) {
+        if (nanos != 0 && nanos % TimeUnit.SECONDS.toNanos(1) == 0) {
+            return TimeUnit.NANOSECONDS.toSeconds(nanos) + "s";
+        }
+        if (nanos != 0 && nanos % TimeUnit.MILLISECONDS.toNanos(1) == 0) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+        }
+        if (nanos != 0 && nanos % TimeUnit.MICROSECONDS.toNanos(1) == 0) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        return nanos + "ns";
+    }
+
+    private String optionsToString() {
+        StringBuilder options = new StringBuilder();
+        if (minDuration >= 0) {
+            options.append(" min=").append(durationToString(minDuration));
+        }
+        if (eventsPerSecond != 0) {
+            options.append(" rate=").append(eventsPerSecond).append("/s");
+        } else if (sampleEvery != 1) {
+            options.append(" sample=1/").append(sampleEvery);
+        }
+        return options.toString();
+    }
+
     @NotNull
     private static List<Parameter> parametersPatternToList(String parametersPatternInnerPart) {
         LinkedList<MethodConfig.Parameter> parameters = new LinkedList<>();
@@ -152,6 +276,46 @@ public class MethodConfig implements Comparable<MethodConfig>, Cloneable {
         this.saveReturnValue = saveReturnValue;
     }
 
+    /**
+     * @return minimal duration of recorded call in nanoseconds or -1 if default threshold is used
+     */
+    public long getMinDuration() {
+        return minDuration;
+    }
+
+    public void setMinDuration(long minDuration) {
+        this.minDuration = minDuration;
+    }
+
+    /**
+     * @return N if one of N calls is recorded. 1 if every call is recorded
+     */
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public void setSampleEvery(int sampleEvery) {
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * @return target count of recorded calls per second or 0 if sampling rate is not adaptive
+     */
+    public int getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public void setEventsPerSecond(int eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    /**
+     * @return true if not every call of method is recorded
+     */
+    public boolean isSampled() {
+        return sampleEvery != 1 || eventsPerSecond != 0;
+    }
+
     public String parametersToString() {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("(");
@@ -185,7 +349,7 @@ public class MethodConfig implements Comparable<MethodConfig>, Cloneable {
 
     @Override
     public String toString() {
-        return getQualifiedName() + parametersWithSaveToString() + (saveReturnValue ? "+" : "");
+        return getQualifiedName() + parametersWithSaveToString() + (saveReturnValue ? "+" : "") + optionsToString();
     }
 
     String getQualifiedName() {
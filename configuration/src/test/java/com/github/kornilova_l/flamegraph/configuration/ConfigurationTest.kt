@@ -1,5 +1,6 @@
 package com.github.kornilova_l.flamegraph.configuration
 
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
@@ -23,4 +24,29 @@ class ConfigurationTest {
         assertTrue(someMethods.isMethodInstrumented(className, methodName, listOf()))
         assertFalse(someMethods.isMethodInstrumented(className, methodName, listOf("int")))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun minDurationOption() {
+        val configuration = Configuration(listOf("my_package.*.*(*) min=50us", "my_package.MyClass.*(int+)+ min=2ms"))
+        val methodConfigs = configuration.includingMethodConfigs
+        assertEquals(50_000L, methodConfigs[0].minDuration)
+        assertEquals(2_000_000L, methodConfigs[1].minDuration)
+        assertTrue(methodConfigs[1].isSaveReturnValue)
+        assertTrue(methodConfigs[1].parameters[0].isEnabled)
+        assertEquals("my_package.*.*(*) min=50us", methodConfigs[0].toString())
+        assertEquals(-1L, allMethods.includingMethodConfigs[0].minDuration)
+    }
+
+    @Test
+    fun samplingOptions() {
+        val configuration = Configuration(listOf("my_package.*.*(*) sample=1/100", "my_package.MyClass.*(*) rate=500/s"))
+        val methodConfigs = configuration.includingMethodConfigs
+        assertEquals(100, methodConfigs[0].sampleEvery)
+        assertEquals(0, methodConfigs[0].eventsPerSecond)
+        assertEquals(500, methodConfigs[1].eventsPerSecond)
+        assertTrue(methodConfigs[1].isSampled)
+        assertFalse(allMethods.includingMethodConfigs[0].isSampled)
+        assertEquals("my_package.*.*(*) sample=1/100", methodConfigs[0].toString())
+        assertEquals("my_package.MyClass.*(*) rate=500/s", methodConfigs[1].toString())
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.event_data_storage.RetValEventData;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.EventQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.OverflowPolicy;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.RingBufferEventQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.SharedEventQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares shared queue with per-thread ring buffers
+ * when many threads add events at the same time.
+ * Single consumer thread drains queue like Logger does.
+ */
+@Fork(3)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class EventQueueBenchmark {
+    @Param({"shared", "ring"})
+    public String queueType;
+
+    private EventQueue queue;
+    private volatile boolean isRunning;
+    private Thread consumer;
+
+    @Setup(Level.Iteration)
+    public void startConsumer() {
+        queue = queueType.equals("ring") ?
+                new RingBufferEventQueue(8192, OverflowPolicy.DROP) :
+                new SharedEventQueue();
+        isRunning = true;
+        consumer = new Thread(() -> {
+            while (isRunning) {
+                if (queue.poll() == null) {
+                    Thread.yield();
+                }
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopConsumer() throws InterruptedException {
+        isRunning = false;
+        consumer.join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void addEvent() {
+        queue.add(new RetValEventData(Thread.currentThread(),
+                "com/github/kornilova_l/flamegraph/Benchmark",
+                0,
+                2,
+                "method",
+                "()V",
+                true,
+                null,
+                null,
+                ""));
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.SerTreesSet;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds call tree of synthetic single-thread recording with 10M events.
+ * Thread has one root call with 99 000 children and each of them has 100 children,
+ * so wide levels of tree show if adding of event is not O(1)
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class LargeCallTreeBenchmark {
+    private static final int PARENTS_COUNT = 99_000;
+    private static final int CHILDREN_COUNT = 100;
+    private File recording;
+
+    @Setup(Level.Trial)
+    public void createRecording() throws IOException {
+        recording = File.createTempFile("large-call-tree", ".ser");
+        recording.deleteOnExit();
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(recording))) {
+            Event.newBuilder().setNewClass(Event.Map.newBuilder().setId(1).setName("Synthetic"))
+                    .build().writeDelimitedTo(outputStream);
+            Event.newBuilder().setNewThread(Event.Map.newBuilder().setId(1).setName("main"))
+                    .build().writeDelimitedTo(outputStream);
+            registerMethod(outputStream, 1, "root");
+            registerMethod(outputStream, 2, "parent");
+            registerMethod(outputStream, 3, "child");
+            long time = 0;
+            for (int i = 0; i < PARENTS_COUNT; i++) {
+                long parentStart = time;
+                for (int j = 0; j < CHILDREN_COUNT; j++) {
+                    writeMethodEvent(outputStream, 3, time, 1);
+                    time += 2;
+                }
+                writeMethodEvent(outputStream, 2, parentStart, time - parentStart);
+            }
+            writeMethodEvent(outputStream, 1, 0, time);
+        }
+    }
+
+    private static void registerMethod(OutputStream outputStream, int id, String methodName) throws IOException {
+        Event.newBuilder().setNewMethod(Event.NewMethod.newBuilder()
+                .setId(id)
+                .setClassNameId(1)
+                .setMethodName(methodName)
+                .setDesc("()V"))
+                .build().writeDelimitedTo(outputStream);
+    }
+
+    private static void writeMethodEvent(OutputStream outputStream,
+                                         int methodId,
+                                         long startTime,
+                                         long duration) throws IOException {
+        Event.newBuilder().setMethodEvent(Event.MethodEvent.newBuilder()
+                .setThreadId(1)
+                .setMethodId(methodId)
+                .setStartTime(startTime)
+                .setDuration(duration))
+                .build().writeDelimitedTo(outputStream);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object buildTree() {
+        return new SerTreesSet(recording).getCallTree(null);
+    }
+}
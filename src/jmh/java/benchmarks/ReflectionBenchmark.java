@@ -1,6 +1,7 @@
 package benchmarks;
 
 import com.github.kornilova_l.flamegraph.javaagent.logger.LoggerQueue;
+import com.github.kornilova_l.flamegraph.javaagent.logger.queue.SharedEventQueue;
 import com.github.kornilova_l.flamegraph.proxy.Proxy;
 import com.github.kornilova_l.flamegraph.proxy.StartData;
 import org.openjdk.jmh.annotations.*;
@@ -15,14 +16,14 @@ import java.util.concurrent.TimeUnit;
 public class ReflectionBenchmark {
 
     public static void main(String[] args) throws InterruptedException {
-        LoggerQueue.initLoggerQueue();
+        LoggerQueue.initLoggerQueue(new SharedEventQueue());
         new ReflectionBenchmark().withReflection();
     }
 
     @SuppressWarnings("unused")
     @Setup(Level.Iteration)
     public void initLogger() {
-        LoggerQueue.initLoggerQueue();
+        LoggerQueue.initLoggerQueue(new SharedEventQueue());
     }
 
     @SuppressWarnings("unused")
@@ -18,6 +18,7 @@ import java.util.regex.Pattern
  * IDEA system dir
  * |-- flamegraph-profiler
  * ....|-- configuration // where configuration is exported after
+ * ....|-- trees-cache // built call traces of files (see CallTracesCache)
  * ....|-- log
  * ....|-- deleted // deleted files temporary stored in this dir (they are returned back if `undo` is pressed)
  * ....|-- uploaded-files
@@ -36,12 +37,14 @@ object PluginFileManager {
     private const val DELETED_FILES = "deleted"
     private const val NOT_CONVERTED = "not-converted"
     private const val SER_FILES = "ser"
+    private const val TREES_CACHE_DIR_NAME = "trees-cache"
 
     val serFileSaver: FileSaver
     val tempFileSaver: FileSaver // save files before converting
     val logDirPath: Path // for tests
     private val uploadedFilesDir: File
     private val configDirPath: Path
+    val treesCacheDir: File
     private val staticDirPath: Path
 
     init {
@@ -53,6 +56,9 @@ object PluginFileManager {
         createDirIfNotExist(logDirPath)
         configDirPath = Paths.get(pluginDir.toString(), CONFIG_DIR_NAME)
         createDirIfNotExist(configDirPath)
+        val treesCacheDirPath = Paths.get(pluginDir.toString(), TREES_CACHE_DIR_NAME)
+        createDirIfNotExist(treesCacheDirPath)
+        treesCacheDir = treesCacheDirPath.toFile()
         try {
             staticDirPath = Paths.get(javaClass.getResource("/" + STATIC_DIR_NAME).toURI())
         } catch (e: URISyntaxException) {
@@ -101,7 +107,7 @@ object PluginFileManager {
         }
         val files = deletedFilesDir.listFiles()
         files ?: return true
-        return files.map { it.delete() }.all { it } // all files were deleted
+        return files.map { it.deleteRecursively() }.all { it } // all files were deleted
     }
 
     @Synchronized
@@ -119,6 +125,14 @@ object PluginFileManager {
         return File(path.toString())
     }
 
+    /**
+     * Name of cache file contains hash of path because files in different directories may have the same name
+     */
+    fun getTreesCacheFile(logFile: File): File {
+        val hash = Integer.toHexString(logFile.absolutePath.hashCode())
+        return Paths.get(treesCacheDir.toString(), "${logFile.name}-$hash.tree").toFile()
+    }
+
     @Synchronized
     fun createLogFile(projectName: String, configurationName: String): File {
         val logDir = getLogDirPath(projectName)
@@ -148,7 +162,7 @@ object PluginFileManager {
         val files = projectLogDir.listFiles() ?: return
         files.sortBy { it.lastModified() }
         for (file in files) {
-            if (file.isFile) {
+            if (file.isFile || isSegmentsDir(file)) {
                 fileNames.add(FileNameAndDate(file))
             }
         }
@@ -406,6 +420,12 @@ object PluginFileManager {
         }
     }
 
+    /**
+     * Javaagent creates directory of segments instead of .ser file if it is started with output=segments
+     */
+    private fun isSegmentsDir(file: File): Boolean =
+            file.isDirectory && file.name.endsWith(".ser")
+
     private fun getLatestFile(dir: File): File? {
         val files = dir.listFiles() ?: return null
         return files.maxBy { it.lastModified() } ?: return null
@@ -0,0 +1,73 @@
+package com.github.kornilova_l.flamegraph.plugin.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Html page with placeholders {{ projectName }}, {{ fileParam }} and {{ filter }}.
+ * Page is split at placeholders when it is read, so rendering only concatenates parts
+ */
+class HtmlTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{ (projectName|fileParam|filter) }}");
+    /* text between placeholders, there is one more text part than placeholders */
+    private final String[] texts;
+    private final String[] placeholders;
+    private final int textsLength;
+
+    private HtmlTemplate(@NotNull String page) {
+        List<String> texts = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(page);
+        int textStart = 0;
+        while (matcher.find()) {
+            texts.add(page.substring(textStart, matcher.start()));
+            placeholders.add(matcher.group(1));
+            textStart = matcher.end();
+        }
+        texts.add(page.substring(textStart));
+        this.texts = texts.toArray(new String[0]);
+        this.placeholders = placeholders.toArray(new String[0]);
+        textsLength = texts.stream().mapToInt(String::length).sum();
+    }
+
+    /**
+     * Lines of page are joined without line separators
+     */
+    @NotNull
+    static HtmlTemplate read(@NotNull File file) throws IOException {
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+            StringBuilder page = new StringBuilder();
+            bufferedReader.lines().forEach(page::append);
+            return new HtmlTemplate(page.toString());
+        }
+    }
+
+    @NotNull
+    String render(@NotNull String projectName, @NotNull String fileParam, @NotNull String filter) {
+        StringBuilder page = new StringBuilder(textsLength + placeholders.length * 64);
+        page.append(texts[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            switch (placeholders[i]) {
+                case "projectName":
+                    page.append(projectName);
+                    break;
+                case "fileParam":
+                    page.append(fileParam);
+                    break;
+                case "filter":
+                    page.append(filter);
+                    break;
+            }
+            page.append(texts[i + 1]);
+        }
+        return page.toString();
+    }
+}
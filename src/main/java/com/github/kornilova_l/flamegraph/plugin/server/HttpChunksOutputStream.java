@@ -0,0 +1,115 @@
+package com.github.kornilova_l.flamegraph.plugin.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sends written bytes as chunks of http response (headers of response must be already written).
+ * Bytes are copied to pooled buffers of channel, full buffer is sent as one chunk.
+ * <p>
+ * If stream is used outside of event loop then it waits while channel is not writable,
+ * so only a few chunks are kept in memory if client reads slowly.
+ * Channel is closed after last chunk is sent
+ */
+class HttpChunksOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final Channel channel;
+    private ByteBuf chunk = null;
+    private boolean isClosed = false;
+
+    HttpChunksOutputStream(@NotNull Channel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        getChunk().writeByte(b);
+        if (!chunk.isWritable()) {
+            sendChunk();
+        }
+    }
+
+    @Override
+    public void write(@NotNull byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ByteBuf chunk = getChunk();
+            int count = Math.min(length, chunk.writableBytes());
+            chunk.writeBytes(bytes, offset, count);
+            offset += count;
+            length -= count;
+            if (!chunk.isWritable()) {
+                sendChunk();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (chunk != null && chunk.isReadable()) {
+            sendChunk();
+        }
+    }
+
+    /**
+     * Sends remaining bytes and end of response
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            flush();
+        } finally {
+            releaseChunk();
+        }
+        channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Closes channel without sending end of response, so client sees that response is incomplete
+     */
+    void abort() {
+        isClosed = true;
+        releaseChunk();
+        channel.close();
+    }
+
+    private ByteBuf getChunk() throws IOException {
+        if (isClosed) {
+            throw new IOException("Stream is closed");
+        }
+        if (chunk == null) {
+            chunk = channel.alloc().buffer(CHUNK_SIZE, CHUNK_SIZE);
+        }
+        return chunk;
+    }
+
+    private void sendChunk() throws IOException {
+        if (!channel.isActive()) {
+            releaseChunk();
+            throw new IOException("Channel is closed");
+        }
+        ChannelFuture future = channel.writeAndFlush(new DefaultHttpContent(chunk));
+        chunk = null; // buffer is released by netty when it is written
+        if (!channel.isWritable() && !channel.eventLoop().inEventLoop()) {
+            future.awaitUninterruptibly();
+        }
+    }
+
+    private void releaseChunk() {
+        if (chunk != null) {
+            chunk.release();
+            chunk = null;
+        }
+    }
+}
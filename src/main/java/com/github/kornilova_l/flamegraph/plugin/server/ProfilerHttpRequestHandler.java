@@ -11,6 +11,7 @@ import com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.tre
 import com.github.kornilova_l.flamegraph.plugin.server.trees.Filter;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType;
+import com.github.kornilova_l.libs.com.google.protobuf.CodedOutputStream;
 import com.github.kornilova_l.libs.com.google.protobuf.Message;
 import com.google.gson.Gson;
 import com.intellij.openapi.diagnostic.Logger;
@@ -21,7 +22,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
-import org.apache.commons.compress.utils.IOUtils;
+import io.netty.util.AttributeKey;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.ide.HttpRequestHandler;
@@ -29,41 +30,122 @@ import org.jetbrains.io.Responses;
 
 import java.io.*;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ProfilerHttpRequestHandler extends HttpRequestHandler {
 
     private static final Logger LOG = Logger.getInstance(ProfilerHttpRequestHandler.class);
+    /* size of buffer of protobuf encoder, full buffer is copied to chunk of response */
+    private static final int PROTO_BUFFER_SIZE = 4096;
+    private static final ResponsesCache RESPONSES_CACHE = new ResponsesCache(ResponsesCache.getDefaultSizeLimit());
+    /* set if response that is sent to channel should be cached */
+    private static final AttributeKey<String> CACHE_KEY = AttributeKey.valueOf("flamegraph.cache.key");
+    private static final AttributeKey<String> IF_NONE_MATCH = AttributeKey.valueOf("flamegraph.if.none.match");
+    /* encoding that client accepts, see ResponseCompressor#chooseEncoding */
+    private static final AttributeKey<String> ACCEPTED_ENCODING = AttributeKey.valueOf("flamegraph.accepted.encoding");
+    /* static files and html templates are read once */
+    private static final Map<String, StaticFile> STATIC_FILES = new ConcurrentHashMap<>();
+    private static final Map<String, HtmlTemplate> HTML_TEMPLATES = new ConcurrentHashMap<>();
     private final PluginFileManager fileManager = PluginFileManager.INSTANCE;
     private final FileUploader fileUploader = new FileUploader();
 
+    /**
+     * Message is encoded while it is sent: headers are sent first,
+     * then encoded bytes are sent in chunks (see {@link HttpChunksOutputStream}),
+     * so encoded message is never stored in memory as a whole.
+     * If response should be cached and it is not too big then message is encoded to array.
+     * If client accepts compressed responses then bytes are compressed before they are split to chunks
+     */
     public static void sendProto(ChannelHandlerContext context,
                                  @Nullable Message message) {
         if (message == null) {
             sendBytes(context, "application/octet-stream", new byte[0]);
             return;
         }
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Channel channel = context.channel();
+        String cacheKey = channel.attr(CACHE_KEY).get();
+        if (cacheKey != null && message.getSerializedSize() <= RESPONSES_CACHE.getMaxResponseSize()) {
+            ResponsesCache.CachedResponse cachedResponse =
+                    RESPONSES_CACHE.put(cacheKey, "application/octet-stream", message.toByteArray());
+            sendCached(channel, cachedResponse, channel.attr(IF_NONE_MATCH).get());
+            return;
+        }
+        String encoding = ResponseCompressor.getEncoding(channel.attr(ACCEPTED_ENCODING).get(),
+                "application/octet-stream", message.getSerializedSize());
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set("Content-Type", "application/octet-stream");
+        setContentEncoding(response, encoding);
+        HttpUtil.setTransferEncodingChunked(response, true);
+        channel.write(response);
+        HttpChunksOutputStream outputStream = new HttpChunksOutputStream(channel);
         try {
-            message.writeTo(outputStream);
-            sendBytes(context, "application/octet-stream", outputStream.toByteArray());
+            OutputStream encodedStream = encoding == null ?
+                    outputStream :
+                    ResponseCompressor.newOutputStream(outputStream, encoding);
+            CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(encodedStream, PROTO_BUFFER_SIZE);
+            message.writeTo(codedOutputStream);
+            codedOutputStream.flush();
+            encodedStream.close(); // closes outputStream
         } catch (IOException e) {
-            LOG.error(e);
+            if (channel.isActive()) {
+                LOG.error(e);
+            } else {
+                LOG.info("Client closed connection before tree was sent");
+            }
+            outputStream.abort();
         }
     }
 
     private static void sendBytes(ChannelHandlerContext context,
                                   String contentType,
                                   @NotNull byte[] bytes) {
+        String encoding = ResponseCompressor.getEncoding(context.channel().attr(ACCEPTED_ENCODING).get(),
+                contentType, bytes.length);
         FullHttpResponse response = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1,
                 HttpResponseStatus.OK,
-                Unpooled.wrappedBuffer(bytes)
+                Unpooled.wrappedBuffer(encoding == null ? bytes : ResponseCompressor.compress(bytes, encoding))
         );
         response.headers().set("Content-Type", contentType);
+        setContentEncoding(response, encoding);
         ChannelFuture f = context.channel().writeAndFlush(response);
         f.addListener(ChannelFutureListener.CLOSE);
     }
 
+    private static void setContentEncoding(HttpResponse response, @Nullable String encoding) {
+        if (encoding != null) {
+            response.headers().set(HttpHeaderNames.CONTENT_ENCODING, encoding);
+            response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Sends NOT_MODIFIED if client has the same version of response
+     */
+    private static void sendCached(Channel channel,
+                                   ResponsesCache.CachedResponse cachedResponse,
+                                   @Nullable String ifNoneMatch) {
+        String encoding = ResponseCompressor.getEncoding(channel.attr(ACCEPTED_ENCODING).get(),
+                cachedResponse.getContentType(), cachedResponse.getBytes().length);
+        FullHttpResponse response;
+        if (cachedResponse.isNotModified(ifNoneMatch, encoding)) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+        } else {
+            response = new DefaultFullHttpResponse(
+                    HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.OK,
+                    Unpooled.wrappedBuffer(cachedResponse.getBytes(encoding))
+            );
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, cachedResponse.getContentType());
+            setContentEncoding(response, encoding);
+        }
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.ETAG, cachedResponse.getETag(encoding));
+        /* browser must revalidate response, so it gets new tree if log file is changed */
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        channel.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
     public static void sendStatus(HttpResponseStatus status, Channel channel) {
         DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
         HttpUtil.setContentLength(response, 0);
@@ -93,6 +175,13 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
     }
 
     public static void sendJson(ChannelHandlerContext context, @NotNull String json) {
+        Channel channel = context.channel();
+        String cacheKey = channel.attr(CACHE_KEY).get();
+        if (cacheKey != null) {
+            sendCached(channel, RESPONSES_CACHE.put(cacheKey, "application/json", json.getBytes()),
+                    channel.attr(IF_NONE_MATCH).get());
+            return;
+        }
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         try {
             outputStream.write(json.getBytes());
@@ -118,28 +207,23 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
                               @NotNull String projectName,
                               @Nullable String include,
                               @Nullable String exclude) {
-        File staticFile = fileManager.getStaticFile(htmlFilePath);
-        if (staticFile == null) {
-            throw new RuntimeException("Cannot render page " + htmlFilePath + " project: " +
-                    projectName + " file " + fileName + " include " + include + " exclude " + exclude);
-        }
-        String filterParameters = getFilterAsGetParameters(include, exclude);
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(staticFile))) {
-            return String.join("", bufferedReader.lines()
-                    .map((line) -> {
-                                String replacement = fileName == null ?
-                                        "" :
-                                        "file=" + fileName + "&";
-                                return line.replace("{{ projectName }}", projectName)
-                                        .replace("{{ fileParam }}", replacement)
-                                        .replace("{{ filter }}", filterParameters);
-                            }
-                    )
-                    .toArray(String[]::new)).getBytes();
-        } catch (IOException e) {
-            throw new RuntimeException("Cannot render page " + htmlFilePath + " project: " +
-                    projectName + " file " + fileName + " include " + include + " exclude " + exclude, e);
+        HtmlTemplate template = HTML_TEMPLATES.get(htmlFilePath);
+        if (template == null) {
+            File staticFile = fileManager.getStaticFile(htmlFilePath);
+            if (staticFile == null) {
+                throw new RuntimeException("Cannot render page " + htmlFilePath + " project: " +
+                        projectName + " file " + fileName + " include " + include + " exclude " + exclude);
+            }
+            try {
+                template = HtmlTemplate.read(staticFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot render page " + htmlFilePath + " project: " +
+                        projectName + " file " + fileName + " include " + include + " exclude " + exclude, e);
+            }
+            HTML_TEMPLATES.putIfAbsent(htmlFilePath, template);
         }
+        String fileParam = fileName == null ? "" : "file=" + fileName + "&";
+        return template.render(projectName, fileParam, getFilterAsGetParameters(include, exclude)).getBytes();
     }
 
     private String getFilterAsGetParameters(@Nullable String include, @Nullable String exclude) {
@@ -170,16 +254,36 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
         }
     }
 
+    /**
+     * File is read from disk only on first request
+     */
     private void sendStatic(ChannelHandlerContext context,
+                            FullHttpRequest fullHttpRequest,
                             String fileUri,
                             String contentType) throws IOException {
-        File staticFile = fileManager.getStaticFile(fileUri);
+        StaticFile staticFile = STATIC_FILES.get(fileUri);
         if (staticFile == null) {
-            throw new RuntimeException("Cannot find static files. File uri: " + fileUri);
+            File file = fileManager.getStaticFile(fileUri);
+            if (file == null) {
+                throw new RuntimeException("Cannot find static files. File uri: " + fileUri);
+            }
+            staticFile = StaticFile.read(file, contentType);
+            STATIC_FILES.putIfAbsent(fileUri, staticFile);
         }
-        try (InputStream inputStream = new FileInputStream(staticFile)) {
-            sendBytes(context, contentType, IOUtils.toByteArray(inputStream));
+        Channel channel = context.channel();
+        String encoding = staticFile.getEncoding(channel.attr(ACCEPTED_ENCODING).get());
+        FullHttpResponse response;
+        if (staticFile.isNotModified(fullHttpRequest.headers(), encoding)) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+        } else {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    staticFile.getContent(encoding));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, staticFile.getContentType());
+            setContentEncoding(response, encoding);
         }
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        staticFile.setCacheHeaders(response.headers(), encoding);
+        channel.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
     }
 
     private boolean processPostMethod(QueryStringDecoder urlDecoder, FullHttpRequest fullHttpRequest, ChannelHandlerContext context) {
@@ -266,6 +370,8 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
             return false;
         }
         TreeManager.INSTANCE.updateLastTime();
+        context.channel().attr(ACCEPTED_ENCODING).set(
+                ResponseCompressor.chooseEncoding(fullHttpRequest.headers().get(HttpHeaderNames.ACCEPT_ENCODING)));
         if (fullHttpRequest.method() == HttpMethod.POST) {
             return processPostMethod(urlDecoder, fullHttpRequest, context);
         } else {
@@ -292,33 +398,44 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
                 }
                 return true;
             case ServerNames.HOT_SPOTS_JS_REQUEST:
-                new HotSpotsRequestHandler(urlDecoder, context).process();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new HotSpotsRequestHandler(urlDecoder, context).process());
                 return true;
             case ServerNames.DOES_FILE_EXIST:
                 sendIfFileExist(fullHttpRequest, context);
                 return true;
+            case ServerNames.SERVER_METRICS:
+                sendJson(context, new Gson().toJson(RequestsExecutor.INSTANCE.getMetrics()));
+                return true;
         }
         switch (uri) {
             case ServerNames.CALL_TREE_JS_REQUEST:
-                new CallTreeRequestHandler(urlDecoder, context).process();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new CallTreeRequestHandler(urlDecoder, context).process());
                 return true;
             case ServerNames.CALL_TREE_PREVIEW_JS_REQUEST:
-                new TreesPreviewHandler(urlDecoder, context).process();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new TreesPreviewHandler(urlDecoder, context).process());
                 return true;
             case ServerNames.OUTGOING_CALLS_JS_REQUEST:
-                new CallTracesRequestHandler(urlDecoder, context).process();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new CallTracesRequestHandler(urlDecoder, context).process());
                 return true;
             case ServerNames.INCOMING_CALLS_JS_REQUEST:
-                new BackTracesRequestHandler(urlDecoder, context).process();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new BackTracesRequestHandler(urlDecoder, context).process());
                 return true;
             case ServerNames.CALL_TREE_COUNT:
-                new CallTreeMethodsCounter(urlDecoder, context).sendJson();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new CallTreeMethodsCounter(urlDecoder, context).sendJson());
                 return true;
             case ServerNames.OUTGOING_CALLS_COUNT:
-                new AccumulativeTreesMethodCounter(urlDecoder, context, TreeType.CALL_TRACES).sendJson();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new AccumulativeTreesMethodCounter(urlDecoder, context, TreeType.CALL_TRACES).sendJson());
                 return true;
             case ServerNames.INCOMING_CALLS_COUNT:
-                new AccumulativeTreesMethodCounter(urlDecoder, context, TreeType.BACK_TRACES).sendJson();
+                processCached(urlDecoder, fullHttpRequest, context,
+                        () -> new AccumulativeTreesMethodCounter(urlDecoder, context, TreeType.BACK_TRACES).sendJson());
                 return true;
         }
         switch (uri) {
@@ -331,13 +448,13 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
         }
         try {
             if (ServerNames.CSS_PATTERN.matcher(uri).matches()) {
-                sendStatic(context, uri, "text/css");
+                sendStatic(context, fullHttpRequest, uri, "text/css");
             } else if (ServerNames.JS_PATTERN.matcher(uri).matches()) {
-                sendStatic(context, uri, "text/javascript");
+                sendStatic(context, fullHttpRequest, uri, "text/javascript");
             } else if (ServerNames.FONT_PATTERN.matcher(uri).matches()) {
-                sendStatic(context, uri, "application/octet-stream");
+                sendStatic(context, fullHttpRequest, uri, "application/octet-stream");
             } else if (ServerNames.PNG_PATTERN.matcher(uri).matches()) {
-                sendStatic(context, uri, "image/png");
+                sendStatic(context, fullHttpRequest, uri, "image/png");
             }
             return true;
         } catch (IOException e) {
@@ -346,6 +463,29 @@ public class ProfilerHttpRequestHandler extends HttpRequestHandler {
         }
     }
 
+    /**
+     * Cached response is sent right away,
+     * otherwise request is processed in {@link RequestsExecutor} and its response is cached
+     */
+    private void processCached(QueryStringDecoder urlDecoder,
+                               FullHttpRequest fullHttpRequest,
+                               ChannelHandlerContext context,
+                               Runnable request) {
+        Channel channel = context.channel();
+        String cacheKey = ResponsesCache.getKey(urlDecoder);
+        String ifNoneMatch = fullHttpRequest.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+        if (cacheKey != null) {
+            ResponsesCache.CachedResponse cachedResponse = RESPONSES_CACHE.get(cacheKey);
+            if (cachedResponse != null) {
+                sendCached(channel, cachedResponse, ifNoneMatch);
+                return;
+            }
+            channel.attr(CACHE_KEY).set(cacheKey);
+            channel.attr(IF_NONE_MATCH).set(ifNoneMatch);
+        }
+        RequestsExecutor.INSTANCE.execute(channel, request);
+    }
+
     /**
      * Sends code 302 FOUND if file was found
      * and code 404 NOT_FOUND otherwise.
@@ -0,0 +1,130 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import com.intellij.openapi.diagnostic.Logger
+import io.netty.channel.Channel
+import io.netty.handler.codec.http.HttpResponseStatus
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Requests that build or send trees are processed in a pool of threads, so they do not block
+ * event loop of IDE's built-in server (other requests, for example alive ping, are answered while tree is built).
+ * Pool has [threadsCount] threads (system property "flamegraph.server.threads")
+ * and queue for [MAX_QUEUE_SIZE] requests, if queue is full then SERVICE_UNAVAILABLE is sent.
+ *
+ * Request is cancelled if channel is closed while request waits in queue.
+ * Running request is not interrupted because file that it loads may be needed by other requests,
+ * its response is simply not sent
+ */
+object RequestsExecutor {
+    private val LOG = Logger.getInstance(RequestsExecutor::class.java)
+    private const val THREADS_COUNT_PROPERTY = "flamegraph.server.threads"
+    private const val MAX_QUEUE_SIZE = 100
+    /* request that waits longer is logged */
+    private const val LONG_WAIT_MILLIS = 1000L
+    private val threadsCount = getThreadsCount()
+    private val threadNumber = AtomicInteger()
+    private val executor = ThreadPoolExecutor(threadsCount, threadsCount, 0, TimeUnit.MILLISECONDS,
+            LinkedBlockingQueue<Runnable>(MAX_QUEUE_SIZE),
+            ThreadFactory { runnable ->
+                val thread = Thread(runnable, "Flamegraph request " + threadNumber.incrementAndGet())
+                thread.isDaemon = true
+                thread
+            })
+    private val submittedCount = AtomicLong()
+    private val rejectedCount = AtomicLong()
+    private val cancelledCount = AtomicLong()
+    private val failedCount = AtomicLong()
+    private val completedCount = AtomicLong()
+    /* requests that were taken from queue */
+    private val startedCount = AtomicLong()
+    private val totalWaitNanos = AtomicLong()
+    private val maxWaitNanos = AtomicLong()
+
+    private fun getThreadsCount(): Int {
+        val defaultCount = Math.max(2, Runtime.getRuntime().availableProcessors() / 2)
+        val property = System.getProperty(THREADS_COUNT_PROPERTY) ?: return defaultCount
+        val count = property.trim().toIntOrNull()
+        if (count == null || count < 1) {
+            LOG.warn("Wrong value of $THREADS_COUNT_PROPERTY: $property. Default value is used")
+            return defaultCount
+        }
+        return count
+    }
+
+    /**
+     * @param request processes request and writes response to channel
+     */
+    fun execute(channel: Channel, request: Runnable) {
+        val submitTime = System.nanoTime()
+        val future = try {
+            executor.submit { process(channel, request, submitTime) }
+        } catch (e: RejectedExecutionException) {
+            rejectedCount.incrementAndGet()
+            LOG.warn("Request is rejected because there are $MAX_QUEUE_SIZE requests in queue")
+            ProfilerHttpRequestHandler.sendStatus(HttpResponseStatus.SERVICE_UNAVAILABLE, channel,
+                    "Server is busy, try again later")
+            return
+        }
+        submittedCount.incrementAndGet()
+        channel.closeFuture().addListener {
+            if (future.cancel(false)) {
+                cancelledCount.incrementAndGet()
+            }
+        }
+    }
+
+    private fun process(channel: Channel, request: Runnable, submitTime: Long) {
+        val waitNanos = System.nanoTime() - submitTime
+        startedCount.incrementAndGet()
+        totalWaitNanos.addAndGet(waitNanos)
+        maxWaitNanos.accumulateAndGet(waitNanos) { max, wait -> Math.max(max, wait) }
+        if (TimeUnit.NANOSECONDS.toMillis(waitNanos) >= LONG_WAIT_MILLIS) {
+            LOG.info("Request waited in queue for ${TimeUnit.NANOSECONDS.toMillis(waitNanos)} ms. ${getMetrics()}")
+        }
+        if (!channel.isActive) { // client does not wait for response
+            cancelledCount.incrementAndGet()
+            return
+        }
+        try {
+            request.run()
+            completedCount.incrementAndGet()
+        } catch (e: Throwable) {
+            failedCount.incrementAndGet()
+            LOG.error(e)
+            if (channel.isActive) {
+                ProfilerHttpRequestHandler.sendStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR, channel,
+                        "Cannot process request: $e")
+            }
+        }
+    }
+
+    fun getMetrics(): Metrics {
+        val startedCount = startedCount.get()
+        return Metrics(threadsCount,
+                executor.activeCount,
+                executor.queue.size,
+                submittedCount.get(),
+                rejectedCount.get(),
+                cancelledCount.get(),
+                failedCount.get(),
+                completedCount.get(),
+                if (startedCount == 0L) 0 else TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / startedCount),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()))
+    }
+
+    /**
+     * Metrics are sent to client as json
+     */
+    data class Metrics(val threadsCount: Int,
+                       val activeCount: Int,
+                       val queueSize: Int,
+                       val submittedCount: Long,
+                       val rejectedCount: Long,
+                       val cancelledCount: Long,
+                       val failedCount: Long,
+                       val completedCount: Long,
+                       val averageWaitMillis: Long,
+                       val maxWaitMillis: Long)
+}
@@ -0,0 +1,180 @@
+package com.github.kornilova_l.flamegraph.plugin.server;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses responses with gzip or deflate if client accepts it.
+ * Level of compression is set by system property "flamegraph.server.compression.level" (from 1 to 9).
+ * Each thread has its own {@link Deflater}, it is reset before each response,
+ * so native memory of deflater is not allocated for every response
+ */
+class ResponseCompressor {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    /* small responses are not compressed because it does not save much */
+    private static final int MIN_SIZE_TO_COMPRESS = 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String LEVEL_PROPERTY = "flamegraph.server.compression.level";
+    private static final Logger LOG = Logger.getInstance(ResponseCompressor.class);
+    private static final int LEVEL = getLevel();
+    private static final ThreadLocal<Deflater> GZIP_DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+    private static final ThreadLocal<Deflater> DEFLATE_DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(LEVEL));
+    private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static int getLevel() {
+        String property = System.getProperty(LEVEL_PROPERTY);
+        if (property == null) {
+            return 6;
+        }
+        try {
+            int level = Integer.parseInt(property.trim());
+            if (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION) {
+                return level;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        LOG.warn("Wrong value of " + LEVEL_PROPERTY + ": " + property + ". Default value is used");
+        return 6;
+    }
+
+    /**
+     * Gzip is preferred if both encodings are accepted.
+     * "*" accepts only encodings that are not listed in header (RFC 7231)
+     *
+     * @param acceptEncoding value of Accept-Encoding header
+     * @return encoding that is used for responses or null if responses should not be compressed
+     */
+    @Nullable
+    static String chooseEncoding(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean acceptsGzip = false;
+        boolean acceptsDeflate = false;
+        boolean acceptsAny = false;
+        boolean refusesGzip = false;
+        boolean refusesDeflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean isRefused = parts.length > 1 && isZeroQuality(parts[1]);
+            switch (name) {
+                case GZIP:
+                    acceptsGzip |= !isRefused;
+                    refusesGzip |= isRefused;
+                    break;
+                case DEFLATE:
+                    acceptsDeflate |= !isRefused;
+                    refusesDeflate |= isRefused;
+                    break;
+                case "*":
+                    acceptsAny |= !isRefused;
+                    break;
+            }
+        }
+        if (acceptsGzip || acceptsAny && !refusesGzip) {
+            return GZIP;
+        }
+        if (acceptsDeflate || acceptsAny && !refusesDeflate) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        String trimmed = parameter.trim().toLowerCase();
+        if (!trimmed.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(trimmed.substring(2)) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return encoding if response should be compressed, null otherwise
+     */
+    @Nullable
+    static String getEncoding(@Nullable String acceptedEncoding, @NotNull String contentType, long size) {
+        if (acceptedEncoding == null || size < MIN_SIZE_TO_COMPRESS || contentType.startsWith("image/")) {
+            return null;
+        }
+        return acceptedEncoding;
+    }
+
+    @NotNull
+    static byte[] compress(@NotNull byte[] bytes, @NotNull String encoding) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        try (OutputStream outputStream = newOutputStream(compressed, encoding)) {
+            outputStream.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream does not throw IOException
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Closing of returned stream closes {@code outputStream}.
+     * Stream must not be used after another stream is created in the same thread
+     */
+    @NotNull
+    static OutputStream newOutputStream(@NotNull OutputStream outputStream, @NotNull String encoding) throws IOException {
+        if (encoding.equals(GZIP)) {
+            Deflater deflater = GZIP_DEFLATERS.get();
+            deflater.reset();
+            return new GzipOutputStream(outputStream, deflater);
+        }
+        Deflater deflater = DEFLATE_DEFLATERS.get();
+        deflater.reset();
+        return new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE);
+    }
+
+    /**
+     * Unlike {@link java.util.zip.GZIPOutputStream} it uses given deflater
+     */
+    private static class GzipOutputStream extends DeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean isFinished = false;
+
+        GzipOutputStream(OutputStream outputStream, Deflater deflater) throws IOException {
+            super(outputStream, deflater, BUFFER_SIZE);
+            outputStream.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(@NotNull byte[] bytes, int offset, int length) throws IOException {
+            super.write(bytes, offset, length);
+            crc.update(bytes, offset, length);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (isFinished) {
+                return;
+            }
+            isFinished = true;
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+            out.write((value >> 16) & 0xFF);
+            out.write((value >> 24) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import com.github.kornilova_l.flamegraph.plugin.PluginFileManager
+import com.intellij.openapi.diagnostic.Logger
+import io.netty.handler.codec.http.QueryStringDecoder
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Encoded responses of tree, preview, count and hot spots requests.
+ * Key of response contains path and modification time of log file, path of request and sorted parameters,
+ * so response is not used after log file is changed (old responses are evicted when cache is full).
+ *
+ * Total size of responses is limited, least recently used responses are removed first.
+ * ETag of response is a hash of its bytes, so browser may revalidate response even if it was evicted.
+ * Compressed versions of response are kept together with response (size limit counts only uncompressed bytes)
+ */
+class ResponsesCache(private val sizeLimit: Long) {
+    private val responses = LinkedHashMap<String, CachedResponse>(16, 0.75f, true)
+    private var size = 0L
+
+    /**
+     * Responses that are bigger are not cached (and they are sent in chunks)
+     */
+    val maxResponseSize: Long
+        get() = sizeLimit / 4
+
+    fun get(key: String): CachedResponse? = synchronized(responses) { responses[key] }
+
+    fun put(key: String, contentType: String, bytes: ByteArray): CachedResponse {
+        val response = CachedResponse(contentType, bytes)
+        if (bytes.size > maxResponseSize) {
+            return response
+        }
+        synchronized(responses) {
+            val previous = responses.put(key, response)
+            if (previous != null) {
+                size -= previous.bytes.size
+            }
+            size += bytes.size
+            val iterator = responses.values.iterator()
+            while (size > sizeLimit && iterator.hasNext()) {
+                size -= iterator.next().bytes.size
+                iterator.remove()
+            }
+        }
+        return response
+    }
+
+    class CachedResponse(val contentType: String, val bytes: ByteArray) {
+        val eTag = computeETag(bytes)
+        /* encoding -> compressed bytes, each version is compressed once */
+        private val compressedBytes = ConcurrentHashMap<String, ByteArray>()
+
+        /**
+         * @param encoding see [ResponseCompressor.getEncoding]
+         */
+        fun getBytes(encoding: String?): ByteArray {
+            if (encoding == null) {
+                return bytes
+            }
+            return compressedBytes.computeIfAbsent(encoding) { ResponseCompressor.compress(bytes, it) }
+        }
+
+        /**
+         * Compressed version has its own ETag
+         */
+        fun getETag(encoding: String?): String = if (encoding == null) eTag else eTag.dropLast(1) + "-$encoding\""
+
+        /**
+         * @param ifNoneMatch value of If-None-Match header
+         */
+        @JvmOverloads
+        fun isNotModified(ifNoneMatch: String?, encoding: String? = null): Boolean {
+            return matchesETag(ifNoneMatch, getETag(encoding))
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getInstance(ResponsesCache::class.java)
+        private const val CACHE_SIZE_PROPERTY = "flamegraph.server.responses.cache.size.mb"
+
+        @JvmStatic
+        fun getDefaultSizeLimit(): Long {
+            val defaultLimit = Math.min(Runtime.getRuntime().maxMemory() / 16, 128L * 1024 * 1024)
+            val property = System.getProperty(CACHE_SIZE_PROPERTY) ?: return defaultLimit
+            val sizeMb = property.trim().toLongOrNull()
+            if (sizeMb == null || sizeMb < 0) {
+                LOG.warn("Wrong value of $CACHE_SIZE_PROPERTY: $property. Default value is used")
+                return defaultLimit
+            }
+            return sizeMb * 1024 * 1024
+        }
+
+        /**
+         * @return null if request does not contain log file
+         */
+        @JvmStatic
+        fun getKey(urlDecoder: QueryStringDecoder): String? {
+            val logFile = PluginFileManager.getLogFile(urlDecoder) ?: return null
+            val key = StringBuilder()
+                    .append(logFile.absolutePath).append(':')
+                    .append(logFile.lastModified()).append(':')
+                    .append(logFile.length()).append(' ')
+                    .append(urlDecoder.path())
+            /* values of parameter are not sorted because their order may matter */
+            for ((name, values) in TreeMap(urlDecoder.parameters())) {
+                for (value in values) {
+                    key.append('&').append(name).append('=').append(value)
+                }
+            }
+            return key.toString()
+        }
+
+        /**
+         * @param ifNoneMatch value of If-None-Match header
+         */
+        @JvmStatic
+        fun matchesETag(ifNoneMatch: String?, eTag: String): Boolean {
+            if (ifNoneMatch == null) {
+                return false
+            }
+            return ifNoneMatch.split(",").any { tag ->
+                val trimmed = tag.trim()
+                trimmed == "*" || trimmed.removePrefix("W/") == eTag
+            }
+        }
+
+        private fun computeETag(bytes: ByteArray): String {
+            val hash = MessageDigest.getInstance("SHA-1").digest(bytes)
+            val eTag = StringBuilder("\"")
+            for (i in 0 until 16) {
+                eTag.append(Character.forDigit(hash[i].toInt() shr 4 and 0xF, 16))
+                        .append(Character.forDigit(hash[i].toInt() and 0xF, 16))
+            }
+            return eTag.append('"').toString()
+        }
+    }
+}
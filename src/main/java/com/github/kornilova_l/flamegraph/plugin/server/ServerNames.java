@@ -24,6 +24,7 @@ public class ServerNames {
     static final String DOES_FILE_EXIST = MAIN_NAME + "/does-file-exist";
     static final String DELETE_FILE = MAIN_NAME + "/delete-file";
     static final String UNDO_DELETE_FILE = MAIN_NAME + "/undo-delete-file";
+    static final String SERVER_METRICS = MAIN_NAME + "/server-metrics";
     static final Pattern CSS_PATTERN = Pattern.compile(MAIN_NAME + "/css.+css$");
     static final Pattern JS_PATTERN = Pattern.compile(MAIN_NAME + "/js.+js$");
     static final Pattern FONT_PATTERN = Pattern.compile(MAIN_NAME + "/.+ttf$");
@@ -0,0 +1,103 @@
+package com.github.kornilova_l.flamegraph.plugin.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.apache.commons.compress.utils.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Js, css, font or image of visualization.
+ * File is read once and it is kept in direct memory together with its compressed versions.
+ * Buffers are never modified or released, each response gets its own duplicate of buffer
+ */
+class StaticFile {
+    /* files are changed only when plugin is updated, after that browser revalidates them */
+    private static final int MAX_AGE_SECONDS = 60 * 60;
+    private final String contentType;
+    /* in seconds because http dates do not contain milliseconds */
+    private final long lastModifiedSeconds;
+    private final String eTag;
+    private final ByteBuf content;
+    private final Map<String, ByteBuf> compressedContents = new HashMap<>();
+
+    private StaticFile(@NotNull String contentType, @NotNull byte[] bytes, long lastModified) {
+        this.contentType = contentType;
+        lastModifiedSeconds = lastModified / 1000;
+        eTag = "\"" + Long.toHexString(lastModifiedSeconds) + "-" + Integer.toHexString(bytes.length) + "\"";
+        content = toImmutableBuffer(bytes);
+        for (String encoding : new String[]{ResponseCompressor.GZIP, ResponseCompressor.DEFLATE}) {
+            if (ResponseCompressor.getEncoding(encoding, contentType, bytes.length) != null) {
+                compressedContents.put(encoding, toImmutableBuffer(ResponseCompressor.compress(bytes, encoding)));
+            }
+        }
+    }
+
+    @NotNull
+    static StaticFile read(@NotNull File file, @NotNull String contentType) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return new StaticFile(contentType, IOUtils.toByteArray(inputStream), file.lastModified());
+        }
+    }
+
+    private static ByteBuf toImmutableBuffer(byte[] bytes) {
+        ByteBuf buffer = Unpooled.directBuffer(bytes.length, bytes.length).writeBytes(bytes);
+        return Unpooled.unreleasableBuffer(buffer.asReadOnly());
+    }
+
+    @NotNull
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param acceptedEncoding see {@link ResponseCompressor#chooseEncoding(String)}
+     * @return encoding if file has compressed version, null otherwise
+     */
+    @Nullable
+    String getEncoding(@Nullable String acceptedEncoding) {
+        return acceptedEncoding != null && compressedContents.containsKey(acceptedEncoding) ? acceptedEncoding : null;
+    }
+
+    @NotNull
+    ByteBuf getContent(@Nullable String encoding) {
+        return encoding == null ? content.duplicate() : compressedContents.get(encoding).duplicate();
+    }
+
+    /**
+     * If-Modified-Since is checked only if request does not contain If-None-Match
+     */
+    boolean isNotModified(@NotNull HttpHeaders requestHeaders, @Nullable String encoding) {
+        String ifNoneMatch = requestHeaders.get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return ResponsesCache.matchesETag(ifNoneMatch, getETag(encoding));
+        }
+        String ifModifiedSince = requestHeaders.get(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        Date date = DateFormatter.parseHttpDate(ifModifiedSince);
+        return date != null && lastModifiedSeconds <= date.getTime() / 1000;
+    }
+
+    void setCacheHeaders(@NotNull HttpHeaders responseHeaders, @Nullable String encoding) {
+        responseHeaders.set(HttpHeaderNames.ETAG, getETag(encoding));
+        responseHeaders.set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(lastModifiedSeconds * 1000)));
+        responseHeaders.set(HttpHeaderNames.CACHE_CONTROL, "max-age=" + MAX_AGE_SECONDS);
+    }
+
+    private String getETag(@Nullable String encoding) {
+        return encoding == null ? eTag : eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+    }
+}
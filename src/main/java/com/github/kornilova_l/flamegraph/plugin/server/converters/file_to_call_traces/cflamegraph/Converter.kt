@@ -1,9 +1,10 @@
 package com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_traces.cflamegraph
 
 import com.github.kornilova_l.flamegraph.plugin.pleaseReportIssue
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.parsePositiveInt
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.parsePositiveLong
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
 import com.github.kornilova_l.flamegraph.proto.TreeProtos
 import java.io.BufferedReader
 import java.io.File
@@ -17,13 +18,14 @@ internal class Converter(file: File) {
     private val classNames = HashMap<Int, String>()
     private val methodNames = HashMap<Int, String>()
     private val descriptions = HashMap<Int, String>()
+    private val frames = FrameTable()
+    private val primitiveTree = PrimitiveTree(frames)
     private val headerPattern = Pattern.compile("--[CMD]-- \\d+")
     private var maxDepth = 0
 
     init {
-        val tree = createEmptyTree()
-        val currentStack = ArrayList<TreeProtos.Tree.Node.Builder>()
-        currentStack.add(tree.baseNodeBuilder)
+        val currentStack = ArrayList<Int>()
+        currentStack.add(PrimitiveTree.BASE_NODE)
         BufferedReader(FileReader(file), 1000 * 8192).use { reader ->
             var line: String? = initMaps(reader)
             while (line != null) {
@@ -33,11 +35,9 @@ internal class Converter(file: File) {
                 line = reader.readLine()
             }
         }
-        tree.depth = maxDepth
-        TreesUtil.setNodesOffsetRecursively(tree.baseNodeBuilder, 0)
-        TreesUtil.setTreeWidth(tree)
-        TreesUtil.setNodesCount(tree)
-        this.tree = tree.build()
+        primitiveTree.finish()
+        primitiveTree.depth = maxDepth
+        tree = primitiveTree.toProto()
     }
 
     private fun initMaps(reader: BufferedReader): String {
@@ -70,7 +70,7 @@ internal class Converter(file: File) {
     }
 
     private fun processLine(line: String,
-                            currentStack: ArrayList<TreeProtos.Tree.Node.Builder>) {
+                            currentStack: ArrayList<Int>) {
         var className: String? = null
         var methodName: String? = null
         var desc: String? = null
@@ -98,11 +98,9 @@ internal class Converter(file: File) {
         while (depth < currentStack.size) { // if some calls are finished
             currentStack.removeAt(currentStack.size - 1)
         }
-        val newNode = TreesUtil.updateNodeList(
+        val newNode = primitiveTree.updateChild(
                 currentStack[currentStack.size - 1],
-                className ?: "",
-                methodName,
-                desc ?: "",
+                frames.getId(className ?: "", methodName, desc ?: ""),
                 width
         )
         currentStack.add(newNode)
@@ -127,10 +125,4 @@ internal class Converter(file: File) {
         }
         return line.length
     }
-
-    private fun createEmptyTree(): TreeProtos.Tree.Builder {
-        val tree = TreeProtos.Tree.newBuilder()
-        tree.setBaseNode(TreeProtos.Tree.Node.newBuilder())
-        return tree
-    }
 }
\ No newline at end of file
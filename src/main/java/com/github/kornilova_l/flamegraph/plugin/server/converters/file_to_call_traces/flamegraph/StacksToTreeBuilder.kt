@@ -1,32 +1,30 @@
 package com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_traces.flamegraph
 
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeBuilder
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.setNodesCount
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.setNodesOffsetRecursively
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.updateNodeList
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.UniqueStringsKeeper
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
 
 
+/**
+ * Stacks are merged in [PrimitiveTree] so child with the same frame is found by hash lookup,
+ * [FrameTable] keeps one copy of each class name, method name and description
+ */
 class StacksToTreeBuilder(stacks: Map<String, Int>) : TreeBuilder {
-    private val treeBuilder: Tree.Builder = Tree.newBuilder()
+    private val frames = FrameTable()
+    private val primitiveTree = PrimitiveTree(frames)
     private val tree: Tree
     private var maxDepth = 0
-    private val uniqueStrings = UniqueStringsKeeper()
 
     init {
         tree = buildTree(stacks)
     }
 
     private fun buildTree(stacks: Map<String, Int>): Tree {
-        treeBuilder.setBaseNode(Tree.Node.newBuilder())
         processStacks(stacks)
-        setNodesOffsetRecursively(treeBuilder.baseNodeBuilder, 0)
-        TreesUtil.setTreeWidth(treeBuilder)
-        setNodesCount(treeBuilder)
-        treeBuilder.depth = maxDepth
-        return treeBuilder.build()
+        primitiveTree.finish()
+        primitiveTree.depth = maxDepth
+        return primitiveTree.toProto()
     }
 
     private fun processStacks(stacks: Map<String, Int>) {
@@ -41,18 +39,17 @@ class StacksToTreeBuilder(stacks: Map<String, Int>) : TreeBuilder {
         if (calls.size > maxDepth) {
             maxDepth = calls.size
         }
-        var nodeBuilder: Tree.Node.Builder = treeBuilder.baseNodeBuilder
+        var node = PrimitiveTree.BASE_NODE
 
         for (call in calls) {
             val openBracketPos = call.indexOf('(')
             val parametersPos = if (openBracketPos == -1) call.length else openBracketPos // call.length if no parameters
             val lastSpacePosBeforeParams = getLastSpacePosBeforeParams(call, parametersPos) // -1 if no space
 
-            nodeBuilder = updateNodeList(nodeBuilder,
-                    uniqueStrings.getUniqueString(getClassName(call, parametersPos, lastSpacePosBeforeParams) ?: ""),
-                    uniqueStrings.getUniqueString(getMethodName(call, parametersPos)),
-                    uniqueStrings.getUniqueString(getDescription(call, parametersPos, lastSpacePosBeforeParams)
-                            ?: ""), width.toLong())
+            val frameId = frames.getId(getClassName(call, parametersPos, lastSpacePosBeforeParams) ?: "",
+                    getMethodName(call, parametersPos),
+                    getDescription(call, parametersPos, lastSpacePosBeforeParams) ?: "")
+            node = primitiveTree.updateChild(node, frameId, width.toLong())
         }
     }
 
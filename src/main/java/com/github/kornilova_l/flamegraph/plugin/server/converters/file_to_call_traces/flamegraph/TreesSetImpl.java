@@ -3,6 +3,8 @@ package com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_
 import com.github.kornilova_l.flamegraph.plugin.server.trees.Filter;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreesSet;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import com.github.kornilova_l.flamegraph.proto.TreeProtos;
 import com.github.kornilova_l.flamegraph.proto.TreesPreviewProtos;
 import com.github.kornilova_l.flamegraph.proto.TreesProtos;
@@ -12,8 +14,22 @@ import org.jetbrains.annotations.Nullable;
 import java.util.List;
 
 public class TreesSetImpl extends TreesSet {
+    private final PrimitiveTree callTraces;
+
     public TreesSetImpl(@NotNull TreeProtos.Tree callTraces) {
-        this.setCallTraces(callTraces);
+        super(new FrameTable());
+        this.callTraces = PrimitiveTree.fromProto(callTraces, getFrames());
+    }
+
+    public TreesSetImpl(@NotNull PrimitiveTree callTraces) {
+        super(callTraces.getFrames());
+        this.callTraces = callTraces;
+    }
+
+    @NotNull
+    @Override
+    protected PrimitiveTree buildCallTraces() {
+        return callTraces;
     }
 
     @Override
@@ -23,7 +39,7 @@ public class TreesSetImpl extends TreesSet {
 
     @Nullable
     @Override
-    public TreeProtos.Tree getTree(@NotNull TreeManager.TreeType treeType, Filter filter) {
+    public PrimitiveTree getPrimitiveTree(@NotNull TreeManager.TreeType treeType, Filter filter) {
         switch (treeType) {
             case BACK_TRACES:
                 return getBackTracesMaybeFiltered(filter);
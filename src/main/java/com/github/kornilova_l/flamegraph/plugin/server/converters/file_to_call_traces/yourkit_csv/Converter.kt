@@ -1,9 +1,9 @@
 package com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_traces.yourkit_csv
 
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.parsePositiveInt
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil.parsePositiveLong
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.UniqueStringsKeeper
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
 import com.github.kornilova_l.flamegraph.proto.TreeProtos
 import java.io.BufferedReader
 import java.io.File
@@ -13,15 +13,13 @@ import java.util.*
 
 internal class Converter(file: File) {
     val tree: TreeProtos.Tree
-    private val uniqueStringsClassName = UniqueStringsKeeper()
-    private val uniqueStringsMethodName = UniqueStringsKeeper()
-    private val uniqueStringsDesc = UniqueStringsKeeper()
+    private val frames = FrameTable()
+    private val primitiveTree = PrimitiveTree(frames)
     var maxDepth = 0
 
     init {
-        val tree = createEmptyTree()
-        val currentStack = ArrayList<TreeProtos.Tree.Node.Builder>()
-        currentStack.add(tree.baseNodeBuilder)
+        val currentStack = ArrayList<Int>()
+        currentStack.add(PrimitiveTree.BASE_NODE)
         BufferedReader(FileReader(file), 1000 * 8192).use { reader ->
             var line = reader.readLine()
             while (line != null) {
@@ -29,15 +27,13 @@ internal class Converter(file: File) {
                 line = reader.readLine()
             }
         }
-        tree.depth = maxDepth
-        TreesUtil.setNodesOffsetRecursively(tree.baseNodeBuilder, 0)
-        TreesUtil.setTreeWidth(tree)
-        TreesUtil.setNodesCount(tree)
-        this.tree = tree.build()
+        primitiveTree.finish()
+        primitiveTree.depth = maxDepth
+        tree = primitiveTree.toProto()
     }
 
     private fun processLine(line: String,
-                            currentStack: ArrayList<TreeProtos.Tree.Node.Builder>) {
+                            currentStack: ArrayList<Int>) {
         val delimPos = line.indexOf("\",\"")
         if (delimPos == -1) {
             return
@@ -69,11 +65,10 @@ internal class Converter(file: File) {
             currentStack.removeAt(currentStack.size - 1)
         }
         val parametersPos = name.indexOf('(')
-        val newNode = TreesUtil.updateNodeList(
+        val newNode = primitiveTree.updateChild(
                 currentStack[currentStack.size - 1],
-                uniqueStringsClassName.getUniqueString(getClassName(name, parametersPos)),
-                uniqueStringsMethodName.getUniqueString(getMethodName(name, parametersPos)),
-                uniqueStringsDesc.getUniqueString(getDescription(name, parametersPos)),
+                frames.getId(getClassName(name, parametersPos), getMethodName(name, parametersPos),
+                        getDescription(name, parametersPos)),
                 time
         )
         currentStack.add(newNode)
@@ -109,12 +104,6 @@ internal class Converter(file: File) {
         return name.substring(lastDot + 1, parametersPos)
     }
 
-    private fun createEmptyTree(): TreeProtos.Tree.Builder {
-        val tree = TreeProtos.Tree.newBuilder()
-        tree.setBaseNode(TreeProtos.Tree.Node.newBuilder())
-        return tree
-    }
-
     private fun getCleanName(name: String): String {
         val openBracketPos = name.lastIndexOf('(')
         val lastSpacePos = name.substring(0, openBracketPos).lastIndexOf(' ') // remove parameters because they may contain spaces
@@ -2,8 +2,7 @@ package com.github.kornilova_l.flamegraph.plugin.server.methods_count_handlers;
 
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType;
-import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree;
-import com.github.kornilova_l.flamegraph.proto.TreesProtos.Trees;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import org.jetbrains.annotations.NotNull;
@@ -21,17 +20,16 @@ public class AccumulativeTreesMethodCounter extends MethodsCounter {
         this.treeType = treeType;
     }
 
-    @Nullable
     @Override
-    protected Trees getTrees() {
-        Tree tree = getTree();
-        if (tree == null) {
-            return null;
+    protected void countMethods() {
+        PrimitiveTree tree = getTree();
+        if (tree != null) {
+            countMethods(tree);
         }
-        return Trees.newBuilder().addTrees(tree).build();
     }
 
-    public Tree getTree() {
+    @Nullable
+    public PrimitiveTree getTree() {
         String methodName = getParameter(urlDecoder, "method");
         String className = getParameter(urlDecoder, "class");
         String desc = getParameter(urlDecoder, "desc");
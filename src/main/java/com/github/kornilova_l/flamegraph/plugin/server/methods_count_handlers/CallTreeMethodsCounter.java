@@ -1,10 +1,10 @@
 package com.github.kornilova_l.flamegraph.plugin.server.methods_count_handlers;
 
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager;
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree;
 import com.github.kornilova_l.flamegraph.proto.TreesProtos.Trees;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import org.jetbrains.annotations.Nullable;
 
 public class CallTreeMethodsCounter extends MethodsCounter {
     public CallTreeMethodsCounter(QueryStringDecoder urlDecoder, ChannelHandlerContext context) {
@@ -12,9 +12,13 @@ public class CallTreeMethodsCounter extends MethodsCounter {
     }
 
     @Override
-    @Nullable
-    protected Trees getTrees() {
-        return TreeManager.INSTANCE.getCallTree(logFile, null, null);
+    protected void countMethods() {
+        Trees trees = TreeManager.INSTANCE.getCallTree(logFile, null, null);
+        if (trees != null) {
+            for (Tree tree : trees.getTreesList()) {
+                countMethods(tree);
+            }
+        }
     }
 
 }
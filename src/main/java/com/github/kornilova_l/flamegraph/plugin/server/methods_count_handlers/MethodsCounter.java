@@ -3,13 +3,13 @@ package com.github.kornilova_l.flamegraph.plugin.server.methods_count_handlers;
 import com.github.kornilova_l.flamegraph.plugin.PluginFileManager;
 import com.github.kornilova_l.flamegraph.plugin.server.ProfilerHttpRequestHandler;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.Filter;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import com.github.kornilova_l.flamegraph.proto.TreeProtos;
-import com.github.kornilova_l.flamegraph.proto.TreesProtos;
 import com.google.gson.Gson;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.HashSet;
@@ -31,7 +31,7 @@ public abstract class MethodsCounter {
         this.urlDecoder = urlDecoder;
     }
 
-    private void countMethods(TreeProtos.Tree tree) {
+    void countMethods(TreeProtos.Tree tree) {
         if (filter == null) {
             countMethodsRecursively(tree.getBaseNode());
         } else {
@@ -39,8 +39,17 @@ public abstract class MethodsCounter {
         }
     }
 
-    @Nullable
-    protected abstract TreesProtos.Trees getTrees();
+    void countMethods(PrimitiveTree tree) {
+        FrameTable frames = tree.getFrames();
+        for (int node = PrimitiveTree.BASE_NODE + 1; node <= tree.getNodesCount(); node++) { // avoid base node
+            int frameId = tree.getFrameId(node);
+            if (filter == null || filter.isFrameIncluded(frames, frameId)) {
+                methods.add(frames.getComparableName(frameId));
+            }
+        }
+    }
+
+    protected abstract void countMethods();
 
 
     private void countMethodsRecursively(TreeProtos.Tree.Node node) {
@@ -51,12 +60,7 @@ public abstract class MethodsCounter {
     }
 
     public void sendJson() {
-        TreesProtos.Trees trees = getTrees();
-        if (trees != null) {
-            for (TreeProtos.Tree tree : trees.getTreesList()) {
-                countMethods(tree);
-            }
-        }
+        countMethods();
         int result = methods.size();
         ProfilerHttpRequestHandler.sendJson(context, new Gson().toJson(new NodesCount(result)));
     }
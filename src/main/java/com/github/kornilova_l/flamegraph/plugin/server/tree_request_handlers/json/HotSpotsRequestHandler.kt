@@ -6,6 +6,11 @@ import io.netty.channel.ChannelHandlerContext
 import io.netty.handler.codec.http.QueryStringDecoder
 import java.io.File
 
+/**
+ * Hot spots are sorted by self time.
+ * Parameters "offset" and "count" select page of hot spots (so count without offset selects top-K hot spots).
+ * If they are not specified then all hot spots are sent
+ */
 class HotSpotsRequestHandler(urlDecoder: QueryStringDecoder,
                              context: ChannelHandlerContext) : JsonRequestHandler(urlDecoder, context) {
 
@@ -15,6 +20,14 @@ class HotSpotsRequestHandler(urlDecoder: QueryStringDecoder,
         if (projectName == null || fileName == null) {
             return null
         }
-        return TreeManager.getHotSpots(logFile)
+        val hotSpots = TreeManager.getHotSpots(logFile) ?: return null
+        val offset = Math.min(getNonNegativeInt("offset") ?: 0, hotSpots.size)
+        val count = getNonNegativeInt("count") ?: hotSpots.size
+        return hotSpots.subList(offset, Math.min(hotSpots.size - offset, count) + offset)
+    }
+
+    private fun getNonNegativeInt(key: String): Int? {
+        val value = getParameter(urlDecoder, key)?.toIntOrNull() ?: return null
+        return Math.max(value, 0)
     }
 }
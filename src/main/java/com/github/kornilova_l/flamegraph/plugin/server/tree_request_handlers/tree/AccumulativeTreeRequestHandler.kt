@@ -5,6 +5,9 @@ import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreesSet.Companion.getMaxDepthRecursively
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.NO_NODE
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
 import com.intellij.openapi.diagnostic.Logger
 import io.netty.channel.ChannelHandlerContext
@@ -16,17 +19,20 @@ abstract class AccumulativeTreeRequestHandler internal constructor(urlDecoder: Q
     private val LOG = Logger.getInstance(AccumulativeTreeRequestHandler::class.java)
     abstract val type: TreeType
 
-    override fun getTree(logFile: File): Tree? {
+    override fun getTree(logFile: File): PrimitiveTree? {
         val methodName = getParameter(urlDecoder, "method")
         val className = getParameter(urlDecoder, "class")
         val desc = getParameter(urlDecoder, "desc")
-        val tree = if (methodName != null && className != null && desc != null) {
+        return if (methodName != null && className != null && desc != null) {
             TreeManager.getTree(logFile, type, className, methodName,
                     desc, filter)
         } else {
             TreeManager.getTree(logFile, type, filter)
-        } ?: return null
-        val path = urlDecoder.parameters()["path"] ?: return tree
+        }
+    }
+
+    override fun toProto(tree: PrimitiveTree): Tree {
+        val path = urlDecoder.parameters()["path"] ?: return super.toProto(tree)
         return getSubTree(tree, path.map { Integer.parseInt(it) })
     }
 
@@ -35,33 +41,28 @@ abstract class AccumulativeTreeRequestHandler internal constructor(urlDecoder: Q
      * When node is zoomed, client send request to server and specifies path to the node.
      * @param path to first node of subtree. Each number in path - index of child
      * @return subtree that contains less than [maximumNodesCount]
-     * (Note: it would be more convenient to return a subtree that contains more than [maximumNodesCount], so it will be
-     * cut in [TreeRequestHandler].
-     * But it means that there will be a duplicate of tree, this duplicate might be really large)
+     * (Note: only nodes of subtree are converted to protobuf, so there is no large duplicate of tree)
      */
-    private fun getSubTree(tree: Tree, path: List<Int>): Tree? {
-        var currentNode = tree.baseNode
+    private fun getSubTree(tree: PrimitiveTree, path: List<Int>): Tree {
+        var currentNode = BASE_NODE
         for (index in path) {
-            currentNode = currentNode.getNodes(index)
+            currentNode = tree.getChild(currentNode, index)
+            if (currentNode == NO_NODE) {
+                throw IndexOutOfBoundsException("Node does not have child with index $index")
+            }
         }
         val subTree = Tree.newBuilder()
-        if (tree.treeInfo.nodesCount > maximumNodesCount) {
-            val lastAcceptedLayer = getLastAcceptedLayerIndex(currentNode)
-            val base = Tree.Node.newBuilder()
-                    .setWidth(currentNode.width)
-                    .setOffset(currentNode.offset)
-                    .setNodeInfo(currentNode.nodeInfo)
-            subTree.baseNodeBuilder.addNodes(base)
-            val addedBase = subTree.baseNodeBuilder.getNodesBuilder(subTree.baseNodeBuilder.nodesBuilderList.size - 1)
-            cutTree(currentNode, addedBase, 1, lastAcceptedLayer)
+        if (tree.nodesCount > maximumNodesCount) {
+            val lastAcceptedLayer = getLastAcceptedLayerIndex(tree, currentNode)
+            subTree.baseNodeBuilder.addNodes(tree.toProtoNode(currentNode, lastAcceptedLayer))
             subTree.visibleDepth = lastAcceptedLayer + 1 // + 1 because currentNode was not counted
         } else {
             LOG.error("There is no need to send sub-tree request if tree contains less than $maximumNodesCount nodes")
-            subTree.baseNodeBuilder.addNodes(currentNode)
+            subTree.baseNodeBuilder.addNodes(tree.toProtoNode(currentNode, Int.MAX_VALUE))
             subTree.visibleDepth = getMaxDepthRecursively(subTree.baseNodeBuilder, 0)
         }
 
-        subTree.depth = getMaxDepthRecursively(currentNode, 1) // first element in path chooses one of trees of base node
+        subTree.depth = tree.getMaxDepth(currentNode) + 1 // first element in path chooses one of trees of base node
 
         TreesUtil.setNodesOffsetRecursively(subTree.baseNodeBuilder, 0)
         TreesUtil.setTreeWidth(subTree)
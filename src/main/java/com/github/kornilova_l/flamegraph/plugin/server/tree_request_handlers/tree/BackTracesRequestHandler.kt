@@ -3,8 +3,10 @@ package com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.tr
 import com.github.kornilova_l.flamegraph.plugin.server.ProfilerHttpRequestHandler
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
 import io.netty.channel.ChannelHandlerContext
-import io.netty.handler.codec.http.HttpResponseStatus
 import io.netty.handler.codec.http.QueryStringDecoder
 import java.io.File
 
@@ -13,21 +15,40 @@ class BackTracesRequestHandler(urlDecoder: QueryStringDecoder, context: ChannelH
         AccumulativeTreeRequestHandler(urlDecoder, context) {
     override val type: TreeType = TreeType.BACK_TRACES
 
+    /**
+     * If calltraces tree contains more than [maximumNodesCount] nodes then whole backtraces tree is not built.
+     * Only nodes that are visible when node from "path" parameter is zoomed are built for each request
+     */
     override fun doProcess(logFile: File) {
-        val callTraces = TreeManager.getTree(logFile, TreeType.CALL_TRACES, filter)
-        if (callTraces == null) { // it is not possible to get backtraces without calltraces
+        val callTracesNodesCount = TreeManager.getCallTracesNodesCount(logFile)
+        if (callTracesNodesCount == null) { // it is not possible to get backtraces without calltraces
             ProfilerHttpRequestHandler.sendProto(context, null)
             return
         }
-        /* if it is a request for all backtraces and calltraces tree contains more than maximumNodesCount then
-         * send response BAD_REQUEST */
-        if (ProfilerHttpRequestHandler.getParameter(urlDecoder, "method") == null &&
-                callTraces.treeInfo.nodesCount > maximumNodesCount) {
-            ProfilerHttpRequestHandler.sendStatus(HttpResponseStatus.BAD_REQUEST, context.channel(),
-                    "Calltraces tree contains too many nodes: ${callTraces.treeInfo.nodesCount}. For this request it must" +
-                            "contain less than $maximumNodesCount. For this tree only method backtraces are available.")
-        } else {
+        if (ProfilerHttpRequestHandler.getParameter(urlDecoder, "method") != null ||
+                callTracesNodesCount <= maximumNodesCount) {
             super.doProcess(logFile)
+            return
+        }
+        val path = urlDecoder.parameters()["path"]?.map { Integer.parseInt(it) } ?: emptyList()
+        val visiblePart = TreeManager.getBackTracesVisiblePart(logFile, path, filter)
+        if (visiblePart == null) {
+            ProfilerHttpRequestHandler.sendProto(context, null)
+            return
+        }
+        ProfilerHttpRequestHandler.sendProto(context, visiblePartToProto(visiblePart, path))
+    }
+
+    /**
+     * Visible depth is set if some nodes are hidden (client requests them when node is zoomed)
+     * and it is always set for zoomed node
+     */
+    private fun visiblePartToProto(visiblePart: PrimitiveTree, path: List<Int>): Tree {
+        val visibleDepth = visiblePart.getMaxDepth(BASE_NODE)
+        val tree = visiblePart.toProto().toBuilder()
+        if (path.isNotEmpty() || visibleDepth < visiblePart.depth) {
+            tree.visibleDepth = visibleDepth
         }
+        return tree.build()
     }
 }
@@ -2,40 +2,53 @@ package com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.tr
 
 import com.github.kornilova_l.flamegraph.plugin.server.ProfilerHttpRequestHandler.sendProto
 import com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.RequestHandler
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.NO_NODE
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
 import io.netty.channel.ChannelHandlerContext
 import io.netty.handler.codec.http.QueryStringDecoder
 import java.io.File
-import java.util.*
 
 internal const val maximumNodesCount = 15_000 // amount of visible nodes
 
 abstract class TreeRequestHandler(urlDecoder: QueryStringDecoder,
                                   context: ChannelHandlerContext) : RequestHandler(urlDecoder, context) {
 
-    abstract fun getTree(logFile: File): Tree?
+    abstract fun getTree(logFile: File): PrimitiveTree?
 
     override fun doProcess(logFile: File) {
         val tree = getTree(logFile)
-        if (tree != null) {
-            if (tree.treeInfo.nodesCount > maximumNodesCount) {
-                val cutTree = cutTree(tree)
-                sendProto(context, cutTree)
-                return
-            }
+        if (tree == null) {
+            sendProto(context, null)
+            return
+        }
+        sendProto(context, toProto(tree))
+    }
+
+    /**
+     * Tree is converted to protobuf only here, right before it is sent.
+     * If tree contains more than [maximumNodesCount] nodes then only first layers are converted
+     */
+    protected open fun toProto(tree: PrimitiveTree): Tree {
+        if (tree.nodesCount > maximumNodesCount) {
+            return cutTree(tree)
         }
-        sendProto(context, tree)
+        return tree.toProto()
     }
 
-    private fun cutTree(tree: Tree): Tree {
-        val lastLayer = getLastAcceptedLayerIndex(tree.baseNode)
+    private fun cutTree(tree: PrimitiveTree): Tree {
+        val lastLayer = getLastAcceptedLayerIndex(tree, BASE_NODE)
         val treeBuilder = Tree.newBuilder()
-        cutTree(tree.baseNode, treeBuilder.baseNodeBuilder, 1, lastLayer)
         @Suppress("UsePropertyAccessSyntax")
-        treeBuilder.setTreeInfo(tree.treeInfo)
+        treeBuilder.setBaseNode(tree.toProtoNode(BASE_NODE, lastLayer))
                 .setDepth(tree.depth)
                 .setWidth(tree.width)
                 .setVisibleDepth(lastLayer)
+                .getTreeInfoBuilder()
+                .setNodesCount(tree.nodesCount)
+                .setTimePercent(tree.timePercent)
+                .setTimeUnit(tree.timeUnit)
         return treeBuilder.build()
     }
 
@@ -43,50 +56,35 @@ abstract class TreeRequestHandler(urlDecoder: QueryStringDecoder,
         /**
          * Returns index of last accepted layer.
          * If returned index is 10 it means that
-         * first 10 layers of tree (not including base node layer)
+         * first 10 layers of tree (not including first node layer)
          * contain less than [maximumNodesCount] nodes.
          * If you add 11th layer then there will be more than
          * [maximumNodesCount] nodes.
          */
-        internal fun getLastAcceptedLayerIndex(firstNode: Tree.Node): Int {
-            var nodesCount = -1 // do not count base node
-            var currentLayerIndex = -1 // do not count base node layer
+        internal fun getLastAcceptedLayerIndex(tree: PrimitiveTree, firstNode: Int): Int {
+            var nodesCount = -1 // do not count first node
+            var currentLayerIndex = -1 // do not count first node layer
             /* we need to know when layer ends to update currentLayerIndex */
-            var currentLayer = LinkedList<Tree.Node>()
-            var nextLayer = LinkedList<Tree.Node>()
+            var currentLayer = ArrayList<Int>()
+            var nextLayer = ArrayList<Int>()
             currentLayer.add(firstNode)
             while (!currentLayer.isEmpty()) {
-                val node = currentLayer.removeFirst()
-                nodesCount++
-                if (nodesCount > maximumNodesCount) {
-                    return currentLayerIndex
-                }
-                for (child in node.nodesList) {
-                    nextLayer.add(child)
-                }
-                if (currentLayer.isEmpty()) {
-                    currentLayer = nextLayer
-                    nextLayer = LinkedList()
-                    currentLayerIndex++
+                for (node in currentLayer) {
+                    nodesCount++
+                    if (nodesCount > maximumNodesCount) {
+                        return currentLayerIndex
+                    }
+                    var child = tree.getFirstChild(node)
+                    while (child != NO_NODE) {
+                        nextLayer.add(child)
+                        child = tree.getNextSibling(child)
+                    }
                 }
+                currentLayer = nextLayer
+                nextLayer = ArrayList()
+                currentLayerIndex++
             }
             return currentLayerIndex
         }
-
-        internal fun cutTree(node: Tree.Node, nodeBuilder: Tree.Node.Builder, currentLayer: Int, lastAcceptedLayer: Int) {
-            if (currentLayer > lastAcceptedLayer) {
-                return
-            }
-            for (child in node.nodesList) {
-                val newChild = Tree.Node.newBuilder()
-                        .setWidth(child.width)
-                        .setOffset(child.offset)
-                        .setNodeInfo(child.nodeInfo)
-                nodeBuilder.addNodes(newChild)
-                val addedChild = nodeBuilder.getNodesBuilder(nodeBuilder.nodesBuilderList.size - 1)
-                cutTree(child, addedChild, currentLayer + 1, lastAcceptedLayer)
-            }
-        }
-
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees
+
+import com.github.kornilova_l.flamegraph.plugin.PluginFileManager
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTreeFile
+import com.intellij.openapi.diagnostic.Logger
+import java.io.File
+import java.io.IOException
+
+/**
+ * Call traces that were built from file are saved to [PluginFileManager.treesCacheDir],
+ * so file is not parsed again after restart of IDE or after its trees were evicted from [TreeManager].
+ * Saved call traces are used only while length and modification time of file stay the same.
+ * Directories of segments are not cached
+ */
+object CallTracesCache {
+    private val LOG = Logger.getInstance(CallTracesCache::class.java)
+
+    fun load(logFile: File): PrimitiveTree? {
+        if (!logFile.isFile) {
+            return null
+        }
+        val cacheFile = PluginFileManager.getTreesCacheFile(logFile)
+        if (!cacheFile.exists()) {
+            return null
+        }
+        val callTraces = try {
+            PrimitiveTreeFile.read(cacheFile, logFile, FrameTable())
+        } catch (e: IOException) {
+            LOG.warn("Cannot read saved call traces of $logFile", e)
+            null
+        } catch (e: RuntimeException) { // file passed checks of PrimitiveTreeFile but it is still broken
+            LOG.warn("Saved call traces of $logFile are corrupted", e)
+            null
+        }
+        if (callTraces == null) { // file is outdated or broken, call traces will be built and saved again
+            deleteCacheFile(cacheFile)
+        }
+        return callTraces
+    }
+
+    fun save(logFile: File, callTraces: PrimitiveTree) {
+        if (!logFile.isFile) {
+            return
+        }
+        try {
+            PrimitiveTreeFile.write(callTraces, PluginFileManager.getTreesCacheFile(logFile), logFile)
+        } catch (e: IOException) {
+            LOG.warn("Cannot save call traces of $logFile", e)
+        }
+    }
+
+    /**
+     * Removes saved call traces of files that do not exist anymore
+     */
+    fun removeUnusedFiles() {
+        val cacheFiles = PluginFileManager.treesCacheDir.listFiles() ?: return
+        for (cacheFile in cacheFiles) {
+            val sourcePath = try {
+                PrimitiveTreeFile.readSourcePath(cacheFile)
+            } catch (e: IOException) {
+                null
+            }
+            if (sourcePath == null || !File(sourcePath).exists()) {
+                deleteCacheFile(cacheFile)
+            }
+        }
+    }
+
+    private fun deleteCacheFile(cacheFile: File) {
+        if (!cacheFile.delete()) {
+            LOG.debug("Cannot delete file $cacheFile")
+        }
+    }
+}
@@ -1,29 +1,45 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees
 
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree.Node
 import com.intellij.openapi.diagnostic.Logger
+import java.util.*
 
 import java.util.regex.Pattern
 import java.util.regex.PatternSyntaxException
 
+/**
+ * Filter is checked once for each frame, result is remembered by frame id.
+ * Nodes of protobuf trees get ids from table of filter.
+ * Filter is created for one request, so it is not thread-safe
+ */
 class Filter(include: String?, exclude: String?) {
     private val LOG = Logger.getInstance(Filter::class.java)
-    private val include: Pattern?
-    private val exclude: Pattern?
+    private val include: NamePattern?
+    private val exclude: NamePattern?
+    /* table of frames which ids are remembered in bitsets */
+    private var checkedTable: FrameTable? = null
+    private val checkedFrames = BitSet()
+    private val includedFrames = BitSet()
+    /* table of frames of protobuf nodes, it is created only if protobuf tree is filtered */
+    private val nodeFrames by lazy { FrameTable() }
 
     init {
         this.include = compilePattern(include)
         this.exclude = compilePattern(exclude)
     }
 
-    private fun compilePattern(patternString: String?): Pattern? {
+    private fun compilePattern(patternString: String?): NamePattern? {
         if (patternString != null) {
+            if (GlobPattern.isGlob(patternString)) {
+                return GlobPattern(patternString)
+            }
             return try {
-                Pattern.compile(
+                RegexPattern(Pattern.compile(
                         patternString.replace(".", """\.""")
                                 .replace("*", ".*")
                                 .replace("$", """\$""")
-                )
+                ))
             } catch (e: PatternSyntaxException) { // if pattern is invalid
                 LOG.error(e)
                 null
@@ -33,27 +49,84 @@ class Filter(include: String?, exclude: String?) {
     }
 
     fun isNodeIncluded(node: Node): Boolean {
-        val nodeString = getNodeString(node)
-        return isIncluded(nodeString) && !isExcluded(nodeString)
+        return isFrameIncluded(nodeFrames, nodeFrames.getId(node.nodeInfo))
+    }
+
+    fun isFrameIncluded(frames: FrameTable, frameId: Int): Boolean {
+        if (checkedTable !== frames) {
+            checkedTable = frames
+            checkedFrames.clear()
+            includedFrames.clear()
+        }
+        if (checkedFrames.get(frameId)) {
+            return includedFrames.get(frameId)
+        }
+        val nodeString = frames.getComparableName(frameId)
+        val isIncluded = isIncluded(nodeString) && !isExcluded(nodeString)
+        checkedFrames.set(frameId)
+        includedFrames.set(frameId, isIncluded)
+        return isIncluded
     }
 
     private fun isIncluded(nodeString: String): Boolean {
         if (include == null) {
             return true
         }
-        return include.matcher(nodeString).matches()
+        return include.matches(nodeString)
     }
 
     private fun isExcluded(nodeString: String): Boolean {
         if (exclude == null) {
             return false
         }
-        return exclude.matcher(nodeString).matches()
+        return exclude.matches(nodeString)
+    }
+
+    private interface NamePattern {
+        fun matches(name: String): Boolean
+    }
+
+    private class RegexPattern(private val pattern: Pattern) : NamePattern {
+        override fun matches(name: String): Boolean = pattern.matcher(name).matches()
     }
 
+    /**
+     * Pattern without regex syntax (except '*') is checked with prefix, suffix and indexOf
+     * instead of java.util.regex
+     */
+    private class GlobPattern(pattern: String) : NamePattern {
+        /* parts of pattern between '*' */
+        private val parts = pattern.split('*')
 
-    private fun getNodeString(node: Node): String {
-        val nodeInfo = node.nodeInfo
-        return nodeInfo.className + nodeInfo.methodName
+        override fun matches(name: String): Boolean {
+            if (parts.size == 1) {
+                return name == parts[0]
+            }
+            val prefix = parts[0]
+            val suffix = parts[parts.size - 1]
+            if (name.length < prefix.length + suffix.length ||
+                    !name.startsWith(prefix) ||
+                    !name.endsWith(suffix)) {
+                return false
+            }
+            var position = prefix.length
+            val end = name.length - suffix.length
+            for (i in 1 until parts.size - 1) {
+                val part = parts[i]
+                val partPosition = name.indexOf(part, position)
+                if (partPosition == -1 || partPosition + part.length > end) {
+                    return false
+                }
+                position = partPosition + part.length
+            }
+            return true
+        }
+
+        companion object {
+            /* '.' and '$' are escaped in regex, so they are literals too */
+            private const val regexSymbols = "\\[](){}+?|^"
+
+            fun isGlob(pattern: String): Boolean = pattern.none { regexSymbols.indexOf(it) != -1 }
+        }
     }
 }
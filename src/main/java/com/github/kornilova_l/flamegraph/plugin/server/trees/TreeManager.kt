@@ -6,19 +6,30 @@ import com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_t
 import com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_file.ProfilerToFlamegraphConverter
 import com.github.kornilova_l.flamegraph.plugin.server.trees.hot_spots.HotSpot
 import com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.SerTreesSet
-import com.github.kornilova_l.flamegraph.proto.TreeProtos
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
 import com.github.kornilova_l.flamegraph.proto.TreesPreviewProtos.TreesPreview
 import com.github.kornilova_l.flamegraph.proto.TreesProtos
 import com.intellij.openapi.diagnostic.Logger
 import java.io.File
 
+/**
+ * Keeps trees of several recently opened files, so switching between files does not reload them.
+ * Trees sets are kept in [TreesSetsCache], limit of its size is set by
+ * system property "flamegraph.trees.cache.size.mb".
+ * All sets are removed if there were no requests for [MAX_IDLE_TIME] milliseconds.
+ * Requests are not serialized
+ */
 object TreeManager {
-    private var currentFile: File? = null
+    private val LOG = Logger.getInstance(PluginFileManager::class.java)
+    private const val CACHE_SIZE_PROPERTY = "flamegraph.trees.cache.size.mb"
+    private const val MAX_IDLE_TIME = 5 * 60 * 1000
+    private val treesSets = TreesSetsCache(getCacheSizeLimit()) { createTreesSet(it) }
     @Volatile
-    private var currentTreesSet: TreesSet? = null
-    private var lastUpdate: Long = 0
+    private var lastUpdate: Long = System.currentTimeMillis()
 
     init {
+        CallTracesCache.removeUnusedFiles()
         val thisTreeManager = this
         val watchLastUpdate = Thread {
             while (true) {
@@ -28,105 +39,109 @@ object TreeManager {
                     e.printStackTrace()
                 }
 
-                if (thisTreeManager.longTimePassedSinceUpdate()) {
-                    thisTreeManager.removeTreesSet()
-                }
+                thisTreeManager.removeTreesSetsIfIdle()
             }
         }
         watchLastUpdate.isDaemon = true
         watchLastUpdate.start()
     }
 
-    private fun removeTreesSet() {
-        currentTreesSet = null
-        currentFile = null
-        lastUpdate = System.currentTimeMillis()
+    private fun removeTreesSetsIfIdle() {
+        if (System.currentTimeMillis() - lastUpdate >= MAX_IDLE_TIME) {
+            treesSets.clear()
+        }
     }
 
-    @Synchronized
-    private fun longTimePassedSinceUpdate(): Boolean {
-        return System.currentTimeMillis() - lastUpdate >= 30000
+    /**
+     * @return limit in bytes. By default a quarter of max heap size but not more than 1 GB
+     */
+    private fun getCacheSizeLimit(): Long {
+        val defaultLimit = Math.min(Runtime.getRuntime().maxMemory() / 4, 1024L * 1024 * 1024)
+        val property = System.getProperty(CACHE_SIZE_PROPERTY) ?: return defaultLimit
+        return try {
+            property.trim().toLong() * 1024 * 1024
+        } catch (e: NumberFormatException) {
+            LOG.warn("Wrong value of $CACHE_SIZE_PROPERTY: $property. Default value is used")
+            defaultLimit
+        }
     }
 
-    @Synchronized
     fun getCallTree(logFile: File?,
                     filter: Filter?,
                     threadsIds: List<Int>?): TreesProtos.Trees? {
-        logFile ?: return null
-        updateTreesSet(logFile)
-        val currentTreesSet = this.currentTreesSet ?: return null
-        return currentTreesSet.getCallTree(filter, threadsIds)
+        return useTreesSet(logFile) { it.getCallTree(filter, threadsIds) }
     }
 
-    private fun updateTreesSet(logFile: File) {
-        if (currentFile == null || logFile.absolutePath != currentFile!!.absolutePath) {
-            currentFile = logFile
-            if (ProfilerToFlamegraphConverter.getFileExtension(logFile.name) == "ser") {
-                currentTreesSet = SerTreesSet(logFile)
-                return
+    /**
+     * Call traces are taken from [CallTracesCache] if they were saved before
+     */
+    private fun createTreesSet(logFile: File): TreesSet? {
+        if (ProfilerToFlamegraphConverter.getFileExtension(logFile.name) == "ser") {
+            return SerTreesSet(logFile, CallTracesCache.load(logFile)) { callTraces ->
+                CallTracesCache.save(logFile, callTraces)
             }
-            val parentDirName = PluginFileManager.getParentDirName(logFile)
-            if (parentDirName == null) {
-                LOG.error("Cannot find parent directory of log file")
-                return
-            }
-            val callTraces = FileToCallTracesConverter.convert(parentDirName, logFile)
-            if (callTraces == null) {
-                LOG.error("Cannot convert file " + logFile)
-                return
-            }
-            currentTreesSet = TreesSetImpl(callTraces)
         }
+        val cachedCallTraces = CallTracesCache.load(logFile)
+        if (cachedCallTraces != null) {
+            return TreesSetImpl(cachedCallTraces)
+        }
+        val parentDirName = PluginFileManager.getParentDirName(logFile)
+        if (parentDirName == null) {
+            LOG.error("Cannot find parent directory of log file")
+            return null
+        }
+        val callTraces = FileToCallTracesConverter.convert(parentDirName, logFile)
+        if (callTraces == null) {
+            LOG.error("Cannot convert file " + logFile)
+            return null
+        }
+        val primitiveCallTraces = PrimitiveTree.fromProto(callTraces, FrameTable())
+        CallTracesCache.save(logFile, primitiveCallTraces)
+        return TreesSetImpl(primitiveCallTraces)
     }
 
-    @Synchronized
-    fun getTree(logFile: File?, treeType: TreeType, filter: Filter?): TreeProtos.Tree? {
+    private inline fun <T> useTreesSet(logFile: File?, action: (TreesSet) -> T?): T? {
         logFile ?: return null
-        updateTreesSet(logFile)
-        val currentTreesSet = this.currentTreesSet ?: return null
-        return currentTreesSet.getTree(treeType, filter)
+        val treesSet = treesSets.get(logFile) ?: return null
+        return action(treesSet)
+    }
+
+    fun getTree(logFile: File?, treeType: TreeType, filter: Filter?): PrimitiveTree? {
+        return useTreesSet(logFile) { it.getPrimitiveTree(treeType, filter) }
     }
 
-    @Synchronized
     fun getTree(logFile: File?,
                 treeType: TreeType,
                 className: String,
                 methodName: String,
                 desc: String,
-                filter: Filter?): TreeProtos.Tree? {
-        logFile ?: return null
-        updateTreesSet(logFile)
-        val currentTreesSet = this.currentTreesSet ?: return null
-        return currentTreesSet.getTree(treeType, className, methodName, desc, filter)
+                filter: Filter?): PrimitiveTree? {
+        return useTreesSet(logFile) { it.getPrimitiveTree(treeType, className, methodName, desc, filter) }
+    }
+
+    fun getCallTracesNodesCount(logFile: File?): Int? {
+        return useTreesSet(logFile) { it.getCallTracesNodesCount() }
+    }
 
+    fun getBackTracesVisiblePart(logFile: File?, path: List<Int>, filter: Filter?): PrimitiveTree? {
+        return useTreesSet(logFile) { it.getBackTracesVisiblePart(path, filter) }
     }
 
-    @Synchronized
     fun getHotSpots(logFile: File?): List<HotSpot>? {
-        logFile ?: return null
-        updateTreesSet(logFile)
-        val currentTreesSet = this.currentTreesSet ?: return null
-        return currentTreesSet.getHotSpots()
+        return useTreesSet(logFile) { it.getHotSpots() }
     }
 
-    @Synchronized
     fun updateLastTime() {
         lastUpdate = System.currentTimeMillis()
     }
 
-    @Synchronized
     fun getCallTreesPreview(logFile: File?, filter: Filter?): TreesPreview? {
-        logFile ?: return null
-        updateTreesSet(logFile)
-        val currentTreesSet = this.currentTreesSet ?: return null
-        return currentTreesSet.getTreesPreview(filter)
+        return useTreesSet(logFile) { it.getTreesPreview(filter) }
     }
 
     enum class TreeType {
         CALL_TRACES,
         BACK_TRACES
     }
-
-    private val LOG = Logger.getInstance(PluginFileManager::class.java)
 }
 
@@ -1,6 +1,5 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees
 
-import com.github.kornilova_l.flamegraph.plugin.pleaseReportIssue
 import com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.tree.maximumNodesCount
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType
 import com.github.kornilova_l.flamegraph.plugin.server.trees.hot_spots.HotSpot
@@ -9,79 +8,146 @@ import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.CallTracesMethodBuilder
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces.BackTracesBuilder
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces.BackTracesMethodBuilder
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces.LazyBackTraces
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.NO_NODE
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree.Node
 import com.github.kornilova_l.flamegraph.proto.TreesPreviewProtos.TreesPreview
 import com.github.kornilova_l.flamegraph.proto.TreesProtos
 import java.util.*
 
-abstract class TreesSet {
-    private var hotSpots: ArrayList<HotSpot>? = null
-    protected var callTree: TreesProtos.Trees? = null
-    protected var callTraces: Tree? = null
-    private var backTraces: Tree? = null
+/**
+ * Set may be used by several requests at the same time.
+ * Call tree, call traces, back traces and hot spots are built once on first request,
+ * other requests that need the same tree wait for it (each tree has its own lock).
+ * Built trees are not modified
+ *
+ * @param frames table of frames of this set. It is shared by all trees of set
+ */
+abstract class TreesSet(protected val frames: FrameTable) {
+    private val callTreeArtifact = Artifact { buildCallTree() }
+    private val callTracesArtifact = Artifact { buildCallTraces() }
+    private val backTracesArtifact = Artifact { buildBackTraces() }
+    private val lazyBackTracesArtifact = Artifact { callTraces?.let { LazyBackTraces(it) } }
+    private val hotSpotsArtifact = Artifact { buildHotSpots() }
+    /**
+     * Is called after tree of set is built, so [estimateRetainedBytes] may return bigger value
+     */
+    @Volatile
+    var sizeChangedListener: (() -> Unit)? = null
+
+    protected val callTree: TreesProtos.Trees?
+        get() = callTreeArtifact.value
+
+    protected val callTraces: PrimitiveTree?
+        get() = callTracesArtifact.value
+
+    /**
+     * @return call trees of threads or null if file does not have them
+     */
+    protected open fun buildCallTree(): TreesProtos.Trees? = null
+
+    protected abstract fun buildCallTraces(): PrimitiveTree?
 
     abstract fun getTreesPreview(filter: Filter?): TreesPreview?
 
-    abstract fun getTree(treeType: TreeType,
-                         filter: Filter?): Tree?
+    abstract fun getPrimitiveTree(treeType: TreeType,
+                                  filter: Filter?): PrimitiveTree?
 
+    /**
+     * Protobuf tree is created on each call
+     */
     fun getTree(treeType: TreeType,
-                className: String,
-                methodName: String,
-                desc: String,
-                filter: Filter?): Tree? {
-        getTree(TreeType.CALL_TRACES, null) // tree will be filtered later
-        val callTraces = callTraces ?: return null
-        val tree: Tree? = when (treeType) {
+                filter: Filter?): Tree? = getPrimitiveTree(treeType, filter)?.toProto()
+
+    fun getPrimitiveTree(treeType: TreeType,
+                         className: String,
+                         methodName: String,
+                         desc: String,
+                         filter: Filter?): PrimitiveTree? {
+        val callTraces = callTraces ?: return null // tree will be filtered later
+        val tree: PrimitiveTree = when (treeType) {
             TreeManager.TreeType.CALL_TRACES -> {
-                CallTracesMethodBuilder(callTraces, className, methodName, desc).tree
+                CallTracesMethodBuilder(callTraces, className, methodName, desc).primitiveTree
             }
             TreeManager.TreeType.BACK_TRACES -> {
-                BackTracesMethodBuilder(callTraces, className, methodName, desc).tree
+                BackTracesMethodBuilder(callTraces, className, methodName, desc).getPrimitiveTree()
             }
         }
         return if (filter == null) {
             tree
         } else {
-            filterTree(tree, filter, false)
+            filterTree(tree, filter)
         }
     }
 
+    fun getTree(treeType: TreeType,
+                className: String,
+                methodName: String,
+                desc: String,
+                filter: Filter?): Tree? = getPrimitiveTree(treeType, className, methodName, desc, filter)?.toProto()
+
     abstract fun getCallTree(filter: Filter?): TreesProtos.Trees?
 
+    /**
+     * Rough estimate of memory that is retained by trees and frames of this set.
+     * Size of protobuf call trees is estimated from their serialized size
+     */
+    fun estimateRetainedBytes(): Long {
+        var bytes = frames.retainedBytes
+        if (callTreeArtifact.isInitialized()) {
+            bytes += (callTreeArtifact.value?.serializedSize ?: 0).toLong() * PROTO_OBJECTS_OVERHEAD
+        }
+        if (callTracesArtifact.isInitialized()) {
+            bytes += callTracesArtifact.value?.retainedBytes ?: 0L
+        }
+        if (backTracesArtifact.isInitialized()) {
+            bytes += backTracesArtifact.value?.retainedBytes ?: 0L
+        }
+        if (lazyBackTracesArtifact.isInitialized()) {
+            bytes += lazyBackTracesArtifact.value?.retainedBytes ?: 0L
+        }
+        if (hotSpotsArtifact.isInitialized()) {
+            bytes += hotSpotsArtifact.value.size.toLong() * HOT_SPOT_BYTES
+        }
+        return bytes
+    }
+
     abstract fun getCallTree(filter: Filter?, threadsIds: List<Int>?): TreesProtos.Trees?
 
-    internal fun getHotSpots(): List<HotSpot> {
-        var hotSpots = hotSpots
-        if (hotSpots == null) {
-            val callTraces = getTree(TreeType.CALL_TRACES, null) ?: return ArrayList()
-            hotSpots = HotSpotsBuilder(callTraces).hotSpots
+    internal fun getHotSpots(): List<HotSpot> = hotSpotsArtifact.value
+
+    private fun buildHotSpots(): List<HotSpot> {
+        val callTraces = callTraces ?: return ArrayList()
+        return HotSpotsBuilder(callTraces).hotSpots
+    }
+
+    protected fun filterTree(tree: PrimitiveTree,
+                             filter: Filter): PrimitiveTree? {
+        val filteredTree = PrimitiveTree(tree.frames)
+        buildFilteredTreeRecursively(filteredTree, BASE_NODE, tree, BASE_NODE, filter)
+        if (!filteredTree.hasChildren(BASE_NODE)) {
+            return null
         }
-        this.hotSpots = hotSpots
-        return hotSpots
+        filteredTree.depth = filteredTree.getMaxDepth(BASE_NODE)
+        filteredTree.finish()
+        return filteredTree
     }
 
-    protected fun filterTree(tree: Tree?,
-                             filter: Filter,
-                             isCallTree: Boolean): Tree? {
+    protected fun filterCallTree(tree: Tree,
+                                 filter: Filter): Tree? {
         val filteredTree = Tree.newBuilder()
         filteredTree.setBaseNode(Node.newBuilder())
-        if (isCallTree) {
-            filteredTree.treeInfo = tree!!.treeInfo
-            buildFilteredCallTreeRecursively(filteredTree.baseNodeBuilder, tree.baseNode, filter)
-        } else {
-            buildFilteredTreeRecursively(filteredTree.baseNodeBuilder, tree!!.baseNode, filter)
-        }
+        filteredTree.treeInfo = tree.treeInfo
+        buildFilteredCallTreeRecursively(filteredTree.baseNodeBuilder, tree.baseNode, filter)
         if (filteredTree.baseNodeBuilder.nodesCount == 0) {
             return null
         }
         val maxDepth = getMaxDepthRecursively(filteredTree.baseNodeBuilder, 0)
-        if (!isCallTree) {
-            TreesUtil.setNodesOffsetRecursively(filteredTree.baseNodeBuilder, 0)
-        } else {
-            updateOffset(filteredTree)
-        }
+        updateOffset(filteredTree)
         TreesUtil.setTreeWidth(filteredTree)
         TreesUtil.setNodesCount(filteredTree)
         filteredTree.depth = maxDepth
@@ -114,24 +180,25 @@ abstract class TreesSet {
     }
 
     /**
-     * @param nodeBuilder to this node children will be added
-     * @param node        children of this node will be added to nodeBuilder
-     * @param filter      decides if child will be added
+     * @param parent to this node children will be added
+     * @param node   children of this node will be added to parent
+     * @param filter decides if child will be added
      */
-    private fun buildFilteredTreeRecursively(nodeBuilder: Node.Builder,
-                                             node: Node,
+    private fun buildFilteredTreeRecursively(filteredTree: PrimitiveTree,
+                                             parent: Int,
+                                             tree: PrimitiveTree,
+                                             node: Int,
                                              filter: Filter) {
-
-        for (child in node.nodesList) {
-            if (filter.isNodeIncluded(child)) {
-                val newNode = TreesUtil.updateNodeList(nodeBuilder, child.nodeInfo, child.width)
-                buildFilteredTreeRecursively(
-                        newNode,
-                        child,
-                        filter)
+        var child = tree.getFirstChild(node)
+        while (child != NO_NODE) {
+            val frameId = tree.getFrameId(child)
+            if (filter.isFrameIncluded(tree.frames, frameId)) {
+                val newNode = filteredTree.updateChild(parent, frameId, tree.getWidth(child))
+                buildFilteredTreeRecursively(filteredTree, newNode, tree, child, filter)
             } else {
-                buildFilteredTreeRecursively(nodeBuilder, child, filter)
+                buildFilteredTreeRecursively(filteredTree, parent, tree, child, filter)
             }
+            child = tree.getNextSibling(child)
         }
     }
 
@@ -167,30 +234,68 @@ abstract class TreesSet {
         return nodeBuilder
     }
 
-    protected fun getCallTracesMaybeFiltered(filter: Filter?): Tree? {
+    protected fun getCallTracesMaybeFiltered(filter: Filter?): PrimitiveTree? {
+        val callTraces = callTraces ?: return null
         return if (filter == null) {
             callTraces
         } else {
-            filterTree(callTraces, filter, false)
+            filterTree(callTraces, filter)
         }
     }
 
-    protected fun getBackTracesMaybeFiltered(filter: Filter?): Tree? {
-        val callTraces = callTraces ?: return null
-        if (callTraces.treeInfo.nodesCount > maximumNodesCount) {
-            throw IllegalArgumentException("$pleaseReportIssue: Calltraces must contain less than $maximumNodesCount nodes")
-        }
-        if (backTraces == null) {
-            backTraces = BackTracesBuilder(callTraces).tree
-        }
+    /**
+     * @return count of nodes of call traces (without filter) or null if there are no call traces
+     */
+    fun getCallTracesNodesCount(): Int? = callTraces?.nodesCount
+
+    /**
+     * Whole back traces tree is not built, only nodes that are visible when node at [path] is zoomed
+     * (see [LazyBackTraces.getVisiblePart]).
+     * Built part is not stored, so memory is not retained by big back traces
+     */
+    fun getBackTracesVisiblePart(path: List<Int>, filter: Filter?): PrimitiveTree? {
+        val lazyBackTraces = lazyBackTracesArtifact.value ?: return null
+        return lazyBackTraces.getVisiblePart(path, filter, maximumNodesCount)
+    }
+
+    protected fun getBackTracesMaybeFiltered(filter: Filter?): PrimitiveTree? {
+        val backTraces = backTracesArtifact.value ?: return null
         return if (filter == null) {
             backTraces
         } else {
-            filterTree(backTraces, filter, false)
+            filterTree(backTraces, filter)
         }
     }
 
+    private fun buildBackTraces(): PrimitiveTree? {
+        val callTraces = callTraces ?: return null
+        return BackTracesBuilder(callTraces).primitiveTree
+    }
+
+    /**
+     * Tree that is built once on first access.
+     * [sizeChangedListener] is notified after tree is built
+     */
+    private inner class Artifact<out T>(initializer: () -> T) {
+        private val lazyValue = lazy(initializer)
+
+        val value: T
+            get() {
+                if (lazyValue.isInitialized()) {
+                    return lazyValue.value
+                }
+                val value = lazyValue.value
+                sizeChangedListener?.invoke()
+                return value
+            }
+
+        fun isInitialized() = lazyValue.isInitialized()
+    }
+
     companion object {
+        /* objects of protobuf message are several times bigger than its serialized form */
+        private const val PROTO_OBJECTS_OVERHEAD = 4
+        private const val HOT_SPOT_BYTES = 200
 
         fun getMaxDepthRecursively(nodeBuilder: Node.Builder, currentDepth: Int): Int {
             var maxDepth = currentDepth
@@ -0,0 +1,127 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees
+
+import java.io.File
+import java.util.*
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Trees sets of recently opened files.
+ * Sets are evicted in least-recently-used order when their estimated size exceeds [sizeLimit].
+ * Total size is updated when set is loaded and when one of its trees is built,
+ * so sizes of other sets are not estimated again.
+ * Most recently used set is never evicted by size.
+ *
+ * Lock of cache is held only while map is accessed.
+ * File is loaded by the first request that needs it, concurrent requests of the same file
+ * wait for this load instead of parsing file again
+ *
+ * @param sizeLimit limit of total estimated size of sets in bytes
+ * @param loader    creates set of file, returns null if file cannot be loaded
+ */
+class TreesSetsCache(private val sizeLimit: Long,
+                     private val loader: (File) -> TreesSet?) {
+    /* key is absolute path of file, iteration order is from least recently used. Guarded by itself */
+    private val treesSets = LinkedHashMap<String, CachedTreesSet>(16, 0.75f, true)
+    /* sum of estimated sizes of sets in map. Guarded by treesSets */
+    private var totalSize = 0L
+
+    /**
+     * Set is loaded again if file was modified after set was created.
+     * Only one thread loads file, other threads wait for result
+     */
+    fun get(logFile: File): TreesSet? {
+        val path = logFile.absolutePath
+        val lastModified = logFile.lastModified()
+        var isLoader = false
+        val cachedTreesSet = synchronized(treesSets) {
+            var cached = treesSets[path]
+            if (cached == null || cached.lastModified != lastModified) {
+                if (cached != null) {
+                    totalSize -= cached.size
+                    cached.isRemoved = true
+                }
+                cached = CachedTreesSet(lastModified)
+                treesSets[path] = cached
+                isLoader = true
+            }
+            cached
+        }
+        if (isLoader) {
+            var treesSet: TreesSet? = null
+            try {
+                treesSet = loader(logFile)
+                treesSet?.sizeChangedListener = { cachedTreesSet.updateSize() }
+            } finally {
+                if (treesSet == null) { // next request will try to load file again
+                    synchronized(treesSets) {
+                        if (treesSets.remove(path, cachedTreesSet)) {
+                            cachedTreesSet.isRemoved = true
+                        }
+                    }
+                }
+                cachedTreesSet.treesSet.complete(treesSet)
+            }
+            cachedTreesSet.updateSize()
+        }
+        return cachedTreesSet.treesSet.join()
+    }
+
+    fun clear() {
+        synchronized(treesSets) {
+            treesSets.values.forEach { it.isRemoved = true }
+            treesSets.clear()
+            totalSize = 0
+        }
+    }
+
+    /**
+     * @return sum of estimated sizes of sets that are in cache
+     */
+    internal fun getTotalSize(): Long = synchronized(treesSets) { totalSize }
+
+    /**
+     * @return absolute paths of cached files from least recently used.
+     * Order of sets is not changed
+     */
+    internal fun getPaths(): List<String> = synchronized(treesSets) { ArrayList(treesSets.keys) }
+
+    /**
+     * Must be called with lock of [treesSets]
+     */
+    private fun evictLeastRecentlyUsed() {
+        val iterator = treesSets.values.iterator()
+        while (totalSize > sizeLimit && treesSets.size > 1) {
+            val evicted = iterator.next()
+            totalSize -= evicted.size
+            evicted.isRemoved = true
+            iterator.remove()
+        }
+    }
+
+    private inner class CachedTreesSet(val lastModified: Long) {
+        /* it is completed with null if file cannot be loaded */
+        val treesSet = CompletableFuture<TreesSet?>()
+        /* size that is counted in totalSize. Guarded by treesSets */
+        var size = 0L
+            private set
+        /* set is not in cache anymore, so its size is not counted. Guarded by treesSets */
+        var isRemoved = false
+
+        /**
+         * Estimates size of loaded set again and evicts sets if total size exceeds limit.
+         * Set that was already removed from cache is not counted
+         */
+        fun updateSize() {
+            val loadedSet = treesSet.getNow(null) ?: return
+            synchronized(treesSets) {
+                if (isRemoved) {
+                    return
+                }
+                val newSize = loadedSet.estimateRetainedBytes()
+                totalSize += newSize - size
+                size = newSize
+                evictLeastRecentlyUsed()
+            }
+        }
+    }
+}
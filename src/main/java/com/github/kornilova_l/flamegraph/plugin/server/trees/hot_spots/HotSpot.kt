@@ -1,15 +1,25 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.hot_spots
 
 
-class HotSpot internal constructor(tempHotSpot: TempHotSpot) {
-    private val className: String
-    private val methodName: String
+/**
+ * Fields are declared in the order in which they are written to json
+ *
+ * @param relativeTime      self time of method divided by width of call traces
+ * @param totalRelativeTime time of all stacks that contain method divided by width of call traces
+ */
+class HotSpot internal constructor(className: String,
+                                   methodName: String,
+                                   desc: String,
+                                   relativeTime: Float,
+                                   totalRelativeTime: Float) {
+    private val className: String = className
+    private val methodName: String = methodName
     private val parameters: Array<String>
     private val retVal: String
-    internal val relativeTime: Float
+    internal val relativeTime: Float = relativeTime
+    private val totalRelativeTime: Float = totalRelativeTime
 
     init {
-        val desc = tempHotSpot.desc
         val openBracketPos = desc.indexOf('(')
         val closeBracketPos = desc.indexOf(')')
         if (closeBracketPos != -1 && openBracketPos != -1 && openBracketPos < closeBracketPos) {
@@ -20,8 +30,5 @@ class HotSpot internal constructor(tempHotSpot: TempHotSpot) {
             parameters = arrayOf()
             retVal = ""
         }
-        className = tempHotSpot.className
-        methodName = tempHotSpot.methodName
-        relativeTime = tempHotSpot.relativeTime
     }
-}
\ No newline at end of file
+}
@@ -1,69 +1,249 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.hot_spots
 
-import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
-import java.util.*
-import kotlin.Comparator
-import kotlin.collections.ArrayList
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.NO_NODE
+import java.util.stream.Collectors
 
 
-class HotSpotsBuilder(callTraces: Tree) {
-    val hotSpots = ArrayList<HotSpot>()
+/**
+ * Self time and total time of each frame are summed up in one pass over call traces.
+ * Total time of frame includes time of all stacks that contain the frame,
+ * if frame occurs in stack several times (recursion) then time of stack is counted once.
+ *
+ * Big tree is split to subtrees that are traversed in parallel in common ForkJoinPool,
+ * times of subtrees are summed up after that.
+ * Hot spots are sorted by self time, then by total time and by name
+ */
+class HotSpotsBuilder(private val callTraces: PrimitiveTree) {
+    val hotSpots: List<HotSpot>
+    /* frames of call traces are numbered from 0, so times are stored in small arrays */
+    private val localFrameIds: IntArray
+    private val frameIds: IntArray
 
     init {
-        val hotSpotTreeMap = HashMap<TempHotSpot, TempHotSpot>()
-        for (node in callTraces.baseNode.nodesList) { // avoid baseNode
-            getHotSpotsRecursively(node, hotSpotTreeMap, callTraces)
+        var maxFrameId = 0
+        for (node in 1..callTraces.nodesCount) {
+            maxFrameId = Math.max(maxFrameId, callTraces.getFrameId(node))
         }
-        for (tempHotSpot in hotSpotTreeMap.values) {
-            hotSpots.add(HotSpot(tempHotSpot))
+        localFrameIds = IntArray(maxFrameId + 1) { -1 }
+        var framesCount = 0
+        for (node in 1..callTraces.nodesCount) {
+            val frameId = callTraces.getFrameId(node)
+            if (localFrameIds[frameId] == -1) {
+                localFrameIds[frameId] = framesCount++
+            }
         }
-        hotSpots.sortWith(Comparator { hotSpot1, hotSpot2 -> java.lang.Float.compare(hotSpot2.relativeTime, hotSpot1.relativeTime) })
+        frameIds = IntArray(framesCount)
+        for (frameId in 0 until localFrameIds.size) {
+            if (localFrameIds[frameId] != -1) {
+                frameIds[localFrameIds[frameId]] = frameId
+            }
+        }
+        val times = accumulateTimes(framesCount)
+        hotSpots = createHotSpots(times)
     }
 
-    private fun getHotSpotsRecursively(node: Tree.Node, hotSpotTreeMap: HashMap<TempHotSpot, TempHotSpot>, callTraces: Tree) {
-        var hotSpot = TempHotSpot(
-                node.nodeInfo.className,
-                node.nodeInfo.methodName,
-                node.nodeInfo.description
-        )
-        hotSpot = hotSpotTreeMap.putIfAbsent(hotSpot, hotSpot) ?: hotSpot
-        hotSpot.addTime(getSelfTime(node).toFloat() / callTraces.width)
-        for (i in 0 until node.nodesList.size) {
-            val child = node.nodesList[i]
-            getHotSpotsRecursively(child, hotSpotTreeMap, callTraces)
+    private fun accumulateTimes(framesCount: Int): FramesTimes {
+        val times = FramesTimes(framesCount)
+        if (callTraces.nodesCount < MIN_NODES_COUNT_TO_SPLIT) {
+            times.addSubtree(BASE_NODE)
+            return times
+        }
+        val subtrees = splitTree(times)
+        val groups = ArrayList<MutableList<Int>>()
+        val groupsCount = Math.min(subtrees.size, Runtime.getRuntime().availableProcessors())
+        for (i in 0 until groupsCount) {
+            groups.add(ArrayList())
         }
+        for ((i, subtree) in subtrees.withIndex()) {
+            groups[i % groupsCount].add(subtree)
+        }
+        val subtreesTimes = groups.parallelStream()
+                .map { group ->
+                    val groupTimes = FramesTimes(framesCount)
+                    for (subtree in group) {
+                        groupTimes.addSubtree(subtree)
+                    }
+                    groupTimes
+                }
+                .collect(Collectors.toList())
+        for (subtreeTimes in subtreesTimes) {
+            times.add(subtreeTimes)
+        }
+        return times
     }
 
-    private fun getSelfTime(node: Tree.Node): Long {
-        var childTime: Long = 0
-        for (i in 0 until node.nodesList.size) {
-            val child = node.nodesList[i]
-            childTime += child.width
+    /**
+     * Layers of tree are split until there are enough subtrees for all threads.
+     * Time of nodes above subtrees is added to times
+     *
+     * @return roots of subtrees
+     */
+    private fun splitTree(times: FramesTimes): List<Int> {
+        val subtreesCount = Runtime.getRuntime().availableProcessors() * SUBTREES_PER_THREAD
+        var layer = ArrayList<Int>()
+        layer.add(BASE_NODE)
+        while (layer.size < subtreesCount) {
+            val nextLayer = ArrayList<Int>()
+            for (node in layer) {
+                if (node != BASE_NODE) {
+                    times.addNode(node, isFirstInStack(node))
+                }
+                var child = callTraces.getFirstChild(node)
+                while (child != NO_NODE) {
+                    nextLayer.add(child)
+                    child = callTraces.getNextSibling(child)
+                }
+            }
+            if (nextLayer.isEmpty()) {
+                return nextLayer
+            }
+            layer = nextLayer
         }
-        return node.width - childTime
+        return layer
     }
-}
 
-/**
- * [HotSpot] class splits description to list of parameters.
- * We do not want to do it when we compute hotspots
- */
-internal class TempHotSpot(val className: String, val methodName: String, val desc: String, var relativeTime: Float = 0f) {
-
-    fun addTime(time: Float) {
-        relativeTime += time
+    /**
+     * @return true if none of ancestors of node has the same frame
+     */
+    private fun isFirstInStack(node: Int): Boolean {
+        val frameId = callTraces.getFrameId(node)
+        var ancestor = callTraces.getParent(node)
+        while (ancestor != BASE_NODE) {
+            if (callTraces.getFrameId(ancestor) == frameId) {
+                return false
+            }
+            ancestor = callTraces.getParent(ancestor)
+        }
+        return true
     }
 
-    override fun hashCode(): Int {
-        return Objects.hash(className, methodName, desc)
+    private fun createHotSpots(times: FramesTimes): List<HotSpot> {
+        val frames = callTraces.frames
+        val width = callTraces.width.toDouble()
+        val hotSpots = ArrayList<HotSpot>(frameIds.size)
+        val order = (0 until frameIds.size).sortedWith(Comparator { frame1, frame2 ->
+            when {
+                times.selfTimes[frame1] != times.selfTimes[frame2] ->
+                    java.lang.Long.compare(times.selfTimes[frame2], times.selfTimes[frame1])
+                times.totalTimes[frame1] != times.totalTimes[frame2] ->
+                    java.lang.Long.compare(times.totalTimes[frame2], times.totalTimes[frame1])
+                else -> frames.getComparableName(frameIds[frame1]).compareTo(frames.getComparableName(frameIds[frame2]))
+            }
+        })
+        for (localFrameId in order) {
+            val frameId = frameIds[localFrameId]
+            hotSpots.add(HotSpot(
+                    frames.getClassName(frameId),
+                    frames.getMethodName(frameId),
+                    frames.getDescription(frameId),
+                    (times.selfTimes[localFrameId] / width).toFloat(),
+                    (times.totalTimes[localFrameId] / width).toFloat()
+            ))
+        }
+        return hotSpots
     }
 
-    override fun equals(other: Any?): Boolean {
-        if (other !is TempHotSpot) {
-            return false
+    private inner class FramesTimes(framesCount: Int) {
+        val selfTimes = LongArray(framesCount)
+        val totalTimes = LongArray(framesCount)
+        /* how many times frame occurs in current stack */
+        private val framesInStack = IntArray(framesCount)
+
+        fun add(other: FramesTimes) {
+            for (i in 0 until selfTimes.size) {
+                selfTimes[i] += other.selfTimes[i]
+                totalTimes[i] += other.totalTimes[i]
+            }
+        }
+
+        /**
+         * Self time is width of node without widths of children
+         */
+        fun addNode(node: Int, isFirstInStack: Boolean) {
+            val localFrameId = localFrameIds[callTraces.getFrameId(node)]
+            val width = callTraces.getWidth(node)
+            var selfTime = width
+            var child = callTraces.getFirstChild(node)
+            while (child != NO_NODE) {
+                selfTime -= callTraces.getWidth(child)
+                child = callTraces.getNextSibling(child)
+            }
+            selfTimes[localFrameId] += selfTime
+            if (isFirstInStack) {
+                totalTimes[localFrameId] += width
+            }
+        }
+
+        /**
+         * Adds time of root and all its descendants (time of base node is not added).
+         * Frames of ancestors of root are put to stack before traversal.
+         * Width of node is added to self time of its frame and it is subtracted
+         * from self time of parent's frame when child is visited, so children are visited once
+         */
+        fun addSubtree(root: Int) {
+            changeAncestorsInStack(root, 1)
+            var node = root
+            enter(node, root)
+            while (true) {
+                val child = callTraces.getFirstChild(node)
+                if (child != NO_NODE) {
+                    node = child
+                    enter(node, root)
+                    continue
+                }
+                while (node != root && callTraces.getNextSibling(node) == NO_NODE) {
+                    exit(node)
+                    node = callTraces.getParent(node)
+                }
+                exit(node)
+                if (node == root) {
+                    break
+                }
+                node = callTraces.getNextSibling(node)
+                enter(node, root)
+            }
+            changeAncestorsInStack(root, -1)
+        }
+
+        private fun changeAncestorsInStack(root: Int, change: Int) {
+            if (root == BASE_NODE) {
+                return
+            }
+            var ancestor = callTraces.getParent(root)
+            while (ancestor != BASE_NODE) {
+                framesInStack[localFrameIds[callTraces.getFrameId(ancestor)]] += change
+                ancestor = callTraces.getParent(ancestor)
+            }
+        }
+
+        private fun enter(node: Int, root: Int) {
+            if (node == BASE_NODE) {
+                return
+            }
+            val localFrameId = localFrameIds[callTraces.getFrameId(node)]
+            val width = callTraces.getWidth(node)
+            selfTimes[localFrameId] += width
+            val parent = callTraces.getParent(node)
+            if (node != root && parent != BASE_NODE) {
+                selfTimes[localFrameIds[callTraces.getFrameId(parent)]] -= width
+            }
+            if (framesInStack[localFrameId] == 0) {
+                totalTimes[localFrameId] += width
+            }
+            framesInStack[localFrameId]++
+        }
+
+        private fun exit(node: Int) {
+            if (node != BASE_NODE) {
+                framesInStack[localFrameIds[callTraces.getFrameId(node)]]--
+            }
         }
-        return className == other.className &&
-                methodName == other.methodName &&
-                desc == other.desc
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val MIN_NODES_COUNT_TO_SPLIT = 100_000
+        private const val SUBTREES_PER_THREAD = 8
+    }
+}
@@ -7,31 +7,42 @@ import com.github.kornilova_l.flamegraph.plugin.server.trees.TreesSet
 import com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree.CallTreesBuilder
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreePreviewBuilder
 import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.call_traces.OutgoingCallsBuilder
-import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
 import com.github.kornilova_l.flamegraph.proto.TreesPreviewProtos.TreesPreview
 import com.github.kornilova_l.flamegraph.proto.TreesProtos.Trees
 
 import java.io.File
 
-class SerTreesSet(logFile: File) : TreesSet() {
+/**
+ * @param cachedCallTraces call traces that were saved after previous load of the file.
+ *                         If they are passed then log is read only if call tree is requested
+ * @param callTracesBuilt  receives call traces when they are built from log
+ */
+class SerTreesSet @JvmOverloads constructor(private val logFile: File,
+                                            private val cachedCallTraces: PrimitiveTree? = null,
+                                            private val callTracesBuilt: ((PrimitiveTree) -> Unit)? = null) :
+        TreesSet(cachedCallTraces?.frames ?: FrameTable()) {
 
-    init {
-        callTree = CallTreesBuilder(logFile).trees
-    }
+    override fun buildCallTree(): Trees? = CallTreesBuilder(logFile).trees
 
     override fun getTreesPreview(filter: Filter?): TreesPreview? {
         val callTree = getCallTree(filter) ?: return null
         return TreePreviewBuilder(callTree).treesPreview
     }
 
-    override fun getTree(treeType: TreeType,
-                         filter: Filter?): Tree? {
-        if (callTree == null) {
-            return null
-        }
-        if (callTraces == null) {
-            callTraces = OutgoingCallsBuilder(callTree!!).tree
+    override fun buildCallTraces(): PrimitiveTree? {
+        if (cachedCallTraces != null) {
+            return cachedCallTraces
         }
+        val callTree = callTree ?: return null
+        val callTraces = OutgoingCallsBuilder(callTree, frames).primitiveTree ?: return null
+        callTracesBuilt?.invoke(callTraces)
+        return callTraces
+    }
+
+    override fun getPrimitiveTree(treeType: TreeType,
+                                  filter: Filter?): PrimitiveTree? {
         return when (treeType) {
             TreeManager.TreeType.BACK_TRACES -> getBackTracesMaybeFiltered(filter)
             TreeManager.TreeType.CALL_TRACES -> getCallTracesMaybeFiltered(filter)
@@ -39,15 +50,13 @@ class SerTreesSet(logFile: File) : TreesSet() {
     }
 
     override fun getCallTree(filter: Filter?): Trees? {
-        if (callTree == null) {
-            return null
-        }
+        val callTree = callTree ?: return null
         if (filter == null) {
             return callTree
         }
         val filteredTrees = Trees.newBuilder()
-        for (tree in callTree!!.treesList) {
-            val filteredTree = filterTree(tree, filter, true)
+        for (tree in callTree.treesList) {
+            val filteredTree = filterCallTree(tree, filter)
             if (filteredTree != null) {
                 filteredTrees.addTrees(filteredTree)
             }
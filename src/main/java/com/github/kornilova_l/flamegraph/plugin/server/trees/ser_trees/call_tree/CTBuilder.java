@@ -8,92 +8,101 @@ import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree.Node;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
-import static com.github.kornilova_l.flamegraph.plugin.server.trees.DescriptionConverter.getBeautifulDesc;
-
 class CTBuilder {
     private final String threadName;
     private long threadStartTime;
     // lowest nodes which does not have common parent.
     // (if they had then this parent will be the only child)
-    private List<Node.Builder> children = new LinkedList<>();
+    // it is a stack ordered by start time
+    private final ArrayList<Node.Builder> children = new ArrayList<>();
 
     CTBuilder(long threadStartTime, String threadName) {
         this.threadStartTime = threadStartTime;
         this.threadName = threadName;
     }
 
-    long getThreadStartTime() {
-        return threadStartTime;
-    }
-
-    void addEvent(EventProtos.Event.MethodEvent methodEvent, String className) {
-        if (methodEvent.getStartTime() < threadStartTime) {
-            threadStartTime = methodEvent.getStartTime();
+    /**
+     * Return value and throwable are both null if method event does not have them
+     */
+    void addEvent(@NotNull MethodInfo method,
+                  long startTime,
+                  long duration,
+                  int samplingWeight,
+                  @NotNull List<EventProtos.Parameter> parameters,
+                  @Nullable EventProtos.Var returnValue,
+                  @Nullable EventProtos.Var.Object throwable) {
+        if (startTime < threadStartTime) {
+            threadStartTime = startTime;
         }
-        Node.Builder node = formNewNode(methodEvent, className);
-        List<Node.Builder> childrenOfNode = getChildren(node);
-        if (childrenOfNode.size() != 0) {
+        Node.Builder node = formNewNode(method, startTime, duration, samplingWeight, parameters, returnValue, throwable);
+        int firstChild = getFirstChild(node);
+        if (firstChild != children.size()) {
+            List<Node.Builder> childrenOfNode = children.subList(firstChild, children.size());
             for (Node.Builder child : childrenOfNode) {
-                children.remove(child);
                 node.addNodes(child);
             }
+            childrenOfNode.clear();
         }
         children.add(node);
     }
 
-    private List<Node.Builder> getChildren(Node.Builder node) {
-        LinkedList<Node.Builder> childrenOfNode = new LinkedList<>();
-        int size = children.size();
-        for (int i = size - 1; i >= 0; i--) {
-            Node.Builder child = children.get(i);
-            if (node.getOffset() > child.getOffset()) {
-                break;
-            }
-            childrenOfNode.addFirst(child);
+    /**
+     * Method event is written when method finishes, so children of node
+     * are on the top of stack and each node is popped from it only once.
+     *
+     * @return index of first child of node in stack
+     */
+    private int getFirstChild(Node.Builder node) {
+        int i = children.size();
+        while (i > 0 && children.get(i - 1).getOffset() >= node.getOffset()) {
+            i--;
         }
-        return childrenOfNode;
+        return i;
     }
 
-    private Node.Builder formNewNode(EventProtos.Event.MethodEvent methodEvent,
-                                     String className) {
+    private Node.Builder formNewNode(MethodInfo method,
+                                     long startTime,
+                                     long duration,
+                                     int samplingWeight,
+                                     List<EventProtos.Parameter> parameters,
+                                     EventProtos.Var returnValue,
+                                     EventProtos.Var.Object throwable) {
         Node.Builder nodeBuilder = Node.newBuilder()
-                .setWidth(methodEvent.getDuration())
-                .setOffset(methodEvent.getStartTime())
-                .setNodeInfo(
-                        Node.NodeInfo.newBuilder()
-                                .setMethodName(methodEvent.getMethodName())
-                                .setClassName(className)
-                                .setDescription(
-                                        getBeautifulDesc(methodEvent.getDesc())
-                                )
-                                .addAllParameters(methodEvent.getParametersList())
-                );
-        switch (methodEvent.getEndCase()) {
-            case THROWABLE:
-                nodeBuilder.getNodeInfoBuilder()
-                        .setException(methodEvent.getThrowable());
-                break;
-            case RETURN_VALUE:
-                nodeBuilder.getNodeInfoBuilder()
-                        .setReturnValue(methodEvent.getReturnValue());
-                break;
+                .setWidth(duration)
+                .setOffset(startTime)
+                .setSamplingWeight(samplingWeight);
+        if (parameters.isEmpty() && throwable == null && returnValue == null) {
+            /* NodeInfo of frame is shared by all calls of method */
+            return nodeBuilder.setNodeInfo(method.nodeInfo);
+        }
+        Node.NodeInfo.Builder nodeInfoBuilder = nodeBuilder.getNodeInfoBuilder()
+                .setMethodName(method.methodName)
+                .setClassName(method.className)
+                .setDescription(method.description);
+        if (!parameters.isEmpty()) {
+            nodeInfoBuilder.addAllParameters(parameters);
+        }
+        if (throwable != null) {
+            nodeInfoBuilder.setException(throwable);
+        } else if (returnValue != null) {
+            nodeInfoBuilder.setReturnValue(returnValue);
         }
         return nodeBuilder;
-
     }
 
     /**
      * @return built Tree of null if tree is empty
      */
     @Nullable
-    Tree getBuiltTree(long startTimeOfFirstThread) {
+    Tree getBuiltTree(long startTimeOfFirstThread, @NotNull EventProtos.TimeUnit timeUnit) {
         if (children.size() == 0) {
             return null;
         }
         Tree.Builder treeBuilder = initTreeBuilder(startTimeOfFirstThread);
+        treeBuilder.getTreeInfoBuilder().setTimeUnit(timeUnit);
         Node.Builder baseNode = Node.newBuilder();
         for (Node.Builder child : children) {
             baseNode.addNodes(child);
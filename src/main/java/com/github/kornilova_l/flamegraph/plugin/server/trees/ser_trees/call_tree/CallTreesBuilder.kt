@@ -1,77 +1,47 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree
 
-import com.github.kornilova_l.flamegraph.plugin.pleaseReportIssue
 import com.github.kornilova_l.flamegraph.proto.EventProtos
 import com.github.kornilova_l.flamegraph.proto.TreesProtos
 import java.io.File
-import java.io.FileInputStream
 import java.io.IOException
-import java.io.InputStream
 import java.util.*
+import java.util.stream.Collectors
 
+/**
+ * Trees are built in two phases.
+ * First phase is a sequential scan of log that partitions method events by thread.
+ * In second phase tree of each thread is built in ForkJoinPool
+ */
 class CallTreesBuilder(logFile: File) {
-    private val treesMap = HashMap<Long, CTBuilder>()
-    private val classNames = HashMap<Long, String>()
+    private val threadsEvents = HashMap<Long, ThreadEvents>()
     private val threadsNames = HashMap<Long, String>()
+    /* times in file are in milliseconds if file does not have header */
+    private var timeUnit = EventProtos.TimeUnit.MILLISECONDS
     var trees: TreesProtos.Trees? = null
         private set
 
     init {
         try {
-            FileInputStream(logFile).use { inputStream ->
-                processEvents(inputStream)
-                val startTimeOfFirstThread = getStartTimeOfFirstThread(treesMap)
-                trees = hashMapToTrees(treesMap, startTimeOfFirstThread)
-            }
+            EventsDecoder.decode(logFile, TreesBuildingListener())
+            val startTimeOfFirstThread = getStartTimeOfFirstThread(threadsEvents)
+            trees = buildTrees(threadsEvents, startTimeOfFirstThread, timeUnit)
         } catch (e: IOException) {
             LOG.error(e)
         }
 
     }
 
-    @Throws(IOException::class)
-    private fun processEvents(inputStream: InputStream) {
-        var event: EventProtos.Event? = EventProtos.Event.parseDelimitedFrom(inputStream)
-        while (event != null) {
-            when (event.typeCase) {
-                EventProtos.Event.TypeCase.METHODEVENT -> addMethodEvent(event)
-                EventProtos.Event.TypeCase.NEWCLASS -> registerClass(event)
-                EventProtos.Event.TypeCase.NEWTHREAD -> threadsNames[event.newThread.id] = event.newThread.name
-                EventProtos.Event.TypeCase.TYPE_NOT_SET -> throw RuntimeException("$pleaseReportIssue: Event without type")
-                else -> throw RuntimeException("$pleaseReportIssue: Event without type")
-            }
-            event = EventProtos.Event.parseDelimitedFrom(inputStream)
-        }
-    }
-
-    private fun registerClass(event: EventProtos.Event) {
-        val className = event.newClass.name
-        classNames[event.newClass.id] = className.replace('/', '.')
-    }
-
-    private fun addMethodEvent(event: EventProtos.Event) {
-        val methodEvent = event.methodEvent
-        val ctBuilder = getCTBuilder(methodEvent)
-        val className = classNames[methodEvent.classNameId]
-                ?: throw RuntimeException("$pleaseReportIssue (also please upload this ser file): Class name is not known. id = ${methodEvent.classNameId}")
-        ctBuilder.addEvent(methodEvent, className)
-    }
-
-    private fun getCTBuilder(methodEvent: EventProtos.Event.MethodEvent): CTBuilder {
-        val threadName = threadsNames[methodEvent.threadId]
+    private fun getThreadEvents(threadId: Long, startTime: Long): ThreadEvents {
+        val threadName = threadsNames[threadId]
         if (threadName == null) {
-            LOG.debug("Thread name is not known. MethodEvent: " + methodEvent.toString())
-            return treesMap.computeIfAbsent(
-                    methodEvent.threadId
-            ) { CTBuilder(methodEvent.startTime, "") }
+            LOG.debug("Thread name is not known. Thread id: $threadId")
+            return threadsEvents.computeIfAbsent(threadId) { ThreadEvents("", startTime) }
         }
-        return treesMap.computeIfAbsent(
-                methodEvent.threadId
-        ) { CTBuilder(methodEvent.startTime, threadName) }
+        return threadsEvents.computeIfAbsent(threadId) { ThreadEvents(threadName, startTime) }
     }
 
-    private fun getStartTimeOfFirstThread(treesMap: Map<Long, CTBuilder>): Long {
-        val treesList = ArrayList(treesMap.values)
+    private fun getStartTimeOfFirstThread(threadsEvents: Map<Long, ThreadEvents>): Long {
+        val treesList = ArrayList(threadsEvents.values)
         val size = treesList.size
         if (size == 0) {
             return 0
@@ -85,14 +55,46 @@ class CallTreesBuilder(logFile: File) {
         return startTimeOfFirstThread
     }
 
+    /**
+     * Decoded events are collected without creating Event objects
+     */
+    private inner class TreesBuildingListener : EventsListener {
+        override fun threadRegistered(threadId: Long, threadName: String) {
+            threadsNames[threadId] = threadName
+        }
+
+        override fun timeUnitFound(timeUnit: EventProtos.TimeUnit) {
+            this@CallTreesBuilder.timeUnit = timeUnit
+        }
+
+        override fun methodEvent(threadId: Long,
+                                 method: MethodInfo,
+                                 startTime: Long,
+                                 duration: Long,
+                                 samplingWeight: Int,
+                                 parameters: List<EventProtos.Parameter>,
+                                 returnValue: EventProtos.Var?,
+                                 throwable: EventProtos.Var.Object?) {
+            getThreadEvents(threadId, startTime)
+                    .add(method, startTime, duration, samplingWeight, parameters, returnValue, throwable)
+        }
+    }
+
     companion object {
         private val LOG = com.intellij.openapi.diagnostic.Logger.getInstance(CallTreesBuilder::class.java)
 
-        private fun hashMapToTrees(trees: Map<Long, CTBuilder>,
-                                   startTimeOfFirstThread: Long): TreesProtos.Trees? {
+        /**
+         * Trees of threads are independent, so they are built in parallel in common ForkJoinPool.
+         * Order of trees is the same as order of threads in map
+         */
+        private fun buildTrees(threadsEvents: Map<Long, ThreadEvents>,
+                               startTimeOfFirstThread: Long,
+                               timeUnit: EventProtos.TimeUnit): TreesProtos.Trees? {
+            val builtTrees = threadsEvents.values.parallelStream()
+                    .map { threadEvents -> threadEvents.buildTree(startTimeOfFirstThread, timeUnit) }
+                    .collect(Collectors.toList())
             val treesBuilder = TreesProtos.Trees.newBuilder()
-            for (oTBuilder in trees.values) {
-                val tree = oTBuilder.getBuiltTree(startTimeOfFirstThread)
+            for (tree in builtTrees) {
                 if (tree != null) {
                     treesBuilder.addTrees(
                             tree
@@ -0,0 +1,165 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event.MethodEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Decodes log that was written by ColumnarEventWriter in javaagent.
+ * Columns of block are decoded to reusable arrays.
+ * If last block is not complete (JVM was killed while it was written) it is skipped
+ */
+class ColumnarEventsDecoder extends EventsDecoder {
+    private static final int DICTIONARY_BLOCK = 1;
+    private static final int EVENTS_BLOCK = 2;
+    private static final int CLASS_ENTRY = 1;
+    private static final int THREAD_ENTRY = 2;
+    private static final int METHOD_ENTRY = 3;
+    private static final int TIME_UNIT_ENTRY = 4;
+    private static final int END_MASK = 3;
+    private static final int END_RETURN_VALUE = 1;
+    private static final int END_THROWABLE = 2;
+    private static final int HAS_EXTRA = 4;
+    private static final int HAS_WEIGHT = 8;
+    private long[] threadIds = new long[0];
+    private int[] methodIds = new int[0];
+    private long[] startTimes = new long[0];
+    private long[] durations = new long[0];
+    private byte[] flags = new byte[0];
+    private int[] weights = new int[0];
+    private MethodEvent[] extras = new MethodEvent[0];
+
+    ColumnarEventsDecoder(@NotNull EventsListener listener) {
+        super(listener);
+    }
+
+    @Override
+    void decode(@NotNull MappedLog log) throws IOException {
+        while (log.prepare(MAX_VARINT32_SIZE)) {
+            int size;
+            try {
+                size = readVarint32(log.buffer());
+            } catch (BufferUnderflowException e) {
+                return; // tail of log was not written completely
+            }
+            if (!log.ensure(size)) {
+                return;
+            }
+            ByteBuffer buffer = log.buffer();
+            int end = buffer.position() + size;
+            int blockType = buffer.get();
+            switch (blockType) {
+                case DICTIONARY_BLOCK:
+                    decodeDictionary(buffer, end);
+                    break;
+                case EVENTS_BLOCK:
+                    decodeEvents(buffer);
+                    break;
+                default:
+                    throw new IOException("Unknown type of block: " + blockType);
+            }
+            buffer.position(end);
+        }
+    }
+
+    private void decodeDictionary(ByteBuffer buffer, int end) throws IOException {
+        while (buffer.position() < end) {
+            int entryType = readVarint32(buffer);
+            switch (entryType) {
+                case CLASS_ENTRY:
+                    long classId = readVarint64(buffer);
+                    registerClass(classId, readString(buffer, readVarint32(buffer)));
+                    break;
+                case THREAD_ENTRY:
+                    long threadId = readVarint64(buffer);
+                    listener.threadRegistered(threadId, readString(buffer, readVarint32(buffer)));
+                    break;
+                case METHOD_ENTRY:
+                    int methodId = readVarint32(buffer);
+                    long classNameId = readVarint64(buffer);
+                    String methodName = readString(buffer, readVarint32(buffer));
+                    String desc = readString(buffer, readVarint32(buffer));
+                    buffer.get(); // is static
+                    registerMethod(methodId, classNameId, methodName, desc);
+                    break;
+                case TIME_UNIT_ENTRY:
+                    listener.timeUnitFound(getTimeUnit(readVarint32(buffer)));
+                    break;
+                default:
+                    throw new IOException("Unknown type of dictionary entry: " + entryType);
+            }
+        }
+    }
+
+    private void decodeEvents(ByteBuffer buffer) throws IOException {
+        int count = readVarint32(buffer);
+        if (count > threadIds.length) {
+            growColumns(count);
+        }
+        for (int i = 0; i < count; i++) {
+            threadIds[i] = readVarint64(buffer);
+        }
+        for (int i = 0; i < count; i++) {
+            methodIds[i] = readVarint32(buffer);
+        }
+        long previousStartTime = 0;
+        for (int i = 0; i < count; i++) {
+            previousStartTime += readSVarint64(buffer);
+            startTimes[i] = previousStartTime;
+        }
+        for (int i = 0; i < count; i++) {
+            durations[i] = readVarint64(buffer);
+        }
+        buffer.get(flags, 0, count);
+        for (int i = 0; i < count; i++) {
+            weights[i] = (flags[i] & HAS_WEIGHT) != 0 ? readVarint32(buffer) : 0;
+        }
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & HAS_EXTRA) != 0) {
+                int length = readVarint32(buffer);
+                extras[i] = MethodEvent.parser().parseFrom(readBytes(buffer, length), 0, length);
+            } else {
+                extras[i] = null;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            addMethodEvent(i);
+        }
+        Arrays.fill(extras, 0, count, null);
+    }
+
+    private void addMethodEvent(int i) throws IOException {
+        MethodEvent extra = extras[i];
+        EventProtos.Var returnValue = null;
+        EventProtos.Var.Object throwable = null;
+        int endCase = flags[i] & END_MASK;
+        if (endCase == END_RETURN_VALUE) {
+            returnValue = extra != null && extra.hasReturnValue() ?
+                    extra.getReturnValue() :
+                    EventProtos.Var.getDefaultInstance(); // empty return value is not stored in extra data
+        } else if (endCase == END_THROWABLE) {
+            throwable = extra != null && extra.hasThrowable() ?
+                    extra.getThrowable() :
+                    EventProtos.Var.Object.getDefaultInstance();
+        }
+        listener.methodEvent(threadIds[i], getMethod(methodIds[i]), startTimes[i], durations[i], weights[i],
+                extra == null ? Collections.emptyList() : extra.getParametersList(),
+                returnValue, throwable);
+    }
+
+    private void growColumns(int count) {
+        threadIds = new long[count];
+        methodIds = new int[count];
+        startTimes = new long[count];
+        durations = new long[count];
+        flags = new byte[count];
+        weights = new int[count];
+        extras = new MethodEvent[count];
+    }
+}
@@ -0,0 +1,369 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes length-delimited EventProtos.Event messages.
+ * Field numbers are the same as in event.proto
+ */
+class DelimitedEventsDecoder extends EventsDecoder {
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+    /* methods of events that do not have method id */
+    private final Map<MethodKey, MethodInfo> methodsWithoutId = new HashMap<>();
+    private final MethodKey probeKey = new MethodKey();
+
+    /* fields of current method event */
+    private long threadId;
+    private long classNameId;
+    private long startTime;
+    private long duration;
+    private int methodNamePosition;
+    private int methodNameLength;
+    private int descPosition;
+    private int descLength;
+    private int methodId;
+    private int samplingWeight;
+    private List<EventProtos.Parameter> parameters;
+    private EventProtos.Var returnValue;
+    private EventProtos.Var.Object throwable;
+
+    DelimitedEventsDecoder(@NotNull EventsListener listener) {
+        super(listener);
+    }
+
+    @Override
+    void decode(@NotNull MappedLog log) throws IOException {
+        while (log.prepare(MAX_VARINT32_SIZE)) {
+            int length;
+            try {
+                length = readVarint32(log.buffer());
+            } catch (BufferUnderflowException e) {
+                return; // tail of log was not written completely
+            }
+            if (!log.ensure(length)) {
+                return;
+            }
+            ByteBuffer buffer = log.buffer();
+            int end = buffer.position() + length;
+            decodeEvent(buffer, end);
+            buffer.position(end);
+        }
+    }
+
+    private void decodeEvent(ByteBuffer buffer, int end) throws IOException {
+        boolean hasType = false;
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            if ((tag & 7) != WIRE_TYPE_LENGTH_DELIMITED) {
+                skipField(buffer, tag);
+                continue;
+            }
+            int length = readVarint32(buffer);
+            int messageEnd = buffer.position() + length;
+            hasType = true;
+            switch (tag >>> 3) {
+                case 1:
+                    decodeMethodEvent(buffer, messageEnd);
+                    break;
+                case 2:
+                    decodeNewClass(buffer, messageEnd);
+                    break;
+                case 3:
+                    decodeNewThread(buffer, messageEnd);
+                    break;
+                case 4:
+                    decodeNewMethod(buffer, messageEnd);
+                    break;
+                case 5:
+                    decodeHeader(buffer, messageEnd);
+                    break;
+                default:
+                    hasType = false;
+            }
+            buffer.position(messageEnd);
+        }
+        if (!hasType) {
+            throw new IOException("Event without type");
+        }
+    }
+
+    private void decodeMethodEvent(ByteBuffer buffer, int end) throws IOException {
+        threadId = 0;
+        classNameId = 0;
+        startTime = 0;
+        duration = 0;
+        methodNameLength = 0;
+        descLength = 0;
+        methodId = 0;
+        samplingWeight = 0;
+        parameters = Collections.emptyList();
+        returnValue = null;
+        throwable = null;
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            switch (tag) {
+                case 1 << 3 | WIRE_TYPE_VARINT:
+                    threadId = readVarint64(buffer);
+                    break;
+                case 2 << 3 | WIRE_TYPE_VARINT:
+                    classNameId = readVarint64(buffer);
+                    break;
+                case 3 << 3 | WIRE_TYPE_VARINT:
+                    startTime = readVarint64(buffer);
+                    break;
+                case 4 << 3 | WIRE_TYPE_VARINT:
+                    duration = readVarint64(buffer);
+                    break;
+                case 5 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    methodNameLength = readVarint32(buffer);
+                    methodNamePosition = buffer.position();
+                    buffer.position(methodNamePosition + methodNameLength);
+                    break;
+                case 6 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    descLength = readVarint32(buffer);
+                    descPosition = buffer.position();
+                    buffer.position(descPosition + descLength);
+                    break;
+                case 8 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    if (parameters.isEmpty()) {
+                        parameters = new ArrayList<>();
+                    }
+                    parameters.add(EventProtos.Parameter.parseFrom(readMessageBytes(buffer)));
+                    break;
+                case 9 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    int returnValueLength = readVarint32(buffer);
+                    returnValue = returnValueLength == 0 ?
+                            EventProtos.Var.getDefaultInstance() :
+                            EventProtos.Var.parseFrom(copyBytes(buffer, returnValueLength));
+                    throwable = null;
+                    break;
+                case 10 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    int throwableLength = readVarint32(buffer);
+                    throwable = throwableLength == 0 ?
+                            EventProtos.Var.Object.getDefaultInstance() :
+                            EventProtos.Var.Object.parseFrom(copyBytes(buffer, throwableLength));
+                    returnValue = null;
+                    break;
+                case 11 << 3 | WIRE_TYPE_VARINT:
+                    methodId = readVarint32(buffer);
+                    break;
+                case 12 << 3 | WIRE_TYPE_VARINT:
+                    samplingWeight = readVarint32(buffer);
+                    break;
+                default:
+                    skipField(buffer, tag);
+            }
+        }
+        MethodInfo method = methodId != 0 ? getMethod(methodId) : getMethodWithoutId(buffer);
+        listener.methodEvent(threadId, method, startTime, duration, samplingWeight,
+                parameters, returnValue, throwable);
+    }
+
+    /**
+     * Method name and description are decoded only once for each method
+     */
+    private MethodInfo getMethodWithoutId(ByteBuffer buffer) throws IOException {
+        probeKey.set(classNameId, buffer, methodNamePosition, methodNameLength, descPosition, descLength);
+        MethodInfo method = methodsWithoutId.get(probeKey);
+        if (method == null) {
+            byte[] bytes = probeKey.bytes;
+            method = new MethodInfo(getClassName(classNameId),
+                    new String(bytes, 0, methodNameLength, StandardCharsets.UTF_8),
+                    new String(bytes, methodNameLength, descLength, StandardCharsets.UTF_8));
+            methodsWithoutId.put(probeKey.copy(), method);
+        }
+        return method;
+    }
+
+    private void decodeNewClass(ByteBuffer buffer, int end) throws IOException {
+        long id = 0;
+        String name = "";
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            if (tag == (1 << 3 | WIRE_TYPE_VARINT)) {
+                id = readVarint64(buffer);
+            } else if (tag == (2 << 3 | WIRE_TYPE_LENGTH_DELIMITED)) {
+                name = readString(buffer, readVarint32(buffer));
+            } else {
+                skipField(buffer, tag);
+            }
+        }
+        registerClass(id, name);
+    }
+
+    private void decodeNewThread(ByteBuffer buffer, int end) throws IOException {
+        long id = 0;
+        String name = "";
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            if (tag == (1 << 3 | WIRE_TYPE_VARINT)) {
+                id = readVarint64(buffer);
+            } else if (tag == (2 << 3 | WIRE_TYPE_LENGTH_DELIMITED)) {
+                name = readString(buffer, readVarint32(buffer));
+            } else {
+                skipField(buffer, tag);
+            }
+        }
+        listener.threadRegistered(id, name);
+    }
+
+    private void decodeNewMethod(ByteBuffer buffer, int end) throws IOException {
+        int id = 0;
+        long newMethodClassNameId = 0;
+        String methodName = "";
+        String desc = "";
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            switch (tag) {
+                case 1 << 3 | WIRE_TYPE_VARINT:
+                    id = readVarint32(buffer);
+                    break;
+                case 2 << 3 | WIRE_TYPE_VARINT:
+                    newMethodClassNameId = readVarint64(buffer);
+                    break;
+                case 3 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    methodName = readString(buffer, readVarint32(buffer));
+                    break;
+                case 4 << 3 | WIRE_TYPE_LENGTH_DELIMITED:
+                    desc = readString(buffer, readVarint32(buffer));
+                    break;
+                default:
+                    skipField(buffer, tag);
+            }
+        }
+        registerMethod(id, newMethodClassNameId, methodName, desc);
+    }
+
+    private void decodeHeader(ByteBuffer buffer, int end) throws IOException {
+        int timeUnit = 0;
+        while (buffer.position() < end) {
+            int tag = readVarint32(buffer);
+            if (tag == (1 << 3 | WIRE_TYPE_VARINT)) {
+                timeUnit = readVarint32(buffer);
+            } else {
+                skipField(buffer, tag);
+            }
+        }
+        listener.timeUnitFound(getTimeUnit(timeUnit));
+    }
+
+    private static byte[] readMessageBytes(ByteBuffer buffer) throws IOException {
+        return copyBytes(buffer, readVarint32(buffer));
+    }
+
+    /**
+     * Message is copied to heap array because protobuf reads direct buffers through Unsafe
+     * and it does not work on all JVMs
+     */
+    private static byte[] copyBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void skipField(ByteBuffer buffer, int tag) throws IOException {
+        switch (tag & 7) {
+            case WIRE_TYPE_VARINT:
+                readVarint64(buffer);
+                break;
+            case WIRE_TYPE_FIXED64:
+                buffer.position(buffer.position() + 8);
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                int length = readVarint32(buffer);
+                buffer.position(buffer.position() + length);
+                break;
+            case WIRE_TYPE_FIXED32:
+                buffer.position(buffer.position() + 4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type: " + (tag & 7));
+        }
+    }
+
+    /**
+     * Class name id, method name and description of method that does not have id.
+     * Key for lookup is reused, so lookup of known method does not allocate memory
+     */
+    private static class MethodKey {
+        private long classNameId;
+        /* method name followed by description */
+        private byte[] bytes = new byte[256];
+        private int methodNameLength;
+        private int length;
+        private int hash;
+
+        void set(long classNameId, ByteBuffer buffer,
+                 int methodNamePosition, int methodNameLength,
+                 int descPosition, int descLength) {
+            this.classNameId = classNameId;
+            this.methodNameLength = methodNameLength;
+            length = methodNameLength + descLength;
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            for (int i = 0; i < methodNameLength; i++) {
+                bytes[i] = buffer.get(methodNamePosition + i);
+            }
+            for (int i = 0; i < descLength; i++) {
+                bytes[methodNameLength + i] = buffer.get(descPosition + i);
+            }
+            int h = 31 * Long.hashCode(classNameId) + methodNameLength;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        MethodKey copy() {
+            MethodKey key = new MethodKey();
+            key.classNameId = classNameId;
+            key.bytes = Arrays.copyOf(bytes, length);
+            key.methodNameLength = methodNameLength;
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) o;
+            if (classNameId != other.classNameId || methodNameLength != other.methodNameLength ||
+                    length != other.length || hash != other.hash) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other.bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes log directly from mapped memory and passes decoded values to {@link EventsListener}.
+ * Wire format is decoded by hand, so Event objects are not created for every call
+ * (only saved parameters, return values and exceptions are parsed by protobuf).
+ * Log contains either delimited events or events in columnar format if javaagent was started with format=columnar.
+ * Columnar log starts with magic number, format is detected by it
+ */
+abstract class EventsDecoder {
+    private static final byte[] COLUMNAR_MAGIC = {0, 'F', 'C', 'L'};
+    private static final int COLUMNAR_VERSION = 1;
+    static final int MAX_VARINT32_SIZE = 5;
+    final EventsListener listener;
+    private final Map<Long, String> classNames = new HashMap<>();
+    private final Map<Integer, MethodInfo> methods = new HashMap<>();
+    private byte[] bytes = new byte[256];
+
+    EventsDecoder(@NotNull EventsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param logFile .ser file or directory of segments
+     */
+    static void decode(@NotNull File logFile, @NotNull EventsListener listener) throws IOException {
+        try (MappedLog log = MappedLog.open(logFile)) {
+            if (readColumnarMagic(log)) {
+                new ColumnarEventsDecoder(listener).decode(log);
+            } else {
+                new DelimitedEventsDecoder(listener).decode(log);
+            }
+        }
+    }
+
+    /**
+     * Skips magic number and version if log is columnar
+     */
+    private static boolean readColumnarMagic(@NotNull MappedLog log) throws IOException {
+        if (!log.ensure(COLUMNAR_MAGIC.length + 1)) {
+            return false;
+        }
+        ByteBuffer buffer = log.buffer();
+        int position = buffer.position();
+        for (int i = 0; i < COLUMNAR_MAGIC.length; i++) {
+            if (buffer.get(position + i) != COLUMNAR_MAGIC[i]) {
+                return false;
+            }
+        }
+        int version = buffer.get(position + COLUMNAR_MAGIC.length);
+        if (version != COLUMNAR_VERSION) {
+            throw new IOException("Unsupported version of columnar format: " + version);
+        }
+        buffer.position(position + COLUMNAR_MAGIC.length + 1);
+        return true;
+    }
+
+    abstract void decode(@NotNull MappedLog log) throws IOException;
+
+    void registerClass(long id, @NotNull String name) {
+        classNames.put(id, name.replace('/', '.'));
+    }
+
+    @NotNull
+    MethodInfo registerMethod(int id, long classNameId, @NotNull String methodName, @NotNull String desc) throws IOException {
+        MethodInfo method = new MethodInfo(getClassName(classNameId), methodName, desc);
+        methods.put(id, method);
+        return method;
+    }
+
+    @NotNull
+    String getClassName(long classNameId) throws IOException {
+        String className = classNames.get(classNameId);
+        if (className == null) {
+            throw new IOException("Class name is not known. id = " + classNameId);
+        }
+        return className;
+    }
+
+    @NotNull
+    MethodInfo getMethod(int methodId) throws IOException {
+        MethodInfo method = methods.get(methodId);
+        if (method == null) {
+            throw new IOException("Method is not known. id = " + methodId);
+        }
+        return method;
+    }
+
+    static long readVarint64(@NotNull ByteBuffer buffer) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readVarint32(@NotNull ByteBuffer buffer) throws IOException {
+        return (int) readVarint64(buffer);
+    }
+
+    static long readSVarint64(@NotNull ByteBuffer buffer) throws IOException {
+        long n = readVarint64(buffer);
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    @NotNull
+    String readString(@NotNull ByteBuffer buffer, int length) {
+        return new String(readBytes(buffer, length), 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return reusable array that contains length bytes from buffer.
+     * Content of array is valid until next call
+     */
+    @NotNull
+    byte[] readBytes(@NotNull ByteBuffer buffer, int length) {
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        buffer.get(bytes, 0, length);
+        return bytes;
+    }
+
+    static EventProtos.TimeUnit getTimeUnit(int value) throws IOException {
+        EventProtos.TimeUnit timeUnit = EventProtos.TimeUnit.forNumber(value);
+        if (timeUnit == null) {
+            throw new IOException("Unknown time unit: " + value);
+        }
+        return timeUnit;
+    }
+}
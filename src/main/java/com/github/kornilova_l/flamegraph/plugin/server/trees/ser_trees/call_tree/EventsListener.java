@@ -0,0 +1,31 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Receives decoded content of log.
+ * Classes and methods are resolved by decoder, so listener gets only threads and calls
+ */
+interface EventsListener {
+    void threadRegistered(long threadId, @NotNull String threadName);
+
+    void timeUnitFound(@NotNull EventProtos.TimeUnit timeUnit);
+
+    /**
+     * Return value and throwable are both null if method event does not have them
+     *
+     * @param parameters empty list if parameters were not saved
+     */
+    void methodEvent(long threadId,
+                     @NotNull MethodInfo method,
+                     long startTime,
+                     long duration,
+                     int samplingWeight,
+                     @NotNull List<EventProtos.Parameter> parameters,
+                     @Nullable EventProtos.Var returnValue,
+                     @Nullable EventProtos.Var.Object throwable);
+}
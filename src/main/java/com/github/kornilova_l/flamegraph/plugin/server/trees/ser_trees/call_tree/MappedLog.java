@@ -0,0 +1,171 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped content of log.
+ * Log is either .ser file or directory of segments that was written by SegmentEventWriter in javaagent.
+ * Segment starts with header: magic number (int), version (int) and length of committed data (long).
+ * Only committed data of segment is read, so if JVM was killed while batch was written
+ * the partially written tail of last segment is skipped.
+ * <p>
+ * File is mapped by windows, so files that are larger than 2GB can be read.
+ * Event never crosses border of segment
+ */
+class MappedLog implements Closeable {
+    private static final int SEGMENT_MAGIC = 0x464C5347; // "FLSG"
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+    private final List<Region> regions;
+    private int nextRegion = 0;
+    private Region region = null;
+    private FileChannel channel = null;
+    /* position of first byte of buffer in file */
+    private long windowStart = 0;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+    private MappedLog(@NotNull List<Region> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * @param logFile .ser file or directory of segments if javaagent was started with output=segments
+     */
+    @NotNull
+    static MappedLog open(@NotNull File logFile) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        if (logFile.isDirectory()) {
+            File[] segments = logFile.listFiles((file, name) -> name.endsWith(".seg"));
+            if (segments != null) {
+                Arrays.sort(segments); // names contain zero-padded index
+                for (File segment : segments) {
+                    Region region = getCommittedRegion(segment);
+                    if (region != null) {
+                        regions.add(region);
+                    }
+                }
+            }
+        } else {
+            regions.add(new Region(logFile, 0, logFile.length()));
+        }
+        return new MappedLog(regions);
+    }
+
+    /**
+     * @return region of committed data or null if segment does not have committed data
+     */
+    private static Region getCommittedRegion(@NotNull File segment) throws IOException {
+        try (FileChannel segmentChannel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            while (header.hasRemaining() && segmentChannel.read(header) != -1) {
+                // read whole header
+            }
+            header.flip();
+            if (header.remaining() < SEGMENT_HEADER_SIZE || header.getInt() != SEGMENT_MAGIC) {
+                return null;
+            }
+            header.getInt(); // version
+            long committedLength = Math.min(header.getLong(), segmentChannel.size() - SEGMENT_HEADER_SIZE);
+            if (committedLength <= 0) { // segment was created but nothing was committed
+                return null;
+            }
+            return new Region(segment, SEGMENT_HEADER_SIZE, SEGMENT_HEADER_SIZE + committedLength);
+        }
+    }
+
+    /**
+     * Buffer is replaced by {@link #prepare(int)} and {@link #ensure(int)}
+     */
+    @NotNull
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Makes available at least wanted count of bytes or all bytes that are left in current file or segment
+     *
+     * @return false if there is no more data
+     */
+    boolean prepare(int wanted) throws IOException {
+        while (true) {
+            if (buffer.remaining() >= wanted) {
+                return true;
+            }
+            if (getLeftInRegion() > buffer.remaining()) {
+                remap();
+                continue;
+            }
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (!openNextRegion()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true if count bytes are available in buffer.
+     * false if current file or segment ends earlier
+     */
+    boolean ensure(int count) throws IOException {
+        return prepare(count) && buffer.remaining() >= count;
+    }
+
+    private long getLeftInRegion() {
+        return region == null ? 0 : region.end - (windowStart + buffer.position());
+    }
+
+    private void remap() throws IOException {
+        long position = windowStart + buffer.position();
+        long size = Math.min(MAX_WINDOW_SIZE, region.end - position);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+    }
+
+    private boolean openNextRegion() throws IOException {
+        closeChannel();
+        if (nextRegion == regions.size()) {
+            return false;
+        }
+        region = regions.get(nextRegion++);
+        channel = FileChannel.open(region.file.toPath(), StandardOpenOption.READ);
+        windowStart = region.start;
+        buffer = ByteBuffer.allocate(0);
+        return true;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close(); // mapping stays valid after channel is closed
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeChannel();
+    }
+
+    private static class Region {
+        private final File file;
+        private final long start;
+        private final long end;
+
+        Region(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil;
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree.Node.NodeInfo;
+import org.jetbrains.annotations.NotNull;
+
+import static com.github.kornilova_l.flamegraph.plugin.server.trees.DescriptionConverter.getBeautifulDesc;
+
+/**
+ * Method that was registered in log.
+ * Description is converted once per method instead of once per call.
+ * NodeInfo without parameters is also created once per method and it is shared by all calls of method
+ */
+class MethodInfo {
+    final String className;
+    final String methodName;
+    final String description;
+    final NodeInfo nodeInfo;
+
+    /**
+     * @param className  name of class with dots
+     * @param methodName name of method
+     * @param desc       jvm description of method
+     */
+    MethodInfo(@NotNull String className, @NotNull String methodName, @NotNull String desc) {
+        this.className = className;
+        this.methodName = methodName;
+        this.description = getBeautifulDesc(desc);
+        nodeInfo = TreesUtil.INSTANCE.createNodeInfo(className, methodName, description).build();
+    }
+}
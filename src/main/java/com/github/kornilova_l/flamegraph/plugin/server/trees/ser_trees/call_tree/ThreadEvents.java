@@ -0,0 +1,110 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Method events of one thread in order in which they were read from log.
+ * Events are collected by sequential scan of log and the tree of each thread
+ * is built later independently from other threads
+ */
+class ThreadEvents {
+    private final String threadName;
+    private long threadStartTime;
+    private int size = 0;
+    private MethodInfo[] methods = new MethodInfo[16];
+    private long[] startTimes = new long[16];
+    private long[] durations = new long[16];
+    private int[] samplingWeights = new int[16];
+    /* return value, throwable or null */
+    private Object[] results = new Object[16];
+    /* it is created only if some event has parameters */
+    private List<EventProtos.Parameter>[] parameters = null;
+
+    ThreadEvents(@NotNull String threadName, long threadStartTime) {
+        this.threadName = threadName;
+        this.threadStartTime = threadStartTime;
+    }
+
+    long getThreadStartTime() {
+        return threadStartTime;
+    }
+
+    /**
+     * Return value and throwable are both null if method event does not have them
+     */
+    void add(@NotNull MethodInfo method,
+             long startTime,
+             long duration,
+             int samplingWeight,
+             @NotNull List<EventProtos.Parameter> eventParameters,
+             @Nullable EventProtos.Var returnValue,
+             @Nullable EventProtos.Var.Object throwable) {
+        if (size == methods.length) {
+            grow();
+        }
+        if (startTime < threadStartTime) {
+            threadStartTime = startTime;
+        }
+        methods[size] = method;
+        startTimes[size] = startTime;
+        durations[size] = duration;
+        samplingWeights[size] = samplingWeight;
+        results[size] = throwable != null ? throwable : returnValue;
+        if (!eventParameters.isEmpty()) {
+            if (parameters == null) {
+                //noinspection unchecked
+                parameters = new List[methods.length];
+            }
+            parameters[size] = eventParameters;
+        }
+        size++;
+    }
+
+    private void grow() {
+        int newLength = methods.length * 2;
+        methods = Arrays.copyOf(methods, newLength);
+        startTimes = Arrays.copyOf(startTimes, newLength);
+        durations = Arrays.copyOf(durations, newLength);
+        samplingWeights = Arrays.copyOf(samplingWeights, newLength);
+        results = Arrays.copyOf(results, newLength);
+        if (parameters != null) {
+            parameters = Arrays.copyOf(parameters, newLength);
+        }
+    }
+
+    /**
+     * Collected events are released after tree is built
+     *
+     * @return built Tree of null if tree is empty
+     */
+    @Nullable
+    Tree buildTree(long startTimeOfFirstThread, @NotNull EventProtos.TimeUnit timeUnit) {
+        CTBuilder ctBuilder = new CTBuilder(threadStartTime, threadName);
+        for (int i = 0; i < size; i++) {
+            Object result = results[i];
+            ctBuilder.addEvent(methods[i], startTimes[i], durations[i], samplingWeights[i],
+                    parameters == null || parameters[i] == null ? Collections.emptyList() : parameters[i],
+                    result instanceof EventProtos.Var ? (EventProtos.Var) result : null,
+                    result instanceof EventProtos.Var.Object ? (EventProtos.Var.Object) result : null);
+        }
+        release();
+        return ctBuilder.getBuiltTree(startTimeOfFirstThread, timeUnit);
+    }
+
+    private void release() {
+        size = 0;
+        methods = null;
+        startTimes = null;
+        durations = null;
+        samplingWeights = null;
+        results = null;
+        parameters = null;
+    }
+}
@@ -90,7 +90,8 @@ public class TreePreviewBuilder {
     private static void setTreePreviewBasicInfo(TreePreviewProtos.TreePreview.Builder treePreview, @NotNull TreeProtos.Tree tree) {
         treePreview.setTreeInfo(TreeProtos.Tree.TreeInfo.newBuilder()
                 .setThreadName(tree.getTreeInfo().getThreadName())
-                .setStartTime(tree.getTreeInfo().getStartTime()));
+                .setStartTime(tree.getTreeInfo().getStartTime())
+                .setTimeUnit(tree.getTreeInfo().getTimeUnit()));
         treePreview.setWidth(tree.getWidth());
         treePreview.setDepth(tree.getDepth());
     }
@@ -28,6 +28,9 @@ object TreesUtil {
     }
 
     /**
+     * Children are scanned linearly,
+     * big trees are built with [com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.updateChild]
+     *
      * @param nodeBuilder node in building tree. Child of this node will be updated or created
      * @param time        time which will be set (or added) to created or updated node
      * (in back traces added time differs for node's time)
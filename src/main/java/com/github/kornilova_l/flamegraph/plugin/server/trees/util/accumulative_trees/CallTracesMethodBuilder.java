@@ -1,97 +1,92 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees;
 
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeBuilder;
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree;
 
 public class CallTracesMethodBuilder implements TreeBuilder {
-    private final Tree tree;
-    private final String className;
-    private final String methodName;
-    private final String desc;
-    private Tree.Builder treeBuilder;
-    private Tree.Node.Builder wantedMethodNode;
+    private final PrimitiveTree sourceTree;
+    private final PrimitiveTree tree;
+    private final int wantedFrameId;
     private int maxDepth = 0;
 
     public CallTracesMethodBuilder(Tree sourceTree,
                                    String className,
                                    String methodName,
                                    String desc) {
-        this.className = className;
-        this.methodName = methodName;
-        this.desc = desc;
-        initTreeBuilder();
-        traverseTreeAndFind(sourceTree.getBaseNode());
-        TreesUtil.INSTANCE.setNodesOffsetRecursively(treeBuilder.getBaseNodeBuilder(), 0);
-        TreesUtil.INSTANCE.setTreeWidth(treeBuilder);
-        TreesUtil.INSTANCE.setNodesCount(treeBuilder);
-        setTimePercent(sourceTree);
-        treeBuilder.setDepth(maxDepth);
-        tree = treeBuilder.build();
+        this(PrimitiveTree.fromProto(sourceTree, new FrameTable()), className, methodName, desc);
+    }
+
+    public CallTracesMethodBuilder(PrimitiveTree sourceTree,
+                                   String className,
+                                   String methodName,
+                                   String desc) {
+        this.sourceTree = sourceTree;
+        wantedFrameId = sourceTree.getFrames().getId(className, methodName, desc);
+        tree = new PrimitiveTree(sourceTree.getFrames());
+        tree.addChild(PrimitiveTree.BASE_NODE, wantedFrameId, 0);
+        traverseTreeAndFind(PrimitiveTree.BASE_NODE);
+        tree.finish();
+        setTimePercent();
+        tree.setTimeUnit(sourceTree.getTimeUnit());
+        tree.setDepth(maxDepth);
     }
 
     /**
      * It calculates total time of method (not only self-time)
      */
-    private void setTimePercent(Tree sourceTree) {
-        treeBuilder.getTreeInfoBuilder().setTimePercent(
-                calculateTimeOfMethodRecursively(sourceTree.getBaseNode()) / (float) sourceTree.getWidth()
+    private void setTimePercent() {
+        tree.setTimePercent(
+                calculateTimeOfMethodRecursively(PrimitiveTree.BASE_NODE) / (float) sourceTree.getWidth()
         );
     }
 
-    private long calculateTimeOfMethodRecursively(Tree.Node node) {
-        if (TreesUtil.INSTANCE.isSameMethod(wantedMethodNode, node.getNodeInfo().getClassName(), node.getNodeInfo().getMethodName(),
-                node.getNodeInfo().getDescription())) {
+    private long calculateTimeOfMethodRecursively(int node) {
+        if (node != PrimitiveTree.BASE_NODE && sourceTree.getFrameId(node) == wantedFrameId) {
             /* do not go deeper. We do not want to add up time of recursive calls */
-            return node.getWidth();
+            return sourceTree.getWidth(node);
         }
         long time = 0;
-        for (Tree.Node child : node.getNodesList()) {
+        for (int child = sourceTree.getFirstChild(node);
+             child != PrimitiveTree.NO_NODE;
+             child = sourceTree.getNextSibling(child)) {
             time += calculateTimeOfMethodRecursively(child);
         }
         return time;
     }
 
-    public Tree getTree() {
+    public PrimitiveTree getPrimitiveTree() {
         return tree;
     }
 
-    private void traverseTreeAndFind(Tree.Node node) {
+    public Tree getTree() {
+        return tree.toProto();
+    }
 
-        if (TreesUtil.INSTANCE.isSameMethod(wantedMethodNode, node.getNodeInfo().getClassName(), node.getNodeInfo().getMethodName(),
-                node.getNodeInfo().getDescription())) {
-            addNodesRecursively(treeBuilder.getBaseNodeBuilder(), node, 0);
+    private void traverseTreeAndFind(int node) {
+        if (node != PrimitiveTree.BASE_NODE && sourceTree.getFrameId(node) == wantedFrameId) {
+            addNodesRecursively(PrimitiveTree.BASE_NODE, node, 0);
         }
-        for (Tree.Node childNode : node.getNodesList()) {
-            traverseTreeAndFind(childNode);
+        for (int child = sourceTree.getFirstChild(node);
+             child != PrimitiveTree.NO_NODE;
+             child = sourceTree.getNextSibling(child)) {
+            traverseTreeAndFind(child);
         }
     }
 
-    private void addNodesRecursively(Tree.Node.Builder nodeBuilder, // where to append child
-                                     Tree.Node node, // from where get method and it's width
+    private void addNodesRecursively(int parent, // where to append child
+                                     int node, // from where get method and it's width
                                      int depth) {
         depth++;
         if (depth > maxDepth) {
             maxDepth = depth;
         }
-        nodeBuilder = TreesUtil.INSTANCE.updateNodeList(nodeBuilder, node);
-        for (Tree.Node childNode : node.getNodesList()) {
-            addNodesRecursively(nodeBuilder, childNode, depth);
+        parent = tree.updateChild(parent, sourceTree.getFrameId(node), sourceTree.getWidth(node));
+        for (int child = sourceTree.getFirstChild(node);
+             child != PrimitiveTree.NO_NODE;
+             child = sourceTree.getNextSibling(child)) {
+            addNodesRecursively(parent, child, depth);
         }
     }
-
-    private void initTreeBuilder() {
-        Tree.Node.Builder baseNode = Tree.Node.newBuilder()
-                .addNodes(Tree.Node.newBuilder()
-                        .setNodeInfo(
-                                TreesUtil.INSTANCE.createNodeInfo(
-                                        className,
-                                        methodName,
-                                        desc
-                                )
-                        ));
-        treeBuilder = Tree.newBuilder()
-                .setBaseNode(baseNode);
-        wantedMethodNode = treeBuilder.getBaseNodeBuilder().getNodesBuilder(0);
-    }
 }
@@ -1,8 +1,7 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces;
 
-import com.github.kornilova_l.flamegraph.plugin.server.tree_request_handlers.tree.TreeRequestHandlerKt;
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeBuilder;
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import com.github.kornilova_l.flamegraph.proto.TreeProtos;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -11,70 +10,73 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * This class is used only if calltraces tree contains less than {@link TreeRequestHandlerKt#maximumNodesCount}
+ * Builds whole back traces tree.
+ * If calltraces tree is big then only visible part of back traces is built by {@link LazyBackTraces}
  */
 public final class BackTracesBuilder implements TreeBuilder {
-    private TreeProtos.Tree.Builder treeBuilder;
+    private final PrimitiveTree outgoingCalls;
     @Nullable
-    private final TreeProtos.Tree tree;
+    private final PrimitiveTree tree;
+    private final PrimitiveTree treeBuilder;
     private int maxDepth = 0;
 
-    public BackTracesBuilder(@NotNull TreeProtos.Tree outgoingCalls) {
-        if (outgoingCalls.getTreeInfo().getNodesCount() > TreeRequestHandlerKt.maximumNodesCount) {
-            throw new IllegalArgumentException("Calltraces must contain less than " + TreeRequestHandlerKt.maximumNodesCount + " nodes");
-        }
-        initTreeBuilder();
-        for (TreeProtos.Tree.Node node : outgoingCalls.getBaseNode().getNodesList()) {
+    public BackTracesBuilder(@NotNull PrimitiveTree outgoingCalls) {
+        this.outgoingCalls = outgoingCalls;
+        treeBuilder = new PrimitiveTree(outgoingCalls.getFrames());
+        for (int node = outgoingCalls.getFirstChild(PrimitiveTree.BASE_NODE);
+             node != PrimitiveTree.NO_NODE;
+             node = outgoingCalls.getNextSibling(node)) {
             traverseTree(node, 0);
         }
-        if (treeBuilder.getBaseNode().getNodesCount() == 0) {
+        if (!treeBuilder.hasChildren(PrimitiveTree.BASE_NODE)) {
             tree = null;
             return;
         }
-        TreesUtil.INSTANCE.setNodesOffsetRecursively(treeBuilder.getBaseNodeBuilder(), 0);
-        TreesUtil.INSTANCE.setTreeWidth(treeBuilder);
-        TreesUtil.INSTANCE.setNodesCount(treeBuilder);
+        treeBuilder.finish();
+        treeBuilder.setTimeUnit(outgoingCalls.getTimeUnit());
         treeBuilder.setDepth(maxDepth);
-        tree = treeBuilder.build();
+        tree = treeBuilder;
     }
 
     @Nullable
-    public TreeProtos.Tree getTree() {
+    public PrimitiveTree getPrimitiveTree() {
         return tree;
     }
 
-    private void initTreeBuilder() {
-        treeBuilder = TreeProtos.Tree.newBuilder()
-                .setBaseNode(TreeProtos.Tree.Node.newBuilder());
+    @Nullable
+    public TreeProtos.Tree getTree() {
+        return tree == null ? null : tree.toProto();
     }
 
-    private static class NodeBuilderAndTime {
-        TreeProtos.Tree.Node.Builder nodeBuilder;
+    private static class NodeAndTime {
+        int node;
         long time;
 
-        NodeBuilderAndTime(TreeProtos.Tree.Node.Builder nodeBuilder,
-                           long time) {
+        NodeAndTime(int node,
+                    long time) {
             this.time = time;
-            this.nodeBuilder = nodeBuilder;
+            this.node = node;
         }
     }
 
-    private List<NodeBuilderAndTime> traverseTree(TreeProtos.Tree.Node node, int depth) {
+    private List<NodeAndTime> traverseTree(int node, int depth) {
         depth++;
         if (depth > maxDepth) {
             maxDepth = depth;
         }
-        if (node.getNodesCount() == 0) { // leaf
+        if (!outgoingCalls.hasChildren(node)) { // leaf
             return addLeafToBaseNodeChildren(node);
         } else {
-            ArrayList<NodeBuilderAndTime> arrayList = new ArrayList<>();
-            for (TreeProtos.Tree.Node childNode : node.getNodesList()) {
-                for (NodeBuilderAndTime returnedNodeBuilder : traverseTree(childNode, depth)) {
-                    long time = returnedNodeBuilder.time;
-                    TreeProtos.Tree.Node.Builder childOfReturnedNode =
-                            TreesUtil.INSTANCE.updateNodeList(returnedNodeBuilder.nodeBuilder, node.getNodeInfo(), time);
+            ArrayList<NodeAndTime> arrayList = new ArrayList<>();
+            int frameId = outgoingCalls.getFrameId(node);
+            for (int childNode = outgoingCalls.getFirstChild(node);
+                 childNode != PrimitiveTree.NO_NODE;
+                 childNode = outgoingCalls.getNextSibling(childNode)) {
+                for (NodeAndTime returnedNode : traverseTree(childNode, depth)) {
+                    long time = returnedNode.time;
+                    int childOfReturnedNode = treeBuilder.updateChild(returnedNode.node, frameId, time);
                     arrayList.add(
-                            new NodeBuilderAndTime(
+                            new NodeAndTime(
                                     childOfReturnedNode,
                                     time
                             )
@@ -85,14 +87,14 @@ public final class BackTracesBuilder implements TreeBuilder {
         }
     }
 
-    private List<NodeBuilderAndTime> addLeafToBaseNodeChildren(TreeProtos.Tree.Node node) {
-        ArrayList<NodeBuilderAndTime> arrayList = new ArrayList<>();
-        TreeProtos.Tree.Node.Builder newNode =
-                TreesUtil.INSTANCE.updateNodeList(treeBuilder.getBaseNodeBuilder(), node.getNodeInfo(), node.getWidth());
+    private List<NodeAndTime> addLeafToBaseNodeChildren(int node) {
+        ArrayList<NodeAndTime> arrayList = new ArrayList<>();
+        long width = outgoingCalls.getWidth(node);
+        int newNode = treeBuilder.updateChild(PrimitiveTree.BASE_NODE, outgoingCalls.getFrameId(node), width);
         arrayList.add(
-                new NodeBuilderAndTime(
+                new NodeAndTime(
                         newNode,
-                        node.getWidth()
+                        width
                 )
         );
         return arrayList;
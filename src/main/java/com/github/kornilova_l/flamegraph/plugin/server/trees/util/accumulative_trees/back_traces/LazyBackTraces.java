@@ -0,0 +1,322 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces;
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.Filter;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Back traces of call traces that are too big to build whole back traces tree (see {@link BackTracesBuilder}).
+ * Only index of leaves of call traces by frame id is kept.
+ * For each request only visible part of back traces is built: it contains nodes on path to zoomed node
+ * and first layers below zoomed node.
+ * <p>
+ * Node of back traces is represented by nodes of call traces that are reached
+ * when stacks are walked from leaves to root (widths of leaves are added to these nodes).
+ * Children of back traces node are parents of these call traces nodes grouped by frame.
+ * <p>
+ * Children are ordered by class name + method name, children with the same name are ordered by frame id.
+ * Instance is not modified after it is created, so it may be used by several requests
+ */
+public final class LazyBackTraces {
+    private final PrimitiveTree callTraces;
+    /* leaves of call traces sorted by frame, leaves of one frame are stored one after another */
+    private final int[] leaves;
+    /* frames of leaves in the same order as children of base node of back traces */
+    private final int[] leafFrames;
+    /* leaves of leafFrames[i] are stored in leaves from leafFramesStarts[i] to leafFramesStarts[i + 1] */
+    private final int[] leafFramesStarts;
+    private final Comparator<Integer> framesComparator;
+
+    public LazyBackTraces(@NotNull PrimitiveTree callTraces) {
+        this.callTraces = callTraces;
+        FrameTable frames = callTraces.getFrames();
+        framesComparator = Comparator.comparing((Integer frameId) -> frames.getComparableName(frameId))
+                .thenComparing(frameId -> frameId);
+        int leavesCount = 0;
+        for (int node = PrimitiveTree.BASE_NODE + 1; node <= callTraces.getNodesCount(); node++) {
+            if (!callTraces.hasChildren(node)) {
+                leavesCount++;
+            }
+        }
+        long[] framesAndLeaves = new long[leavesCount];
+        int count = 0;
+        for (int node = PrimitiveTree.BASE_NODE + 1; node <= callTraces.getNodesCount(); node++) {
+            if (!callTraces.hasChildren(node)) {
+                framesAndLeaves[count++] = ((long) callTraces.getFrameId(node) << 32) | node;
+            }
+        }
+        Arrays.sort(framesAndLeaves);
+        List<Integer> frameIds = new ArrayList<>();
+        for (int i = 0; i < leavesCount; i++) {
+            int frameId = (int) (framesAndLeaves[i] >>> 32);
+            if (i == 0 || frameId != (int) (framesAndLeaves[i - 1] >>> 32)) {
+                frameIds.add(frameId);
+            }
+        }
+        frameIds.sort(framesComparator);
+        leafFrames = new int[frameIds.size()];
+        leafFramesStarts = new int[frameIds.size() + 1];
+        leaves = new int[leavesCount];
+        count = 0;
+        for (int i = 0; i < leafFrames.length; i++) {
+            int frameId = frameIds.get(i);
+            leafFrames[i] = frameId;
+            leafFramesStarts[i] = count;
+            int position = Arrays.binarySearch(framesAndLeaves, (long) frameId << 32);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            while (position < leavesCount && (int) (framesAndLeaves[position] >>> 32) == frameId) {
+                leaves[count++] = (int) framesAndLeaves[position++];
+            }
+        }
+        leafFramesStarts[leafFrames.length] = count;
+    }
+
+    /**
+     * @return approximate size of index (call traces are not counted)
+     */
+    public long getRetainedBytes() {
+        return (long) (leaves.length + leafFrames.length + leafFramesStarts.length) * Integer.BYTES;
+    }
+
+    /**
+     * Builds part of back traces that is visible when node at given path is zoomed.
+     * Layers below zoomed node are added while tree contains not more than maxNodesCount nodes
+     * (first layer is always added).
+     * Depth of returned tree is depth of whole back traces (or depth of whole subtree if path is not empty)
+     *
+     * @param path   indices of children on path to zoomed node. If path is empty then whole tree is zoomed
+     *               and children of base node are first layer, otherwise zoomed node is the only child of base node
+     * @param filter if it is not null then excluded frames are removed from stacks
+     * @return visible part or null if back traces are empty
+     * @throws IndexOutOfBoundsException if there is no node with given path
+     */
+    @Nullable
+    public PrimitiveTree getVisiblePart(@NotNull List<Integer> path,
+                                        @Nullable Filter filter,
+                                        int maxNodesCount) {
+        BackTracesNode zoomedNode = null;
+        List<BackTracesNode> children = null;
+        int pathIndex = 0;
+        if (filter == null && !path.isEmpty()) { // other children of base node are not needed
+            zoomedNode = getLeavesOfFrame(checkIndex(path.get(0), leafFrames.length));
+            pathIndex = 1;
+        } else {
+            children = getChildrenOfBaseNode(filter);
+        }
+        for (; pathIndex < path.size(); pathIndex++) {
+            if (zoomedNode != null) {
+                children = getChildren(zoomedNode, filter);
+            }
+            zoomedNode = children.get(checkIndex(path.get(pathIndex), children.size()));
+        }
+        List<BackTracesNode> layer = zoomedNode == null ? children : Collections.singletonList(zoomedNode);
+        if (layer.isEmpty()) {
+            return null;
+        }
+        int depth = 0;
+        for (BackTracesNode node : layer) {
+            for (int callTracesNode : node.callTracesNodes) {
+                depth = Math.max(depth, getDepth(callTracesNode, filter));
+            }
+        }
+        PrimitiveTree visiblePart = buildVisiblePart(layer, filter, maxNodesCount);
+        visiblePart.finish();
+        visiblePart.setDepth(depth);
+        visiblePart.setTimeUnit(callTraces.getTimeUnit());
+        return visiblePart;
+    }
+
+    private static int checkIndex(int index, int childrenCount) {
+        if (index < 0 || index >= childrenCount) {
+            throw new IndexOutOfBoundsException("Node does not have child with index " + index);
+        }
+        return index;
+    }
+
+    private PrimitiveTree buildVisiblePart(List<BackTracesNode> firstLayer, @Nullable Filter filter, int maxNodesCount) {
+        PrimitiveTree visiblePart = new PrimitiveTree(callTraces.getFrames());
+        int[] layerNodes = new int[firstLayer.size()];
+        for (int i = 0; i < firstLayer.size(); i++) {
+            BackTracesNode node = firstLayer.get(i);
+            layerNodes[i] = visiblePart.addChild(PrimitiveTree.BASE_NODE, node.frameId, node.width);
+        }
+        List<BackTracesNode> layer = firstLayer;
+        int nodesCount = firstLayer.size();
+        while (true) {
+            List<List<BackTracesNode>> nextLayer = new ArrayList<>();
+            for (BackTracesNode node : layer) {
+                List<BackTracesNode> children = getChildren(node, filter);
+                nodesCount += children.size();
+                if (nodesCount > maxNodesCount) {
+                    return visiblePart;
+                }
+                nextLayer.add(children);
+            }
+            List<BackTracesNode> nextLayerNodes = new ArrayList<>();
+            int[] nextLayerIndices = new int[nodesCount];
+            int count = 0;
+            for (int i = 0; i < nextLayer.size(); i++) {
+                for (BackTracesNode child : nextLayer.get(i)) {
+                    nextLayerIndices[count++] = visiblePart.addChild(layerNodes[i], child.frameId, child.width);
+                    nextLayerNodes.add(child);
+                }
+            }
+            if (count == 0) {
+                return visiblePart;
+            }
+            layer = nextLayerNodes;
+            layerNodes = Arrays.copyOf(nextLayerIndices, count);
+        }
+    }
+
+    private BackTracesNode getLeavesOfFrame(int index) {
+        int start = leafFramesStarts[index];
+        int end = leafFramesStarts[index + 1];
+        long[] widths = new long[end - start];
+        long width = 0;
+        for (int i = start; i < end; i++) {
+            widths[i - start] = callTraces.getWidth(leaves[i]);
+            width += widths[i - start];
+        }
+        return new BackTracesNode(leafFrames[index], Arrays.copyOfRange(leaves, start, end), widths, width);
+    }
+
+    private List<BackTracesNode> getChildrenOfBaseNode(@Nullable Filter filter) {
+        if (filter == null) {
+            List<BackTracesNode> children = new ArrayList<>();
+            for (int i = 0; i < leafFrames.length; i++) {
+                children.add(getLeavesOfFrame(i));
+            }
+            return children;
+        }
+        int[] nodes = new int[leaves.length];
+        long[] widths = new long[leaves.length];
+        int count = 0;
+        for (int leaf : leaves) {
+            int node = getIncludedNode(leaf, filter);
+            if (node != PrimitiveTree.BASE_NODE) {
+                nodes[count] = node;
+                widths[count++] = callTraces.getWidth(leaf);
+            }
+        }
+        return groupByFrame(nodes, widths, count);
+    }
+
+    private List<BackTracesNode> getChildren(BackTracesNode node, @Nullable Filter filter) {
+        int[] parents = new int[node.callTracesNodes.length];
+        long[] widths = new long[node.callTracesNodes.length];
+        int count = 0;
+        for (int i = 0; i < node.callTracesNodes.length; i++) {
+            int parent = getIncludedNode(callTraces.getParent(node.callTracesNodes[i]), filter);
+            if (parent != PrimitiveTree.BASE_NODE) {
+                parents[count] = parent;
+                widths[count++] = node.widths[i];
+            }
+        }
+        return groupByFrame(parents, widths, count);
+    }
+
+    /**
+     * Several leaves may have the same ancestor, such call traces nodes are merged (their widths are summed up)
+     *
+     * @return back traces nodes sorted by class name + method name
+     */
+    private List<BackTracesNode> groupByFrame(int[] nodes, long[] widths, int count) {
+        long[] nodesAndIndices = new long[count];
+        for (int i = 0; i < count; i++) {
+            nodesAndIndices[i] = ((long) nodes[i] << 32) | i;
+        }
+        Arrays.sort(nodesAndIndices);
+        int[] uniqueNodes = new int[count];
+        long[] uniqueWidths = new long[count];
+        int uniqueCount = 0;
+        for (int i = 0; i < count; i++) {
+            int node = (int) (nodesAndIndices[i] >>> 32);
+            long width = widths[(int) nodesAndIndices[i]];
+            if (uniqueCount > 0 && uniqueNodes[uniqueCount - 1] == node) {
+                uniqueWidths[uniqueCount - 1] += width;
+            } else {
+                uniqueNodes[uniqueCount] = node;
+                uniqueWidths[uniqueCount++] = width;
+            }
+        }
+        long[] framesAndIndices = new long[uniqueCount];
+        for (int i = 0; i < uniqueCount; i++) {
+            framesAndIndices[i] = ((long) callTraces.getFrameId(uniqueNodes[i]) << 32) | i;
+        }
+        Arrays.sort(framesAndIndices);
+        List<BackTracesNode> groups = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= uniqueCount; i++) {
+            if (i == uniqueCount || (framesAndIndices[i] >>> 32) != (framesAndIndices[start] >>> 32)) {
+                int[] groupNodes = new int[i - start];
+                long[] groupWidths = new long[i - start];
+                long width = 0;
+                for (int j = start; j < i; j++) {
+                    int index = (int) framesAndIndices[j];
+                    groupNodes[j - start] = uniqueNodes[index];
+                    groupWidths[j - start] = uniqueWidths[index];
+                    width += uniqueWidths[index];
+                }
+                groups.add(new BackTracesNode((int) (framesAndIndices[start] >>> 32), groupNodes, groupWidths, width));
+                start = i;
+            }
+        }
+        groups.sort((node1, node2) -> framesComparator.compare(node1.frameId, node2.frameId));
+        return groups;
+    }
+
+    /**
+     * @return node or its closest ancestor which frame is not removed by filter
+     * (or base node if there is no such node)
+     */
+    private int getIncludedNode(int node, @Nullable Filter filter) {
+        if (filter == null) {
+            return node;
+        }
+        while (node != PrimitiveTree.BASE_NODE &&
+                !filter.isFrameIncluded(callTraces.getFrames(), callTraces.getFrameId(node))) {
+            node = callTraces.getParent(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return count of nodes from given node to root of call traces (excluded frames are not counted)
+     */
+    private int getDepth(int node, @Nullable Filter filter) {
+        int depth = 0;
+        for (int current = node; current != PrimitiveTree.BASE_NODE; current = callTraces.getParent(current)) {
+            if (filter == null || filter.isFrameIncluded(callTraces.getFrames(), callTraces.getFrameId(current))) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static class BackTracesNode {
+        final int frameId;
+        /* distinct nodes of call traces. Each of them has frameId */
+        final int[] callTracesNodes;
+        /* width that was added to each of callTracesNodes from leaves below it */
+        final long[] widths;
+        final long width;
+
+        BackTracesNode(int frameId, int[] callTracesNodes, long[] widths, long width) {
+            this.frameId = frameId;
+            this.callTracesNodes = callTracesNodes;
+            this.widths = widths;
+            this.width = width;
+        }
+    }
+}
@@ -1,61 +1,103 @@
 package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.call_traces;
 
 import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeBuilder;
-import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable;
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree;
 import com.github.kornilova_l.flamegraph.proto.TreeProtos;
 import com.github.kornilova_l.flamegraph.proto.TreesProtos;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public final class OutgoingCallsBuilder implements TreeBuilder {
-    private TreeProtos.Tree.Builder treeBuilder;
     @Nullable
-    private final TreeProtos.Tree tree;
+    private final PrimitiveTree tree;
+    private final FrameTable frames;
     private int maxDepth = 0;
 
-    public OutgoingCallsBuilder(@NotNull TreesProtos.Trees callTrees) {
-        initTreeBuilder();
+    public OutgoingCallsBuilder(@NotNull TreesProtos.Trees callTrees, @NotNull FrameTable frames) {
+        this.frames = frames;
+        PrimitiveTree tree = new PrimitiveTree(frames);
         for (TreeProtos.Tree callTree : callTrees.getTreesList()) {
-            addTree(treeBuilder.getBaseNodeBuilder(), callTree.getBaseNode());
+            addTree(tree, callTree.getBaseNode());
         }
-        if (treeBuilder.getBaseNode().getNodesCount() == 0) {
-            tree = null;
+        if (!tree.hasChildren(PrimitiveTree.BASE_NODE)) {
+            this.tree = null;
             return;
         }
-        TreesUtil.INSTANCE.setNodesOffsetRecursively(treeBuilder.getBaseNodeBuilder(), 0);
-        TreesUtil.INSTANCE.setTreeWidth(treeBuilder);
-        TreesUtil.INSTANCE.setNodesCount(treeBuilder);
-        treeBuilder.setDepth(maxDepth);
-        tree = treeBuilder.build();
+        tree.finish();
+        tree.setTimeUnit(callTrees.getTrees(0).getTreeInfo().getTimeUnit());
+        tree.setDepth(maxDepth);
+        this.tree = tree;
     }
 
     @Nullable
-    public TreeProtos.Tree getTree() {
+    public PrimitiveTree getPrimitiveTree() {
         return tree;
     }
 
-    private void initTreeBuilder() {
-        treeBuilder = TreeProtos.Tree.newBuilder()
-                .setBaseNode(TreeProtos.Tree.Node.newBuilder());
+    @Nullable
+    public TreeProtos.Tree getTree() {
+        return tree == null ? null : tree.toProto();
     }
 
-    private void addTree(TreeProtos.Tree.Node.Builder baseNodeInOC,
+    private void addTree(PrimitiveTree tree,
                          TreeProtos.Tree.Node baseNodeInCT) {
         for (TreeProtos.Tree.Node childNodeInCT : baseNodeInCT.getNodesList()) {
-            addNodesRecursively(baseNodeInOC, childNodeInCT, 0);
+            addNodesRecursively(tree, PrimitiveTree.BASE_NODE, childNodeInCT, 0, 1);
         }
     }
 
-    private void addNodesRecursively(TreeProtos.Tree.Node.Builder nodeBuilder, // where to append child
+    /**
+     * If methods are sampled then width of node is multiplied by sampling weights of node and all its parents.
+     * Agent does not record calls inside call that was not recorded (see Sampler in agent),
+     * so stack is recorded with probability that is a product of sampling probabilities of its calls.
+     * Classes that cannot load Sampler (for example system classes) record every call, so their nodes
+     * that are called inside call that was not recorded are still attached to grandparent.
+     * Scaled children of node may be wider than scaled node (for example if node is not sampled
+     * but its children are), in this case width of children is added to node so node stays
+     * not narrower than its children
+     *
+     * @param parentWeight product of sampling weights of parents
+     * @return width that was added to node
+     */
+    private long addNodesRecursively(PrimitiveTree tree,
+                                     int parent, // where to append child
                                      TreeProtos.Tree.Node node, // from where get method and it's width
-                                     int depth) {
+                                     int depth,
+                                     long parentWeight) {
         depth++;
         if (depth > maxDepth) {
             maxDepth = depth;
         }
-        nodeBuilder = TreesUtil.INSTANCE.updateNodeList(nodeBuilder, node);
+        long weight = node.getSamplingWeight() > 1 ?
+                multiplySaturated(parentWeight, node.getSamplingWeight()) :
+                parentWeight;
+        long width = multiplySaturated(node.getWidth(), weight);
+        int child = tree.updateChild(parent, frames.getId(node.getNodeInfo()), width);
+        long childrenWidth = 0;
         for (TreeProtos.Tree.Node childNode : node.getNodesList()) {
-            addNodesRecursively(nodeBuilder, childNode, depth);
+            childrenWidth = addSaturated(childrenWidth, addNodesRecursively(tree, child, childNode, depth, weight));
+        }
+        if (childrenWidth > width) {
+            tree.addWidth(child, childrenWidth - width);
+            return childrenWidth;
+        }
+        return width;
+    }
+
+    private static long addSaturated(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long multiplySaturated(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
         }
     }
 }
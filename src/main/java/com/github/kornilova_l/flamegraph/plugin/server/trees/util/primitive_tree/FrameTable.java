@@ -0,0 +1,139 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree;
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil;
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree.Node.NodeInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of frames (class name, method name and description) of {@link PrimitiveTree}.
+ * Each distinct frame gets int id, so nodes of trees store only this id
+ * and algorithms compare ids instead of strings. Names are resolved only when tree is converted to protobuf.
+ * One NodeInfo is created for each frame and it is shared by all protobuf nodes of the frame.
+ * <p>
+ * Each loaded file has its own table which is shared by all trees of the file,
+ * so frames are released together with trees when file is evicted.
+ * Ids may be assigned by several requests of the same file at the same time, so this class is thread-safe
+ */
+public final class FrameTable {
+    /* map entry, Frame, NodeInfo, comparable name and headers of strings */
+    private static final int FRAME_OVERHEAD_BYTES = 200;
+    private final Map<Frame, Integer> ids = new ConcurrentHashMap<>();
+    /* arrays are replaced when they grow, frame is put to arrays before its id is published in map */
+    private volatile NodeInfo[] nodeInfos = new NodeInfo[64];
+    /* class name + method name, trees are sorted by it */
+    private volatile String[] comparableNames = new String[64];
+    private volatile int size = 0;
+    /* chars of class names, method names, descriptions and comparable names */
+    private volatile long charsCount = 0;
+
+    public int getId(@NotNull String className,
+                     @NotNull String methodName,
+                     @NotNull String description) {
+        Frame frame = new Frame(className, methodName, description);
+        Integer id = ids.get(frame);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(frame);
+            if (id == null) {
+                id = addFrame(className, methodName, description);
+                ids.put(frame, id);
+            }
+            return id;
+        }
+    }
+
+    private int addFrame(String className, String methodName, String description) {
+        int id = size;
+        if (id == nodeInfos.length) {
+            nodeInfos = Arrays.copyOf(nodeInfos, id * 2);
+            comparableNames = Arrays.copyOf(comparableNames, id * 2);
+        }
+        nodeInfos[id] = TreesUtil.INSTANCE.createNodeInfo(className, methodName, description).build();
+        comparableNames[id] = className + methodName;
+        charsCount += 2 * (className.length() + methodName.length()) + description.length();
+        size = id + 1;
+        return id;
+    }
+
+    public int getId(@NotNull NodeInfo nodeInfo) {
+        return getId(nodeInfo.getClassName(), nodeInfo.getMethodName(), nodeInfo.getDescription());
+    }
+
+    @NotNull
+    public NodeInfo getNodeInfo(int id) {
+        return nodeInfos[id];
+    }
+
+    @NotNull
+    public String getClassName(int id) {
+        return nodeInfos[id].getClassName();
+    }
+
+    @NotNull
+    public String getMethodName(int id) {
+        return nodeInfos[id].getMethodName();
+    }
+
+    @NotNull
+    public String getDescription(int id) {
+        return nodeInfos[id].getDescription();
+    }
+
+    /**
+     * @return class name + method name
+     */
+    @NotNull
+    public String getComparableName(int id) {
+        return comparableNames[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate size of frames and arrays of table
+     */
+    public long getRetainedBytes() {
+        return (long) nodeInfos.length * 2 * Long.BYTES +
+                (long) size * FRAME_OVERHEAD_BYTES +
+                charsCount * Character.BYTES;
+    }
+
+    private static final class Frame {
+        private final String className;
+        private final String methodName;
+        private final String description;
+
+        Frame(String className, String methodName, String description) {
+            this.className = className;
+            this.methodName = methodName;
+            this.description = description;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Frame)) {
+                return false;
+            }
+            Frame other = (Frame) o;
+            return methodName.equals(other.methodName) &&
+                    className.equals(other.className) &&
+                    description.equals(other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * className.hashCode() + methodName.hashCode()) + description.hashCode();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Accumulative tree (call traces, back traces and trees of methods) stored in arrays.
+ * Node is an index in arrays, base node has index {@link #BASE_NODE}.
+ * Parent is always added before its children, so index of parent is less than indices of children.
+ * Node stores id of frame from {@link FrameTable} instead of NodeInfo.
+ * <p>
+ * While tree is built children are found by hash index and new children are appended to the end,
+ * children are sorted by class name and method name only once in {@link #finish()}.
+ * <p>
+ * Protobuf Tree is created by {@link #toProto()} only when tree is sent to client
+ */
+public final class PrimitiveTree {
+    public static final int BASE_NODE = 0;
+    public static final int NO_NODE = -1;
+    private static final long NO_KEY = -1;
+    private final FrameTable frames;
+    private int size = 0;
+    private int[] parents = new int[16];
+    private int[] firstChildren = new int[16];
+    private int[] lastChildren = new int[16];
+    private int[] nextSiblings = new int[16];
+    private int[] frameIds = new int[16];
+    private long[] widths = new long[16];
+    private long[] offsets = new long[16];
+    private long width;
+    private int depth;
+    private float timePercent;
+    private EventProtos.TimeUnit timeUnit = EventProtos.TimeUnit.MILLISECONDS;
+    /* open-addressing index: (parent, frame id) -> child. It exists only while tree is built */
+    private long[] indexKeys = null;
+    private int[] indexNodes = null;
+    private int indexSize = 0;
+    private boolean childrenSorted = true;
+
+    public PrimitiveTree(@NotNull FrameTable frames) {
+        this.frames = frames;
+        newNode(NO_NODE, NO_NODE, 0);
+    }
+
+    /**
+     * Converts protobuf tree. Order of children is kept
+     */
+    @NotNull
+    public static PrimitiveTree fromProto(@NotNull Tree tree, @NotNull FrameTable frames) {
+        PrimitiveTree primitiveTree = new PrimitiveTree(frames);
+        List<Tree.Node> protoNodes = new ArrayList<>();
+        List<Integer> addedParents = new ArrayList<>();
+        protoNodes.add(tree.getBaseNode());
+        addedParents.add(NO_NODE);
+        while (!protoNodes.isEmpty()) {
+            int last = protoNodes.size() - 1;
+            Tree.Node protoNode = protoNodes.remove(last);
+            int parent = addedParents.remove(last);
+            int node = BASE_NODE;
+            if (parent != NO_NODE) {
+                node = primitiveTree.addChild(parent, frames.getId(protoNode.getNodeInfo()), protoNode.getWidth());
+                primitiveTree.offsets[node] = protoNode.getOffset();
+            }
+            for (int i = protoNode.getNodesCount() - 1; i >= 0; i--) { // so first child is added first
+                protoNodes.add(protoNode.getNodes(i));
+                addedParents.add(node);
+            }
+        }
+        primitiveTree.width = tree.getWidth();
+        primitiveTree.depth = tree.getDepth();
+        primitiveTree.timePercent = tree.getTreeInfo().getTimePercent();
+        primitiveTree.timeUnit = tree.getTreeInfo().getTimeUnit();
+        return primitiveTree;
+    }
+
+    @NotNull
+    public FrameTable getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return approximate size of arrays of tree (frames are shared by trees of file and they are not counted)
+     */
+    public long getRetainedBytes() {
+        long bytes = (long) parents.length * (5 * Integer.BYTES + 2 * Long.BYTES);
+        if (indexKeys != null) {
+            bytes += (long) indexKeys.length * (Long.BYTES + Integer.BYTES);
+        }
+        return bytes;
+    }
+
+    /**
+     * Base node is not counted
+     */
+    public int getNodesCount() {
+        return size - 1;
+    }
+
+    /**
+     * Adds node after last child of parent.
+     * Children that are added by this method must be added in right order
+     *
+     * @return index of new node
+     */
+    public int addChild(int parent, int frameId, long width) {
+        int child = insertChild(parent, lastChildren[parent], frameId, width);
+        if (indexKeys != null) {
+            long key = getIndexKey(parent, frameId);
+            int slot = findSlot(key);
+            if (indexKeys[slot] == NO_KEY) {
+                putToIndex(slot, key, child);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Does the same as {@link com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil#updateNodeList}:
+     * if parent has child with the same frame then width is added to the child,
+     * otherwise new child is created. Order of children is restored in {@link #finish()}
+     *
+     * @return index of updated or created child
+     */
+    public int updateChild(int parent, int frameId, long width) {
+        if (indexKeys == null) {
+            buildIndex();
+        }
+        long key = getIndexKey(parent, frameId);
+        int slot = findSlot(key);
+        if (indexKeys[slot] == key) {
+            int child = indexNodes[slot];
+            widths[child] += width;
+            return child;
+        }
+        int child = insertChild(parent, lastChildren[parent], frameId, width);
+        childrenSorted = false;
+        putToIndex(slot, key, child);
+        return child;
+    }
+
+    private static long getIndexKey(int parent, int frameId) {
+        return ((long) parent << 32) | frameId;
+    }
+
+    /**
+     * @return slot with given key or empty slot where key must be put
+     */
+    private int findSlot(long key) {
+        int mask = indexKeys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (indexKeys[slot] != NO_KEY && indexKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void putToIndex(int slot, long key, int node) {
+        indexKeys[slot] = key;
+        indexNodes[slot] = node;
+        indexSize++;
+        if (indexSize * 2 > indexKeys.length) {
+            long[] oldKeys = indexKeys;
+            int[] oldNodes = indexNodes;
+            createIndex(indexKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != NO_KEY) {
+                    int newSlot = findSlot(oldKeys[i]);
+                    indexKeys[newSlot] = oldKeys[i];
+                    indexNodes[newSlot] = oldNodes[i];
+                    indexSize++;
+                }
+            }
+        }
+    }
+
+    private void createIndex(int capacity) {
+        indexKeys = new long[capacity];
+        Arrays.fill(indexKeys, NO_KEY);
+        indexNodes = new int[capacity];
+        indexSize = 0;
+    }
+
+    private void buildIndex() {
+        createIndex(Math.max(16, Integer.highestOneBit(size * 4)));
+        for (int node = BASE_NODE + 1; node < size; node++) {
+            long key = getIndexKey(parents[node], frameIds[node]);
+            int slot = findSlot(key);
+            if (indexKeys[slot] == NO_KEY) {
+                putToIndex(slot, key, node);
+            }
+        }
+    }
+
+    private int insertChild(int parent, int previous, int frameId, long width) {
+        int node = newNode(parent, frameId, width);
+        if (previous == NO_NODE) {
+            nextSiblings[node] = firstChildren[parent];
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[node] = nextSiblings[previous];
+            nextSiblings[previous] = node;
+        }
+        if (nextSiblings[node] == NO_NODE) {
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    private int newNode(int parent, int frameId, long width) {
+        if (size == parents.length) {
+            grow();
+        }
+        int node = size++;
+        parents[node] = parent;
+        firstChildren[node] = NO_NODE;
+        lastChildren[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        frameIds[node] = frameId;
+        widths[node] = width;
+        offsets[node] = 0;
+        return node;
+    }
+
+    private void grow() {
+        grow(parents.length * 2);
+    }
+
+    /**
+     * Allocates arrays for given count of nodes (including base node)
+     */
+    void ensureCapacity(int nodesCount) {
+        if (nodesCount > parents.length) {
+            grow(nodesCount);
+        }
+    }
+
+    private void grow(int newLength) {
+        parents = Arrays.copyOf(parents, newLength);
+        firstChildren = Arrays.copyOf(firstChildren, newLength);
+        lastChildren = Arrays.copyOf(lastChildren, newLength);
+        nextSiblings = Arrays.copyOf(nextSiblings, newLength);
+        frameIds = Arrays.copyOf(frameIds, newLength);
+        widths = Arrays.copyOf(widths, newLength);
+        offsets = Arrays.copyOf(offsets, newLength);
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * @return child with given index or {@link #NO_NODE} if node has less children
+     */
+    public int getChild(int node, int index) {
+        int child = firstChildren[node];
+        for (int i = 0; i < index && child != NO_NODE; i++) {
+            child = nextSiblings[child];
+        }
+        return child;
+    }
+
+    public boolean hasChildren(int node) {
+        return firstChildren[node] != NO_NODE;
+    }
+
+    /**
+     * Base node does not have frame
+     */
+    public int getFrameId(int node) {
+        return frameIds[node];
+    }
+
+    public long getWidth(int node) {
+        return widths[node];
+    }
+
+    public void addWidth(int node, long width) {
+        widths[node] += width;
+    }
+
+    void setOffset(int node, long offset) {
+        offsets[node] = offset;
+    }
+
+    public long getOffset(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * Finishes building of tree:
+     * sorts children that were added by {@link #updateChild(int, int, long)},
+     * sets offsets of nodes (children are placed one after another starting from offset of parent)
+     * and width of tree. Index of children is released
+     */
+    public void finish() {
+        indexKeys = null;
+        indexNodes = null;
+        indexSize = 0;
+        if (!childrenSorted) {
+            sortChildren();
+        }
+        for (int node = 0; node < size; node++) { // parent is always processed before its children
+            long offset = offsets[node];
+            for (int child = firstChildren[node]; child != NO_NODE; child = nextSiblings[child]) {
+                offsets[child] = offset;
+                offset += widths[child];
+            }
+        }
+        int lastNode = lastChildren[BASE_NODE];
+        width = lastNode == NO_NODE ? 0 : offsets[lastNode] + widths[lastNode];
+    }
+
+    /**
+     * Children are sorted by class name + method name.
+     * Children with the same name keep order in which they were added
+     * (it is the order in which TreesUtil.updateNodeList places them)
+     */
+    private void sortChildren() {
+        int[] ranks = getRanksOfFrames();
+        long[] sortedChildren = new long[16];
+        for (int node = 0; node < size; node++) {
+            int firstChild = firstChildren[node];
+            if (firstChild == NO_NODE || nextSiblings[firstChild] == NO_NODE) {
+                continue;
+            }
+            int count = 0;
+            for (int child = firstChild; child != NO_NODE; child = nextSiblings[child]) {
+                if (count == sortedChildren.length) {
+                    sortedChildren = Arrays.copyOf(sortedChildren, count * 2);
+                }
+                /* child added later has bigger index */
+                sortedChildren[count++] = ((long) ranks[frameIds[child]] << 32) | child;
+            }
+            Arrays.sort(sortedChildren, 0, count);
+            int previous = (int) sortedChildren[0];
+            firstChildren[node] = previous;
+            for (int i = 1; i < count; i++) {
+                int child = (int) sortedChildren[i];
+                nextSiblings[previous] = child;
+                previous = child;
+            }
+            nextSiblings[previous] = NO_NODE;
+            lastChildren[node] = previous;
+        }
+        childrenSorted = true;
+    }
+
+    /**
+     * Only frames of this tree are ranked because table of frames is shared by all trees
+     *
+     * @return position of each frame of tree in frames sorted by class name + method name.
+     * Frames with the same class name and method name have the same position
+     */
+    private int[] getRanksOfFrames() {
+        int maxFrameId = 0;
+        for (int node = BASE_NODE + 1; node < size; node++) {
+            maxFrameId = Math.max(maxFrameId, frameIds[node]);
+        }
+        int[] ranks = new int[maxFrameId + 1];
+        Arrays.fill(ranks, -1);
+        List<Integer> sortedFrames = new ArrayList<>();
+        for (int node = BASE_NODE + 1; node < size; node++) {
+            int frameId = frameIds[node];
+            if (ranks[frameId] == -1) {
+                ranks[frameId] = 0;
+                sortedFrames.add(frameId);
+            }
+        }
+        sortedFrames.sort((frame1, frame2) ->
+                frames.getComparableName(frame1).compareTo(frames.getComparableName(frame2)));
+        int rank = 0;
+        for (int i = 0; i < sortedFrames.size(); i++) {
+            if (i > 0 && !frames.getComparableName(sortedFrames.get(i))
+                    .equals(frames.getComparableName(sortedFrames.get(i - 1)))) {
+                rank++;
+            }
+            ranks[sortedFrames.get(i)] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * @return count of layers below node (0 if node does not have children)
+     */
+    public int getMaxDepth(int node) {
+        int maxDepth = 0;
+        int currentDepth = 0;
+        int current = node;
+        while (true) {
+            if (firstChildren[current] != NO_NODE) {
+                current = firstChildren[current];
+                currentDepth++;
+                if (currentDepth > maxDepth) {
+                    maxDepth = currentDepth;
+                }
+                continue;
+            }
+            while (current != node && nextSiblings[current] == NO_NODE) {
+                current = parents[current];
+                currentDepth--;
+            }
+            if (current == node) {
+                return maxDepth;
+            }
+            current = nextSiblings[current];
+        }
+    }
+
+    /**
+     * Width of whole tree. It is set in {@link #finish()}
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    void setWidth(long width) {
+        this.width = width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public float getTimePercent() {
+        return timePercent;
+    }
+
+    public void setTimePercent(float timePercent) {
+        this.timePercent = timePercent;
+    }
+
+    @NotNull
+    public EventProtos.TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    public void setTimeUnit(@NotNull EventProtos.TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    @NotNull
+    public Tree toProto() {
+        Tree.Builder treeBuilder = Tree.newBuilder()
+                .setBaseNode(toProtoNode(BASE_NODE, Integer.MAX_VALUE))
+                .setDepth(depth)
+                .setWidth(width);
+        treeBuilder.getTreeInfoBuilder()
+                .setNodesCount(getNodesCount())
+                .setTimePercent(timePercent)
+                .setTimeUnit(timeUnit);
+        return treeBuilder.build();
+    }
+
+    /**
+     * Protobuf nodes are built from bottom to top, so no recursion is needed
+     *
+     * @param node           this node and its descendants are converted
+     * @param lastLayerIndex index of last converted layer below node (1 means that only children of node are converted)
+     * @return protobuf node
+     */
+    @NotNull
+    public Tree.Node toProtoNode(int node, int lastLayerIndex) {
+        /* nodes in breadth-first order, children of one node are stored one after another */
+        int[] order = new int[16];
+        int[] childrenStart = new int[16];
+        int[] childrenEnd = new int[16];
+        int count = 1;
+        order[0] = node;
+        int layerIndex = 0;
+        int layerEnd = 1;
+        for (int i = 0; i < count; i++) {
+            if (i == layerEnd) {
+                layerIndex++;
+                layerEnd = count;
+            }
+            if (i == childrenStart.length) {
+                childrenStart = Arrays.copyOf(childrenStart, i * 2);
+                childrenEnd = Arrays.copyOf(childrenEnd, i * 2);
+            }
+            childrenStart[i] = count;
+            if (layerIndex < lastLayerIndex) {
+                for (int child = firstChildren[order[i]]; child != NO_NODE; child = nextSiblings[child]) {
+                    if (count == order.length) {
+                        order = Arrays.copyOf(order, count * 2);
+                    }
+                    order[count++] = child;
+                }
+            }
+            childrenEnd[i] = count;
+        }
+        Tree.Node[] built = new Tree.Node[count];
+        for (int i = count - 1; i >= 0; i--) {
+            int current = order[i];
+            Tree.Node.Builder nodeBuilder = Tree.Node.newBuilder();
+            if (current != BASE_NODE) {
+                nodeBuilder.setWidth(widths[current])
+                        .setOffset(offsets[current])
+                        .setNodeInfo(frames.getNodeInfo(frameIds[current]));
+            }
+            for (int j = childrenStart[i]; j < childrenEnd[i]; j++) {
+                nodeBuilder.addNodes(built[j]);
+                built[j] = null;
+            }
+            built[i] = nodeBuilder.build();
+        }
+        return built[0];
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree;
+
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary file with {@link PrimitiveTree} that was built from source file.
+ * File is read through memory mapping, so loading of tree does not parse source file again.
+ * <p>
+ * Format (numbers are big-endian, strings are length of UTF-8 bytes and bytes):
+ * magic, version, length and modification time of source file, path of source file,
+ * time unit, time percent, depth, width,
+ * count of frames and class name, method name and description of each frame,
+ * count of nodes (including base node) and parents, frame ids, widths and offsets of nodes.
+ * Nodes are written in preorder, so children of each node follow in the same order as in tree.
+ * <p>
+ * File is used only if it has the same version and if length and modification time of source file did not change.
+ * Counts, lengths and indices are checked when file is read, so corrupted file is not used
+ */
+public final class PrimitiveTreeFile {
+    private static final int MAGIC = 0x46474354; // "FGCT"
+    private static final int VERSION = 1;
+
+    private PrimitiveTreeFile() {
+    }
+
+    /**
+     * File is written to temporary file and then moved, so readers never see partially written file
+     */
+    public static void write(@NotNull PrimitiveTree tree,
+                             @NotNull File file,
+                             @NotNull File sourceFile) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(sourceFile.length());
+            outputStream.writeLong(sourceFile.lastModified());
+            writeString(outputStream, sourceFile.getAbsolutePath());
+            outputStream.writeInt(tree.getTimeUnit().getNumber());
+            outputStream.writeFloat(tree.getTimePercent());
+            outputStream.writeInt(tree.getDepth());
+            outputStream.writeLong(tree.getWidth());
+            int[] nodes = getNodesInPreorder(tree);
+            int[] localFrameIds = writeFrames(outputStream, tree, nodes);
+            int[] newIndices = new int[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                newIndices[nodes[i]] = i;
+            }
+            outputStream.writeInt(nodes.length);
+            for (int node : nodes) {
+                int parent = tree.getParent(node);
+                outputStream.writeInt(parent == PrimitiveTree.NO_NODE ? PrimitiveTree.NO_NODE : newIndices[parent]);
+            }
+            for (int node : nodes) {
+                outputStream.writeInt(node == PrimitiveTree.BASE_NODE ? PrimitiveTree.NO_NODE : localFrameIds[tree.getFrameId(node)]);
+            }
+            for (int node : nodes) {
+                outputStream.writeLong(tree.getWidth(node));
+            }
+            for (int node : nodes) {
+                outputStream.writeLong(tree.getOffset(node));
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return tree or null if file was written by other version, for other state of source file
+     * or if it is truncated or corrupted
+     */
+    @Nullable
+    public static PrimitiveTree read(@NotNull File file,
+                                     @NotNull File sourceFile,
+                                     @NotNull FrameTable frames) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!isValidHeader(buffer, sourceFile)) {
+                return null;
+            }
+            EventProtos.TimeUnit timeUnit = EventProtos.TimeUnit.forNumber(buffer.getInt());
+            float timePercent = buffer.getFloat();
+            int depth = buffer.getInt();
+            long width = buffer.getLong();
+            int[] frameIds = readFrames(buffer, frames);
+            int nodesCount = buffer.getInt();
+            checkCount(buffer, nodesCount, 2 * Integer.BYTES + 2 * Long.BYTES);
+            if (nodesCount == 0) { // base node is always saved
+                return null;
+            }
+            int[] parents = new int[nodesCount];
+            buffer.asIntBuffer().get(parents);
+            buffer.position(buffer.position() + nodesCount * Integer.BYTES);
+            int[] localFrameIds = new int[nodesCount];
+            buffer.asIntBuffer().get(localFrameIds);
+            buffer.position(buffer.position() + nodesCount * Integer.BYTES);
+            long[] widths = new long[nodesCount];
+            buffer.asLongBuffer().get(widths);
+            buffer.position(buffer.position() + nodesCount * Long.BYTES);
+            long[] offsets = new long[nodesCount];
+            buffer.asLongBuffer().get(offsets);
+
+            /* nodes are in preorder, so parent of node is before it */
+            for (int node = PrimitiveTree.BASE_NODE + 1; node < nodesCount; node++) {
+                if (parents[node] < 0 || parents[node] >= node ||
+                        localFrameIds[node] < 0 || localFrameIds[node] >= frameIds.length) {
+                    return null;
+                }
+            }
+            PrimitiveTree tree = new PrimitiveTree(frames);
+            tree.ensureCapacity(nodesCount);
+            for (int node = PrimitiveTree.BASE_NODE + 1; node < nodesCount; node++) {
+                tree.addChild(parents[node], frameIds[localFrameIds[node]], widths[node]);
+                tree.setOffset(node, offsets[node]);
+            }
+            tree.setWidth(width);
+            tree.setDepth(depth);
+            tree.setTimePercent(timePercent);
+            tree.setTimeUnit(timeUnit == null ? EventProtos.TimeUnit.MILLISECONDS : timeUnit);
+            return tree;
+        } catch (BufferUnderflowException | CorruptedFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return path of source file or null if file is not a tree file of current version
+     */
+    @Nullable
+    public static String readSourcePath(@NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 2 * Integer.BYTES + 2 * Long.BYTES ||
+                    buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            buffer.getLong(); // length
+            buffer.getLong(); // modification time
+            return readString(buffer);
+        } catch (BufferUnderflowException | CorruptedFileException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValidHeader(ByteBuffer buffer, File sourceFile) throws CorruptedFileException {
+        return buffer.remaining() >= 2 * Integer.BYTES + 2 * Long.BYTES &&
+                buffer.getInt() == MAGIC &&
+                buffer.getInt() == VERSION &&
+                buffer.getLong() == sourceFile.length() &&
+                buffer.getLong() == sourceFile.lastModified() &&
+                readString(buffer).equals(sourceFile.getAbsolutePath());
+    }
+
+    /**
+     * Ids of frames in file are indices of frames in file, not ids from FrameTable
+     *
+     * @return local id of each frame of tree (index is frame id from FrameTable)
+     */
+    private static int[] writeFrames(DataOutputStream outputStream,
+                                     PrimitiveTree tree,
+                                     int[] nodes) throws IOException {
+        int maxFrameId = 0;
+        for (int node : nodes) {
+            if (node != PrimitiveTree.BASE_NODE) {
+                maxFrameId = Math.max(maxFrameId, tree.getFrameId(node));
+            }
+        }
+        int[] localFrameIds = new int[maxFrameId + 1];
+        Arrays.fill(localFrameIds, -1);
+        int[] usedFrames = new int[maxFrameId + 1];
+        int framesCount = 0;
+        for (int node : nodes) {
+            if (node != PrimitiveTree.BASE_NODE && localFrameIds[tree.getFrameId(node)] == -1) {
+                localFrameIds[tree.getFrameId(node)] = framesCount;
+                usedFrames[framesCount++] = tree.getFrameId(node);
+            }
+        }
+        FrameTable frames = tree.getFrames();
+        outputStream.writeInt(framesCount);
+        for (int i = 0; i < framesCount; i++) {
+            writeString(outputStream, frames.getClassName(usedFrames[i]));
+            writeString(outputStream, frames.getMethodName(usedFrames[i]));
+            writeString(outputStream, frames.getDescription(usedFrames[i]));
+        }
+        return localFrameIds;
+    }
+
+    /**
+     * @return ids from FrameTable for each local id of frame
+     */
+    private static int[] readFrames(ByteBuffer buffer, FrameTable frames) throws CorruptedFileException {
+        int framesCount = buffer.getInt();
+        checkCount(buffer, framesCount, 3 * Integer.BYTES);
+        int[] frameIds = new int[framesCount];
+        for (int i = 0; i < framesCount; i++) {
+            frameIds[i] = frames.getId(readString(buffer), readString(buffer), readString(buffer));
+        }
+        return frameIds;
+    }
+
+    /**
+     * Parent is visited before its children, children are visited in order
+     */
+    private static int[] getNodesInPreorder(PrimitiveTree tree) {
+        int[] nodes = new int[tree.getNodesCount() + 1];
+        int count = 0;
+        int node = PrimitiveTree.BASE_NODE;
+        while (true) {
+            nodes[count++] = node;
+            if (tree.hasChildren(node)) {
+                node = tree.getFirstChild(node);
+                continue;
+            }
+            while (node != PrimitiveTree.BASE_NODE && tree.getNextSibling(node) == PrimitiveTree.NO_NODE) {
+                node = tree.getParent(node);
+            }
+            if (node == PrimitiveTree.BASE_NODE) {
+                return nodes;
+            }
+            node = tree.getNextSibling(node);
+        }
+    }
+
+    private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws CorruptedFileException {
+        int length = buffer.getInt();
+        checkCount(buffer, length, 1);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that count read from file is not negative and that buffer contains all elements,
+     * so arrays of wrong size are not allocated
+     */
+    private static void checkCount(ByteBuffer buffer, int count, int elementBytes) throws CorruptedFileException {
+        if (count < 0 || count > buffer.remaining() / elementBytes) {
+            throw new CorruptedFileException();
+        }
+    }
+
+    private static class CorruptedFileException extends Exception {
+        CorruptedFileException() {
+            super(null, null, false, false); // stack trace is not needed
+        }
+    }
+}
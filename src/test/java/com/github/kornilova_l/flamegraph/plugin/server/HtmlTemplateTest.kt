@@ -0,0 +1,23 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+
+class HtmlTemplateTest {
+    @Test
+    fun placeholdersAreReplaced() {
+        val file = File.createTempFile("page", ".html")
+        file.deleteOnExit()
+        file.writeText("<a href=\"/call-tree?{{ fileParam }}project={{ projectName }}{{ filter }}\">\n" +
+                "<a href=\"/hot-spots?{{ fileParam }}project={{ projectName }}\">")
+
+        val template = HtmlTemplate.read(file)
+
+        assertEquals("<a href=\"/call-tree?file=a.ser&project=p&include=x\">" +
+                "<a href=\"/hot-spots?file=a.ser&project=p\">",
+                template.render("p", "file=a.ser&", "&include=x"))
+        assertEquals("<a href=\"/call-tree?project=\"><a href=\"/hot-spots?project=\">",
+                template.render("", "", ""))
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.UnpooledByteBufAllocator
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.http.HttpContent
+import io.netty.handler.codec.http.LastHttpContent
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.IOException
+import java.util.*
+
+class HttpChunksOutputStreamTest {
+    private val allocator = RecordingAllocator()
+    private val channel = EmbeddedChannel()
+
+    init {
+        channel.config().setAllocator(allocator)
+    }
+
+    @Test
+    fun fullChunksAreSentAndRestIsSentOnClose() {
+        val bytes = ByteArray(2 * CHUNK_SIZE + 100) { it.toByte() }
+        val outputStream = HttpChunksOutputStream(channel)
+        outputStream.write(bytes)
+
+        assertEquals(listOf(CHUNK_SIZE, CHUNK_SIZE), readChunks().map { it.size })
+        assertTrue(channel.isOpen)
+
+        outputStream.close()
+
+        val sent = readChunks()
+        assertEquals(listOf(100), sent.map { it.size })
+        assertArrayEquals(Arrays.copyOfRange(bytes, 2 * CHUNK_SIZE, bytes.size), sent[0])
+        assertSame(LastHttpContent.EMPTY_LAST_CONTENT, channel.readOutbound<Any>())
+        assertNull(channel.readOutbound<Any>())
+        assertFalse(channel.isOpen)
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    fun writesOfDifferentSizesFillChunks() {
+        val bytes = ByteArray(CHUNK_SIZE + 1) { (it % 7).toByte() }
+        val outputStream = HttpChunksOutputStream(channel)
+        outputStream.write(bytes, 0, 10)
+        outputStream.write(bytes[10].toInt())
+        outputStream.write(bytes, 11, bytes.size - 11)
+        outputStream.close()
+
+        val sent = readChunks()
+        assertEquals(listOf(CHUNK_SIZE, 1), sent.map { it.size })
+        assertArrayEquals(bytes, sent[0] + sent[1])
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    fun flushSendsNotFullChunk() {
+        val outputStream = HttpChunksOutputStream(channel)
+        outputStream.write(ByteArray(10))
+        outputStream.flush()
+        outputStream.flush() // empty chunk is not sent
+
+        assertEquals(listOf(10), readChunks().map { it.size })
+        outputStream.close()
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    fun chunkIsReleasedOnAbort() {
+        val outputStream = HttpChunksOutputStream(channel)
+        outputStream.write(ByteArray(100))
+        outputStream.abort()
+
+        assertNull(channel.readOutbound<Any>())
+        assertFalse(channel.isOpen)
+        assertEquals(1, allocator.buffers.size)
+        assertAllBuffersReleased()
+        try {
+            outputStream.write(1)
+            fail("Stream is closed")
+        } catch (expected: IOException) {
+        }
+    }
+
+    @Test
+    fun chunkIsReleasedIfChannelIsInactive() {
+        val outputStream = HttpChunksOutputStream(channel)
+        outputStream.write(ByteArray(100))
+        channel.close()
+        try {
+            outputStream.flush()
+            fail("Channel is closed")
+        } catch (expected: IOException) {
+        }
+        assertAllBuffersReleased()
+
+        outputStream.abort()
+        assertAllBuffersReleased()
+    }
+
+    /**
+     * Sent buffers are released like netty releases them after they are written to socket
+     */
+    private fun readChunks(): List<ByteArray> {
+        val chunks = ArrayList<ByteArray>()
+        while (true) {
+            val message = channel.outboundMessages().peek()
+            if (message !is HttpContent || message is LastHttpContent) {
+                return chunks
+            }
+            channel.readOutbound<HttpContent>()
+            val content = message.content()
+            val bytes = ByteArray(content.readableBytes())
+            content.readBytes(bytes)
+            assertEquals(1, message.refCnt())
+            message.release()
+            chunks.add(bytes)
+        }
+    }
+
+    private fun assertAllBuffersReleased() {
+        for (buffer in allocator.buffers) {
+            assertEquals(0, buffer.refCnt())
+        }
+    }
+
+    private class RecordingAllocator : UnpooledByteBufAllocator(false) {
+        val buffers = ArrayList<ByteBuf>()
+
+        override fun newHeapBuffer(initialCapacity: Int, maxCapacity: Int): ByteBuf =
+                super.newHeapBuffer(initialCapacity, maxCapacity).also { buffers.add(it) }
+
+        override fun newDirectBuffer(initialCapacity: Int, maxCapacity: Int): ByteBuf =
+                super.newDirectBuffer(initialCapacity, maxCapacity).also { buffers.add(it) }
+    }
+
+    companion object {
+        private const val CHUNK_SIZE = 64 * 1024
+    }
+}
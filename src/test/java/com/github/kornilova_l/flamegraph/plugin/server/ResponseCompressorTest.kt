@@ -0,0 +1,141 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.util.*
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import java.util.zip.InflaterInputStream
+
+class ResponseCompressorTest {
+
+    /**
+     * Sizes are: smaller than buffer of stream, several buffers and more than 64 KB
+     */
+    @Test
+    fun compressedBytesAreDecompressed() {
+        for (size in listOf(100, 3 * 8192 + 17, 200_000)) {
+            val bytes = getBytes(size, 1)
+            assertArrayEquals(bytes, GZIPInputStream(ByteArrayInputStream(
+                    ResponseCompressor.compress(bytes, ResponseCompressor.GZIP))).readFully())
+            assertArrayEquals(bytes, InflaterInputStream(ByteArrayInputStream(
+                    ResponseCompressor.compress(bytes, ResponseCompressor.DEFLATE))).readFully())
+        }
+    }
+
+    /**
+     * Checksum of gzip must be updated on each write
+     */
+    @Test
+    fun bytesThatAreWrittenInPartsAreDecompressed() {
+        val bytes = getBytes(100_000, 2)
+        for (encoding in listOf(ResponseCompressor.GZIP, ResponseCompressor.DEFLATE)) {
+            val compressed = ByteArrayOutputStream()
+            ResponseCompressor.newOutputStream(compressed, encoding).use { outputStream ->
+                var offset = 0
+                while (offset < bytes.size) {
+                    val length = Math.min(7_000, bytes.size - offset)
+                    outputStream.write(bytes, offset, length)
+                    offset += length
+                }
+            }
+            val inputStream = ByteArrayInputStream(compressed.toByteArray())
+            val decompressed = if (encoding == ResponseCompressor.GZIP) GZIPInputStream(inputStream)
+            else InflaterInputStream(inputStream)
+            assertArrayEquals(bytes, decompressed.readFully())
+        }
+    }
+
+    /**
+     * Deflater of thread is used for previous response,
+     * output must be the same as output of new deflater (level is default)
+     */
+    @Test
+    fun resetDeflaterGivesTheSameBytesAsNewOne() {
+        val previousResponse = getBytes(50_000, 3)
+        val bytes = getBytes(50_000, 4)
+        ResponseCompressor.compress(previousResponse, ResponseCompressor.GZIP)
+        ResponseCompressor.compress(previousResponse, ResponseCompressor.DEFLATE)
+
+        val gzipBytes = ByteArrayOutputStream()
+        GZIPOutputStream(gzipBytes, 8192).use { it.write(bytes) }
+        /* header is not compared because operating system byte depends on version of jdk */
+        assertArrayEquals(withoutGzipHeader(gzipBytes.toByteArray()),
+                withoutGzipHeader(ResponseCompressor.compress(bytes, ResponseCompressor.GZIP)))
+
+        val deflateBytes = ByteArrayOutputStream()
+        val deflater = Deflater(6)
+        DeflaterOutputStream(deflateBytes, deflater, 8192).use { it.write(bytes) }
+        deflater.end()
+        assertArrayEquals(deflateBytes.toByteArray(), ResponseCompressor.compress(bytes, ResponseCompressor.DEFLATE))
+    }
+
+    @Test
+    fun encodingIsChosen() {
+        assertNull(ResponseCompressor.chooseEncoding(null))
+        assertNull(ResponseCompressor.chooseEncoding("br"))
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("deflate, gzip"))
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("br, deflate"))
+    }
+
+    @Test
+    fun encodingWithZeroQualityIsNotChosen() {
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("gzip;q=0, deflate"))
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("gzip; q=0.0, deflate;q=0.5"))
+        assertNull(ResponseCompressor.chooseEncoding("gzip;q=0, deflate;q=0"))
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("gzip;q=0.1"))
+    }
+
+    @Test
+    fun anyEncodingMeansGzip() {
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("*"))
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("br, *;q=0.5"))
+        assertNull(ResponseCompressor.chooseEncoding("*;q=0"))
+    }
+
+    @Test
+    fun anyEncodingDoesNotAcceptRefusedEncoding() {
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("gzip;q=0, *"))
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("*, gzip;q=0"))
+        assertNull(ResponseCompressor.chooseEncoding("gzip;q=0, deflate;q=0, *"))
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("deflate;q=0, *"))
+    }
+
+    @Test
+    fun encodingIsCaseInsensitive() {
+        assertEquals(ResponseCompressor.GZIP, ResponseCompressor.chooseEncoding("GZip"))
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("DEFLATE"))
+        assertEquals(ResponseCompressor.DEFLATE, ResponseCompressor.chooseEncoding("Gzip;Q=0, Deflate"))
+    }
+
+    @Test
+    fun smallResponsesAndImagesAreNotCompressed() {
+        assertNull(ResponseCompressor.getEncoding(ResponseCompressor.GZIP, "application/json", 100))
+        assertNull(ResponseCompressor.getEncoding(ResponseCompressor.GZIP, "image/png", 100_000))
+        assertNull(ResponseCompressor.getEncoding(null, "application/json", 100_000))
+        assertEquals(ResponseCompressor.GZIP,
+                ResponseCompressor.getEncoding(ResponseCompressor.GZIP, "application/json", 100_000))
+    }
+
+    /**
+     * Bytes look like json: they are compressible but not trivially
+     */
+    private fun getBytes(size: Int, seed: Long): ByteArray {
+        val random = Random(seed)
+        val text = StringBuilder()
+        while (text.length < size) {
+            text.append("{\"name\":\"method").append(random.nextInt(100)).append("\",\"width\":")
+                    .append(random.nextInt()).append("},")
+        }
+        return text.substring(0, size).toByteArray()
+    }
+
+    private fun withoutGzipHeader(bytes: ByteArray): ByteArray = Arrays.copyOfRange(bytes, 10, bytes.size)
+
+    private fun InputStream.readFully(): ByteArray = use { it.readBytes() }
+}
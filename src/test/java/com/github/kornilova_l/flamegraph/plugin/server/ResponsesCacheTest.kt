@@ -0,0 +1,60 @@
+package com.github.kornilova_l.flamegraph.plugin.server
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.zip.GZIPInputStream
+
+class ResponsesCacheTest {
+    private val cache = ResponsesCache(100)
+
+    @Test
+    fun leastRecentlyUsedResponseIsEvicted() {
+        cache.put("a", "application/json", ByteArray(20))
+        cache.put("b", "application/json", ByteArray(20))
+        cache.put("c", "application/json", ByteArray(20))
+        cache.get("a")
+        cache.put("d", "application/json", ByteArray(25))
+        cache.put("e", "application/json", ByteArray(25))
+
+        assertNotNull(cache.get("a"))
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("c"))
+        assertNotNull(cache.get("d"))
+        assertNotNull(cache.get("e"))
+    }
+
+    @Test
+    fun bigResponseIsNotCached() {
+        val response = cache.put("a", "application/json", ByteArray(26))
+        assertNull(cache.get("a"))
+        assertEquals(26, response.bytes.size)
+    }
+
+    @Test
+    fun eTagDependsOnBytes() {
+        val response = cache.put("a", "application/json", "[1]".toByteArray())
+        val sameResponse = cache.put("b", "application/json", "[1]".toByteArray())
+        val otherResponse = cache.put("c", "application/json", "[2]".toByteArray())
+        assertEquals(response.eTag, sameResponse.eTag)
+        assertNotEquals(response.eTag, otherResponse.eTag)
+
+        assertTrue(response.isNotModified(sameResponse.eTag))
+        assertTrue(response.isNotModified("${otherResponse.eTag}, W/${response.eTag}"))
+        assertFalse(response.isNotModified(otherResponse.eTag))
+        assertFalse(response.isNotModified(null))
+    }
+
+    @Test
+    fun compressedVersionHasOwnETag() {
+        val bytes = "[1, 2, 3]".repeat(1000).toByteArray()
+        val response = cache.put("a", "application/json", bytes)
+        val compressed = response.getBytes(ResponseCompressor.GZIP)
+        assertArrayEquals(bytes, GZIPInputStream(compressed.inputStream()).readBytes())
+        assertSame(compressed, response.getBytes(ResponseCompressor.GZIP))
+
+        val eTag = response.getETag(ResponseCompressor.GZIP)
+        assertNotEquals(response.eTag, eTag)
+        assertTrue(response.isNotModified(eTag, ResponseCompressor.GZIP))
+        assertFalse(response.isNotModified(eTag))
+    }
+}
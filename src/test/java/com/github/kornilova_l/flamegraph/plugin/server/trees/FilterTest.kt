@@ -0,0 +1,46 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class FilterTest {
+    private val frames = FrameTable()
+    private val names = listOf(
+            "java.lang" to "run",
+            "java.lang.Thread" to "run",
+            "com.example.Main" to "fun4",
+            "com.example.Main" to "lambda\$main$0",
+            "" to "run")
+
+    @Test
+    fun globPatterns() {
+        check("*", null, true, true, true, true, true)
+        check(null, "*", false, false, false, false, false)
+        check("*run", null, true, true, false, false, true)
+        check("java.lang*", null, true, true, false, false, false)
+        check("java.langrun", null, true, false, false, false, false)
+        check("*fun*", null, false, false, true, false, false)
+        check("java*Thread*", "*Thread*", false, false, false, false, false)
+        check("com*Main*main$*", null, false, false, false, true, false)
+        check("*Main*Main*", null, false, false, false, false, false)
+        check("java**run", null, true, true, false, false, false)
+    }
+
+    @Test
+    fun regexPatterns() {
+        check("java.lang(.Thread)?run", null, true, true, false, false, false)
+        check(null, "*(fun4|run)", false, false, false, true, false)
+    }
+
+    private fun check(include: String?, exclude: String?, vararg expected: Boolean) {
+        val filter = Filter(include, exclude)
+        for (repeat in 0 until 2) { // second time result is taken from cache
+            for ((i, name) in names.withIndex()) {
+                val frameId = frames.getId(name.first, name.second, "()")
+                assertEquals("$include $exclude ${name.first}${name.second}",
+                        expected[i], filter.isFrameIncluded(frames, frameId))
+            }
+        }
+    }
+}
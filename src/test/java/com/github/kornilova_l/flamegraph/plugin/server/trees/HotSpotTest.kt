@@ -22,10 +22,21 @@ class HotSpotTest : LightPlatformCodeInsightFixtureTestCase() {
                 hotspotsJson.replace("},{", "},\n{"))
     }
 
+    fun testGetPageOfHotSpots() {
+        PluginFileManager.deleteAllUploadedFiles()
+        val file = File("$pathToDir/hot_spots_test.flamegraph")
+        FilesUploaderTest.sendFile(file.name, file.readBytes())
+
+        val expectedHotSpots = File("$pathToDir/hot_spots_test.txt").readText()
+                .removePrefix("[").removeSuffix("]").split(",\n")
+        val hotspotsJson = String(sendRequestForHotSpots(file.name, "&offset=1&count=2"))
+        assertEquals("[" + expectedHotSpots.subList(1, 3).joinToString(",") + "]", hotspotsJson)
+    }
+
     companion object {
-        fun sendRequestForHotSpots(fileName: String): ByteArray {
+        fun sendRequestForHotSpots(fileName: String, pageParameters: String = ""): ByteArray {
             val url = URL("http://localhost:${BuiltInServerManager.getInstance().port}" +
-                    "/flamegraph-profiler/hot-spots-json?file=$fileName&project=uploaded-files")
+                    "/flamegraph-profiler/hot-spots-json?file=$fileName&project=uploaded-files$pageParameters")
             val connection = url.openConnection() as HttpURLConnection
             connection.requestMethod = "GET"
 
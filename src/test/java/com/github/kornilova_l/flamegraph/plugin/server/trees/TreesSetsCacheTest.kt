@@ -0,0 +1,175 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees
+
+import com.github.kornilova_l.flamegraph.plugin.server.converters.file_to_call_traces.flamegraph.TreesSetImpl
+import com.github.kornilova_l.flamegraph.plugin.server.trees.TreeManager.TreeType
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class TreesSetsCacheTest {
+    private val dir = Files.createTempDirectory("trees-sets-cache").toFile()
+    private val a = newFile("a")
+    private val b = newFile("b")
+    private val c = newFile("c")
+    private val loadsCount = AtomicInteger()
+    /* size of set that does not have built trees */
+    private val setSize = newTreesSet().estimateRetainedBytes()
+
+    @After
+    fun removeFiles() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun concurrentRequestsLoadFileOnce() {
+        val loadStarted = CountDownLatch(1)
+        val loadAllowed = CountDownLatch(1)
+        val cache = TreesSetsCache(Long.MAX_VALUE) {
+            loadStarted.countDown()
+            assertTrue(loadAllowed.await(10, TimeUnit.SECONDS))
+            load()
+        }
+        val threadsCount = 8
+        val executor = Executors.newFixedThreadPool(threadsCount)
+        try {
+            val results = (0 until threadsCount).map { executor.submit(Callable { cache.get(a) }) }
+            assertTrue(loadStarted.await(10, TimeUnit.SECONDS))
+            loadAllowed.countDown()
+            val treesSets = results.map { it.get(10, TimeUnit.SECONDS) }
+            assertNotNull(treesSets[0])
+            treesSets.forEach { assertSame(treesSets[0], it) }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertEquals(1, loadsCount.get())
+        assertEquals(setSize, cache.getTotalSize())
+    }
+
+    @Test
+    fun fileIsLoadedAgainIfLoadFailed() {
+        val cache = TreesSetsCache(Long.MAX_VALUE) { if (loadsCount.getAndIncrement() == 0) null else newTreesSet() }
+        assertNull(cache.get(a))
+        assertTrue(cache.getPaths().isEmpty())
+        assertEquals(0L, cache.getTotalSize())
+
+        assertNotNull(cache.get(a))
+        assertEquals(2, loadsCount.get())
+        assertEquals(listOf(a.absolutePath), cache.getPaths())
+        assertEquals(setSize, cache.getTotalSize())
+    }
+
+    @Test
+    fun leastRecentlyUsedSetIsEvicted() {
+        val cache = TreesSetsCache(2 * setSize) { load() }
+        val treesSetOfA = cache.get(a)
+        cache.get(b)
+        assertSame(treesSetOfA, cache.get(a)) // b is least recently used now
+        cache.get(c)
+
+        assertEquals(listOf(a.absolutePath, c.absolutePath), cache.getPaths())
+        assertEquals(2 * setSize, cache.getTotalSize())
+        assertEquals(3, loadsCount.get())
+
+        cache.get(b)
+        assertEquals(listOf(c.absolutePath, b.absolutePath), cache.getPaths())
+        assertEquals(4, loadsCount.get())
+    }
+
+    @Test
+    fun mostRecentlyUsedSetIsNotEvicted() {
+        val cache = TreesSetsCache(1) { load() }
+        cache.get(a)
+        cache.get(b)
+        assertEquals(listOf(b.absolutePath), cache.getPaths())
+        assertEquals(setSize, cache.getTotalSize())
+    }
+
+    @Test
+    fun builtTreeUpdatesSizeAndEvictsSets() {
+        val cache = TreesSetsCache(2 * setSize) { load() }
+        val treesSetOfA = cache.get(a)!!
+        val treesSetOfB = cache.get(b)!!
+
+        treesSetOfB.getPrimitiveTree(TreeType.CALL_TRACES, null)
+        val bSize = treesSetOfB.estimateRetainedBytes()
+        assertTrue(bSize > setSize)
+        /* a is least recently used, tree of b does not change order of sets */
+        assertEquals(listOf(b.absolutePath), cache.getPaths())
+        assertEquals(bSize, cache.getTotalSize())
+
+        /* evicted set is not counted when its tree is built */
+        treesSetOfA.getPrimitiveTree(TreeType.CALL_TRACES, null)
+        assertEquals(bSize, cache.getTotalSize())
+
+        treesSetOfB.getPrimitiveTree(TreeType.BACK_TRACES, null)
+        assertTrue(treesSetOfB.estimateRetainedBytes() > bSize)
+        assertEquals(treesSetOfB.estimateRetainedBytes(), cache.getTotalSize())
+    }
+
+    @Test
+    fun modifiedFileIsLoadedAgain() {
+        val cache = TreesSetsCache(Long.MAX_VALUE) { load() }
+        val oldTreesSet = cache.get(a)!!
+        oldTreesSet.getPrimitiveTree(TreeType.CALL_TRACES, null)
+        assertTrue(a.setLastModified(a.lastModified() + 10_000))
+
+        val newTreesSet = cache.get(a)
+        assertNotSame(oldTreesSet, newTreesSet)
+        assertEquals(2, loadsCount.get())
+        /* size of old set is subtracted */
+        assertEquals(setSize, cache.getTotalSize())
+
+        oldTreesSet.getPrimitiveTree(TreeType.BACK_TRACES, null)
+        assertEquals(setSize, cache.getTotalSize())
+    }
+
+    @Test
+    fun clearedSetsAreNotCounted() {
+        val cache = TreesSetsCache(Long.MAX_VALUE) { load() }
+        val treesSet = cache.get(a)!!
+        cache.get(b)
+        cache.clear()
+        assertTrue(cache.getPaths().isEmpty())
+        assertEquals(0L, cache.getTotalSize())
+
+        treesSet.getPrimitiveTree(TreeType.CALL_TRACES, null)
+        assertEquals(0L, cache.getTotalSize())
+        assertNotSame(treesSet, cache.get(a))
+        assertEquals(setSize, cache.getTotalSize())
+    }
+
+    private fun load(): TreesSet {
+        loadsCount.incrementAndGet()
+        return newTreesSet()
+    }
+
+    private fun newFile(name: String): File {
+        val file = File(dir, "$name.ser")
+        file.writeText(name)
+        return file
+    }
+
+    /**
+     *  _________
+     * |m2_|     |
+     * |m1_______|
+     */
+    private fun newTreesSet(): TreesSet {
+        val frames = FrameTable()
+        val tree = PrimitiveTree(frames)
+        val m1 = tree.addChild(PrimitiveTree.BASE_NODE, frames.getId("Class", "m1", "()"), 100)
+        tree.addChild(m1, frames.getId("Class", "m2", "()"), 40)
+        tree.depth = 2
+        tree.finish()
+        return TreesSetImpl(tree)
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.ChannelEventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.ColumnarEventWriter;
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.EventWriter;
+import com.github.kornilova_l.flamegraph.proto.EventProtos;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event.MethodEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventsDecoderTest {
+
+    private static List<Event> createEvents() {
+        List<Event> events = new ArrayList<>();
+        events.add(Event.newBuilder().setHeader(
+                Event.Header.newBuilder().setTimeUnit(EventProtos.TimeUnit.NANOSECONDS)).build());
+        events.add(Event.newBuilder().setNewClass(Event.Map.newBuilder().setId(1).setName("a/B")).build());
+        events.add(Event.newBuilder().setNewThread(Event.Map.newBuilder().setId(7).setName("main")).build());
+        events.add(Event.newBuilder().setNewMethod(Event.NewMethod.newBuilder()
+                .setId(3).setClassNameId(1).setMethodName("withId").setDesc("()V")).build());
+        for (int i = 0; i < 10000; i++) {
+            MethodEvent.Builder methodEvent = MethodEvent.newBuilder()
+                    .setThreadId(7)
+                    .setStartTime(1_000_000_000L + i * 10 - (i % 3) * 5)
+                    .setDuration(i);
+            if (i % 2 == 0) {
+                methodEvent.setMethodId(3);
+            } else {
+                methodEvent.setClassNameId(1).setMethodName("withoutId").setDesc("(I)I").setIsStatic(true);
+            }
+            switch (i % 4) {
+                case 0:
+                    methodEvent.setReturnValue(EventProtos.Var.getDefaultInstance());
+                    break;
+                case 1:
+                    methodEvent.setReturnValue(EventProtos.Var.newBuilder().setI(i));
+                    methodEvent.addParameters(EventProtos.Parameter.newBuilder()
+                            .setIndex(0).setVar(EventProtos.Var.newBuilder().setI(-i)));
+                    break;
+                case 2:
+                    methodEvent.setThrowable(EventProtos.Var.Object.newBuilder().setType("Exception"));
+                    break;
+                default:
+                    methodEvent.setSamplingWeight(10);
+            }
+            events.add(Event.newBuilder().setMethodEvent(methodEvent).build());
+        }
+        return events;
+    }
+
+    private static File write(List<Event> events, boolean columnar) throws IOException {
+        File file = File.createTempFile("events", ".ser");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        try (EventWriter writer = columnar ? new ColumnarEventWriter(file) : new ChannelEventWriter(file)) {
+            for (int i = 0; i < events.size(); i++) {
+                writer.write(events.get(i));
+                if (i % 1000 == 0) {
+                    writer.flush();
+                }
+            }
+        }
+        return file;
+    }
+
+    private static List<String> decode(File file) throws IOException {
+        RecordingListener listener = new RecordingListener();
+        EventsDecoder.decode(file, listener);
+        return listener.records;
+    }
+
+    @Test
+    public void columnarAndDelimitedLogsAreDecodedEqually() throws IOException {
+        List<Event> events = createEvents();
+        List<String> delimited = decode(write(events, false));
+        List<String> columnar = decode(write(events, true));
+        assertEquals(events.size() - 2, delimited.size()); // classes and methods are not passed to listener
+        assertEquals("time unit NANOSECONDS", delimited.get(0));
+        assertEquals("thread 7 main", delimited.get(1));
+        assertEquals(delimited, columnar);
+    }
+
+    @Test
+    public void methodEventIsDecoded() throws IOException {
+        List<String> records = decode(write(createEvents(), false));
+        assertEquals("7 a.B.withoutId(int)int 1000000005 1 0 [var {\n  I: -1\n}\nindex: 0\n] I: 1\n null",
+                records.get(3));
+        assertEquals("7 a.B.withId()void 1000000010 2 0 [] null type: \"Exception\"\n", records.get(4));
+        assertEquals("7 a.B.withoutId(int)int 1000000030 3 10 [] null null", records.get(5));
+    }
+
+    @Test
+    public void columnarFileIsSmaller() throws IOException {
+        List<Event> events = createEvents();
+        assertTrue(write(events, true).length() < write(events, false).length());
+    }
+
+    private static class RecordingListener implements EventsListener {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void threadRegistered(long threadId, @NotNull String threadName) {
+            records.add("thread " + threadId + " " + threadName);
+        }
+
+        @Override
+        public void timeUnitFound(@NotNull EventProtos.TimeUnit timeUnit) {
+            records.add("time unit " + timeUnit);
+        }
+
+        @Override
+        public void methodEvent(long threadId,
+                                @NotNull MethodInfo method,
+                                long startTime,
+                                long duration,
+                                int samplingWeight,
+                                @NotNull List<EventProtos.Parameter> parameters,
+                                @Nullable EventProtos.Var returnValue,
+                                @Nullable EventProtos.Var.Object throwable) {
+            records.add(threadId + " " + method.className + "." + method.methodName + method.description + " " +
+                    startTime + " " + duration + " " + samplingWeight + " " + parameters + " " +
+                    returnValue + " " + throwable);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.ser_trees.call_tree;
+
+import com.github.kornilova_l.flamegraph.javaagent.logger.writer.SegmentEventWriter;
+import com.github.kornilova_l.flamegraph.proto.EventProtos.Event;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MappedLogTest {
+
+    private static Event newThread(int id) {
+        return Event.newBuilder()
+                .setNewThread(Event.Map.newBuilder().setId(id).setName("thread " + id))
+                .build();
+    }
+
+    @Test
+    public void uncommittedTailIsSkipped() throws IOException {
+        File dir = Files.createTempDirectory("segments").toFile();
+        SegmentEventWriter writer = new SegmentEventWriter(dir, 1024);
+        for (int i = 0; i < 500; i++) {
+            writer.write(newThread(i));
+            if (i % 10 == 9) {
+                writer.flush();
+            }
+        }
+        /* JVM is killed before these events are committed */
+        for (int i = 500; i < 505; i++) {
+            writer.write(newThread(i));
+        }
+        File[] segments = dir.listFiles();
+        assertNotNull(segments);
+        assertTrue(segments.length > 1);
+
+        try (MappedLog log = MappedLog.open(dir)) {
+            for (int i = 0; i < 500; i++) {
+                assertTrue(log.prepare(EventsDecoder.MAX_VARINT32_SIZE));
+                int length = EventsDecoder.readVarint32(log.buffer());
+                assertTrue(log.ensure(length));
+                ByteBuffer buffer = log.buffer();
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                Event event = Event.parseFrom(bytes);
+                assertEquals(i, event.getNewThread().getId());
+            }
+            assertFalse(log.prepare(EventsDecoder.MAX_VARINT32_SIZE));
+        }
+    }
+}
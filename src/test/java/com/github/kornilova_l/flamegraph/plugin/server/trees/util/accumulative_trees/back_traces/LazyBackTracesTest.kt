@@ -0,0 +1,39 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.back_traces
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.CallTracesMethodBuilderTest
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LazyBackTracesTest {
+    private val callTraces = PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable())
+    private val backTraces = BackTracesBuilder(callTraces).primitiveTree!!
+    private val lazyBackTraces = LazyBackTraces(callTraces)
+
+    @Test
+    fun wholeTree() {
+        val visiblePart = lazyBackTraces.getVisiblePart(emptyList(), null, Int.MAX_VALUE)!!
+        assertEquals(backTraces.toProto().baseNode.toString(), visiblePart.toProto().baseNode.toString())
+        assertEquals(backTraces.getMaxDepth(BASE_NODE), visiblePart.depth)
+    }
+
+    @Test
+    fun zoomedNode() {
+        val zoomedNode = backTraces.getChild(backTraces.getChild(BASE_NODE, 0), 0)
+        val visiblePart = lazyBackTraces.getVisiblePart(listOf(0, 0), null, Int.MAX_VALUE)!!
+        val expected = backTraces.toProtoNode(zoomedNode, Int.MAX_VALUE).toBuilder().setOffset(0).build()
+        assertEquals(expected.toString(), visiblePart.toProto().baseNode.getNodes(0).toString())
+        assertEquals(backTraces.getMaxDepth(zoomedNode) + 1, visiblePart.depth)
+    }
+
+    @Test
+    fun onlyFirstLayersAreBuilt() {
+        val firstLayerSize = backTraces.toProtoNode(BASE_NODE, 1).nodesCount
+        val visiblePart = lazyBackTraces.getVisiblePart(emptyList(), null, firstLayerSize)!!
+        assertEquals(firstLayerSize, visiblePart.nodesCount)
+        assertTrue(visiblePart.getMaxDepth(BASE_NODE) < visiblePart.depth)
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.call_traces
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.FrameTable
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
+import com.github.kornilova_l.flamegraph.proto.TreesProtos.Trees
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class OutgoingCallsBuilderTest {
+
+    /**
+     * Call is recorded only inside recorded parent,
+     * so width of node is multiplied by sampling weights of node and all its parents.
+     * Scaled b is wider than a, so a is widened to width of its children
+     *  ______
+     * |c (x2)|
+     * |b (x10)___|
+     * |a______________|_d_____|
+     */
+    @Test
+    fun widthsAreMultipliedBySamplingWeightsOfStack() {
+        val callTree = Tree.newBuilder()
+        callTree.baseNodeBuilder.addNodes(newNode("a", 100, 1)
+                .addNodes(newNode("b", 30, 10)
+                        .addNodes(newNode("c", 5, 2)))
+                .addNodes(newNode("d", 20, 1)))
+        val secondThread = Tree.newBuilder()
+        secondThread.baseNodeBuilder.addNodes(newNode("a", 10, 1)
+                .addNodes(newNode("b", 1, 10)))
+        val trees = Trees.newBuilder().addTrees(callTree).addTrees(secondThread).build()
+
+        val outgoingCalls = OutgoingCallsBuilder(trees, FrameTable()).tree!!
+
+        val a = getChild(outgoingCalls.baseNode, "a")
+        /* 300 + 20 in first thread and 10 in second */
+        assertEquals(330, a.width)
+        val b = getChild(a, "b")
+        assertEquals(310, b.width)
+        assertEquals(100, getChild(b, "c").width)
+        assertEquals(20, getChild(a, "d").width)
+        assertChildrenFitInParent(a)
+    }
+
+    private fun assertChildrenFitInParent(node: Tree.Node) {
+        assertTrue(node.nodesList.map { it.width }.sum() <= node.width)
+        var offset = node.offset
+        for (child in node.nodesList) {
+            assertEquals(offset, child.offset)
+            offset += child.width
+            assertChildrenFitInParent(child)
+        }
+    }
+
+    private fun newNode(className: String, width: Long, samplingWeight: Int): Tree.Node.Builder =
+            Tree.Node.newBuilder()
+                    .setNodeInfo(Tree.Node.NodeInfo.newBuilder()
+                            .setClassName(className)
+                            .setMethodName("method")
+                            .setDescription("()void"))
+                    .setWidth(width)
+                    .setSamplingWeight(samplingWeight)
+
+    private fun getChild(node: Tree.Node, className: String): Tree.Node =
+            node.nodesList.first { it.nodeInfo.className == className }
+}
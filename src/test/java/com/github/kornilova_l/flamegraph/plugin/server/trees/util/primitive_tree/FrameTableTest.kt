@@ -0,0 +1,34 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameTableTest {
+
+    @Test
+    fun frameIsAddedOnce() {
+        val frames = FrameTable()
+        val id = frames.getId("Class", "method", "()")
+        assertEquals(id, frames.getId("Class", "method", "()"))
+        assertEquals(id + 1, frames.getId("Class", "method", "(I)"))
+        assertEquals(2, frames.size())
+        assertEquals("Classmethod", frames.getComparableName(id))
+    }
+
+    @Test
+    fun retainedBytesGrowWithFrames() {
+        val frames = FrameTable()
+        val emptyTableBytes = frames.retainedBytes
+        frames.getId("Class", "method", "()")
+        val oneFrameBytes = frames.retainedBytes
+        assertTrue(oneFrameBytes > emptyTableBytes)
+        frames.getId("Class", "method", "()")
+        assertEquals(oneFrameBytes, frames.retainedBytes)
+        for (i in 0 until 100) {
+            frames.getId("Class", "method$i", "()")
+        }
+        /* frames have longer names than the first one */
+        assertTrue(frames.retainedBytes - emptyTableBytes >= 101 * (oneFrameBytes - emptyTableBytes))
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.CallTracesMethodBuilderTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.ByteBuffer
+
+class PrimitiveTreeFileTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun treeIsNotChangedBySaving() {
+        val sourceFile = folder.newFile("source.ser")
+        sourceFile.writeText("events")
+        val treeFile = folder.newFile("source.tree")
+        val tree = PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable())
+        PrimitiveTreeFile.write(tree, treeFile, sourceFile)
+
+        val savedTree = PrimitiveTreeFile.read(treeFile, sourceFile, FrameTable())
+        assertEquals(tree.toProto().toString(), savedTree!!.toProto().toString())
+        assertEquals(sourceFile.absolutePath, PrimitiveTreeFile.readSourcePath(treeFile))
+    }
+
+    @Test
+    fun fileIsNotUsedIfSourceChanged() {
+        val sourceFile = folder.newFile("source.ser")
+        sourceFile.writeText("events")
+        val treeFile = folder.newFile("source.tree")
+        PrimitiveTreeFile.write(PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable()),
+                treeFile, sourceFile)
+
+        sourceFile.appendText("more events")
+        assertNull(PrimitiveTreeFile.read(treeFile, sourceFile, FrameTable()))
+    }
+
+    /**
+     * Each int of file is replaced with negative and with big value.
+     * Corrupted file may be read as other tree or it may be not read, but it must not throw
+     */
+    @Test
+    fun corruptedFileDoesNotThrow() {
+        val sourceFile = folder.newFile("source.ser")
+        sourceFile.writeText("events")
+        val treeFile = folder.newFile("source.tree")
+        PrimitiveTreeFile.write(PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable()),
+                treeFile, sourceFile)
+        val bytes = treeFile.readBytes()
+        for (position in 0..bytes.size - Integer.BYTES) {
+            for (value in intArrayOf(-1, Int.MAX_VALUE, 1 shl 20)) {
+                val corruptedBytes = bytes.copyOf()
+                ByteBuffer.wrap(corruptedBytes).putInt(position, value)
+                /* new file each time because mapped file may not be changed on some systems */
+                val corruptedFile = File(folder.root, "corrupted-$position-$value.tree")
+                corruptedFile.writeBytes(corruptedBytes)
+                PrimitiveTreeFile.read(corruptedFile, sourceFile, FrameTable())
+            }
+        }
+    }
+
+    @Test
+    fun truncatedFileIsNotRead() {
+        val sourceFile = folder.newFile("source.ser")
+        sourceFile.writeText("events")
+        val treeFile = folder.newFile("source.tree")
+        PrimitiveTreeFile.write(PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable()),
+                treeFile, sourceFile)
+        treeFile.writeBytes(treeFile.readBytes().copyOf(treeFile.length().toInt() - 1))
+
+        assertNull(PrimitiveTreeFile.read(treeFile, sourceFile, FrameTable()))
+    }
+}
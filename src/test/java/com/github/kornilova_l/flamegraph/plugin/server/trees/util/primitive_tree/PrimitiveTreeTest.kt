@@ -0,0 +1,88 @@
+package com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree
+
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.TreesUtil
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.accumulative_trees.CallTracesMethodBuilderTest
+import com.github.kornilova_l.flamegraph.plugin.server.trees.util.primitive_tree.PrimitiveTree.BASE_NODE
+import com.github.kornilova_l.flamegraph.proto.TreeProtos.Tree
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PrimitiveTreeTest {
+
+    @Test
+    fun protoIsNotChangedByConversion() {
+        val tree = CallTracesMethodBuilderTest.getTree()
+        assertEquals(tree.toString(), PrimitiveTree.fromProto(tree, FrameTable()).toProto().toString())
+    }
+
+    /**
+     * The same stacks are added to protobuf tree with [TreesUtil.updateNodeList]
+     * and to primitive tree
+     */
+    @Test
+    fun childrenAreSortedLikeInTreesUtil() {
+        val stacks = listOf(
+                listOf("b" to "()", "a" to "()"),
+                listOf("a" to "(I)", "c" to "()"),
+                listOf("ab" to "()"),
+                listOf("a" to "()", "b" to "()"),
+                listOf("b" to "()", "a" to "(I)"),
+                listOf("a" to "(I)"))
+        val expected = Tree.newBuilder().setBaseNode(Tree.Node.newBuilder())
+        val frames = FrameTable()
+        val actual = PrimitiveTree(frames)
+        for ((i, stack) in stacks.withIndex()) {
+            var nodeBuilder = expected.baseNodeBuilder
+            var node = BASE_NODE
+            for ((methodName, desc) in stack) {
+                nodeBuilder = TreesUtil.updateNodeList(nodeBuilder, "Class", methodName, desc, i + 1L)
+                node = actual.updateChild(node, frames.getId("Class", methodName, desc), i + 1L)
+            }
+        }
+        TreesUtil.setNodesOffsetRecursively(expected.baseNodeBuilder, 0)
+        TreesUtil.setTreeWidth(expected)
+        TreesUtil.setNodesCount(expected)
+        expected.depth = 2
+        actual.finish()
+        actual.depth = actual.getMaxDepth(BASE_NODE)
+        assertEquals(expected.build().toString(), actual.toProto().toString())
+    }
+
+    @Test
+    fun childrenOfWideNodeAreMerged() {
+        val frames = FrameTable()
+        val tree = PrimitiveTree(frames)
+        for (i in 999 downTo 0) {
+            tree.updateChild(BASE_NODE, frames.getId("Class", "method" + i % 500, "($i)"), 1)
+        }
+        for (i in 0 until 1000) {
+            tree.updateChild(BASE_NODE, frames.getId("Class", "method" + i % 500, "($i)"), 2)
+        }
+        tree.finish()
+        assertEquals(1000, tree.nodesCount)
+        assertEquals(3000, tree.width)
+        var child = tree.getFirstChild(BASE_NODE)
+        for (i in 0 until 1000) {
+            assertEquals(3, tree.getWidth(child))
+            child = tree.getNextSibling(child)
+        }
+        val first = tree.getFirstChild(BASE_NODE)
+        assertEquals("method0", frames.getMethodName(tree.getFrameId(first)))
+        /* children with the same name are placed in order in which they were added */
+        assertEquals("(500)", frames.getDescription(tree.getFrameId(first)))
+        assertEquals("(0)", frames.getDescription(tree.getFrameId(tree.getNextSibling(first))))
+    }
+
+    @Test
+    fun onlyFirstLayersAreConverted() {
+        val tree = PrimitiveTree.fromProto(CallTracesMethodBuilderTest.getTree(), FrameTable())
+        assertEquals(3, tree.getMaxDepth(BASE_NODE))
+        val firstLayer = tree.toProtoNode(BASE_NODE, 1)
+        assertEquals(1, firstLayer.nodesCount)
+        assertEquals(0, firstLayer.getNodes(0).nodesCount)
+        val nodeWithChildren = tree.toProtoNode(tree.getFirstChild(BASE_NODE), 1)
+        assertEquals("DifferentClass", nodeWithChildren.nodeInfo.className)
+        assertEquals(1, nodeWithChildren.nodesCount)
+        assertEquals(0, nodeWithChildren.getNodes(0).nodesCount)
+    }
+}
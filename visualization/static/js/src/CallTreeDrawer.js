@@ -2,6 +2,15 @@ const PIX_IN_MS = 0.5;
 const EXCEPTION_COLOR = "#ff1533";
 
 const TreeDrawer = require('./TreeDrawer');
+const EventProto = require('../generated/com/github/kornilova_l/flamegraph/proto/event_pb');
+
+/**
+ * @param timeUnit unit of time in tree
+ * @return {Number} how many units are in one millisecond
+ */
+function getUnitsInMs(timeUnit) {
+    return timeUnit === EventProto.TimeUnit.NANOSECONDS ? 1000000 : 1;
+}
 
 module.exports.CallTreeDrawer = class CallTreeDrawer extends TreeDrawer.TreeDrawer {
     /**
@@ -10,7 +19,8 @@ module.exports.CallTreeDrawer = class CallTreeDrawer extends TreeDrawer.TreeDraw
      */
     constructor(tree, id) {
         super(tree);
-        this.canvasWidth = Math.ceil(this.treeWidth * PIX_IN_MS);
+        this.unitsInMs = getUnitsInMs(this.tree.getTreeInfo().getTimeUnit());
+        this.canvasWidth = Math.ceil(this.treeWidth / this.unitsInMs * PIX_IN_MS);
         if (this.canvasWidth > 32000) {
             this.canvasWidth = 32000;
         }
@@ -33,7 +43,22 @@ module.exports.CallTreeDrawer = class CallTreeDrawer extends TreeDrawer.TreeDraw
      */
     _setPopupContent(node) {
         super._setPopupContent(node);
-        this.$popup.find(".duration").text(node.getWidth() + " ms");
+        this.$popup.find(".duration").text(this._getDurationString(node.getWidth()));
+    }
+
+    /**
+     * @param {Number} duration in units of tree
+     * @return {String}
+     * @private
+     */
+    _getDurationString(duration) {
+        if (this.unitsInMs === 1) {
+            return duration + " ms";
+        }
+        if (duration < this.unitsInMs) {
+            return (duration / (this.unitsInMs / 1000)).toFixed(1) + " µs";
+        }
+        return (duration / this.unitsInMs).toFixed(3) + " ms";
     }
 
     /**
@@ -217,7 +217,7 @@ const constants = {
         "* Open Hot Spots page, click on back traces icon beside any method that you like",
         chooseFile: "Choose file",
         chooseOrUploadFile: "Choose or upload file",
-        noCallRegistered: "No call was registered or all methods took <1ms",
+        noCallRegistered: "No call was registered or all methods took less than minimal duration (1ms by default)",
         callTreeUnavailable: "Call tree is unavailable for this file"
     }
 };
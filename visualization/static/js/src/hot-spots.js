@@ -1,53 +1,71 @@
-let hotSpots = null;
-let iteration = 0;
+/* hot spots are requested by pages, server sends them sorted by self time */
+const pageSize = 200;
+let loadedCount = 0;
+let biggestRelativeTime = null;
 
 $(window).on("load", () => {
     if (constants.fileName !== undefined &&
         constants.projectName !== undefined) {
-        loadHotSpots();
+        common.showLoader(constants.loaderMessages.countingTime, () => {
+            loadHotSpots(common.hideLoader);
+        });
     }
 });
 
+/**
+ * One more hot spot is requested to know if there is next page
+ */
 function getRequestAddress() {
     return "/flamegraph-profiler/hot-spots-json?project=" +
         constants.projectName +
         "&" +
         "file=" +
-        constants.fileName;
+        constants.fileName +
+        "&offset=" + loadedCount +
+        "&count=" + (pageSize + 1);
 }
 
-function loadHotSpots() {
-    common.showLoader(constants.loaderMessages.countingTime, () => {
-        const request = new XMLHttpRequest();
-        request.open("GET", getRequestAddress(), true);
-        request.responseType = "json";
+/**
+ * @param {Function} [onLoad]
+ */
+function loadHotSpots(onLoad) {
+    const request = new XMLHttpRequest();
+    request.open("GET", getRequestAddress(), true);
+    request.responseType = "json";
 
-        request.onload = function () {
-            hotSpots = request.response;
-            if (hotSpots !== undefined && hotSpots.length > 0) {
-                appendHotSpots();
-            }
-            common.hideLoader();
-        };
-        request.send();
-    });
+    request.onload = function () {
+        const hotSpots = request.response;
+        if (hotSpots !== undefined && hotSpots.length > 0) {
+            appendHotSpots(hotSpots);
+        }
+        if (onLoad !== undefined) {
+            onLoad();
+        }
+    };
+    request.send();
 }
 
-function appendHotSpots() {
+function appendHotSpots(hotSpots) {
     removeShowMore();
-    const biggestRelativeTime = hotSpots[0].relativeTime;
-    for (let i = iteration * 200; i < hotSpots.length && i < (iteration * 200 + 200); i++) {
+    if (biggestRelativeTime === null) {
+        biggestRelativeTime = hotSpots[0].relativeTime;
+    }
+    for (let i = 0; i < hotSpots.length && i < pageSize; i++) {
         appendHotSpot(hotSpots[i], biggestRelativeTime);
     }
-    iteration++;
-    if (hotSpots.length > iteration * 200) {
+    loadedCount += Math.min(hotSpots.length, pageSize);
+    if (hotSpots.length > pageSize) {
         appendShowMore();
     }
 }
 
 function appendShowMore() {
-    const $showMoreButton = $("main").append($("<button>Show more</button>"));
-    $showMoreButton.click(appendHotSpots);
+    const $showMoreButton = $("<button>Show more</button>");
+    $showMoreButton.click(() => {
+        removeShowMore();
+        loadHotSpots();
+    });
+    $("main").append($showMoreButton);
 }
 
 function removeShowMore() {
@@ -60,7 +78,8 @@ function removeShowMore() {
  *  methodName: String,
  *  retVal: String,
  *  parameters: Array<String>,
- *  relativeTime: Number
+ *  relativeTime: Number,
+ *  totalRelativeTime: Number
  * }} hotSpot
  * @param {Number} biggestRelativeTime
  */